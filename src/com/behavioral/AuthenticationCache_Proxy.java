@@ -0,0 +1,333 @@
+/*
+ * Authentication Result Cache (Proxy)
+Follow up of: Rate Limiter + Access Control (Chain + Strategy) and Compiled Request Pipeline
+
+Requirement
+Authentication / AuthenticationStep authenticate from scratch on every request.
+In production that is a signature verification or a call to a token introspection service per request.
+Cache the result per credential
+bounded number of entries
+an entry lives as long as the token is valid, never longer
+invalid credentials are cached too (for a short time), so a client retrying a bad token does not hit the verifier every time
+a burst of requests with the same new token verifies it once, the others wait for that result (single flight)
+hit ratio and the verification time saved are reported through a metrics hook
+
+Patterns Used
+Proxy → AuthenticationCache stands in front of the real CredentialVerifier and has the same job
+Observer → AuthenticationCacheMetrics is told about every hit, miss and load
+ */
+
+
+/*
+ * - the raw credential is never kept. the key is the SHA-256 of it, so a heap dump does not leak tokens
+ *   and two different credentials can not end up on the same entry (a 64 bit hash could, and would log in the wrong user).
+ * - the map holds a CompletableFuture per key. the first thread puts an unfinished one and verifies,
+ *   the threads arriving meanwhile find it and wait on it. when it is done every later thread reads it as a hit.
+ * - when the map grows over maxEntries, expired entries are dropped first and then the ones loaded longest ago,
+ *   until the map is 10% under the bound. that sorts the loaded entries by load time, once per 10% of maxEntries new keys.
+ * - one MessageDigest per thread : getInstance on every request was a provider lookup and an allocation, on hits too.
+ */
+
+package com.behavioral;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+final class AuthenticationResult {
+	private static final AuthenticationResult INVALID = new AuthenticationResult(false, null, 0);
+
+	final boolean valid;
+	final String principal;
+	final long expiresAtMillis;		// when the token itself stops being valid (epoch millis)
+
+	private AuthenticationResult(boolean valid, String principal, long expiresAtMillis) {
+		this.valid = valid;
+		this.principal = principal;
+		this.expiresAtMillis = expiresAtMillis;
+	}
+
+	static AuthenticationResult valid(String principal, long expiresAtMillis) {
+		return new AuthenticationResult(true, principal, expiresAtMillis);
+	}
+
+	static AuthenticationResult invalid() {
+		return INVALID;
+	}
+}
+
+// the expensive part : verify a signature, call an introspection endpoint ...
+interface CredentialVerifier {
+	AuthenticationResult verify(String credential);
+}
+
+interface AuthenticationCacheMetrics {
+	void onHit(boolean valid);
+
+	// verifyNanos = how long the verifier took
+	void onLoad(boolean valid, long verifyNanos);
+
+	// a thread that found a verification of the same credential already running and waited for it
+	void onCoalesced();
+
+	void onEvicted(int entries);
+}
+
+class CountingAuthenticationCacheMetrics implements AuthenticationCacheMetrics {
+	final LongAdder hits = new LongAdder();
+	final LongAdder negativeHits = new LongAdder();
+	final LongAdder loads = new LongAdder();
+	final LongAdder loadNanos = new LongAdder();
+	final LongAdder coalesced = new LongAdder();
+	final LongAdder evicted = new LongAdder();
+
+	@Override
+	public void onHit(boolean valid) {
+		hits.increment();
+		if(!valid) negativeHits.increment();
+	}
+
+	@Override
+	public void onLoad(boolean valid, long verifyNanos) {
+		loads.increment();
+		loadNanos.add(verifyNanos);
+	}
+
+	@Override
+	public void onCoalesced() {
+		coalesced.increment();
+	}
+
+	@Override
+	public void onEvicted(int entries) {
+		evicted.add(entries);
+	}
+
+	public double hitRatio() {
+		long requests = hits.sum() + loads.sum() + coalesced.sum();
+		return requests == 0 ? 0 : (double) (hits.sum() + coalesced.sum()) / requests;
+	}
+
+	// every request that did not verify saved one average verification
+	public long savedNanos() {
+		long loadCount = loads.sum();
+		return loadCount == 0 ? 0 : (hits.sum() + coalesced.sum()) * (loadNanos.sum() / loadCount);
+	}
+
+	public String toString() {
+		return String.format("hit ratio %.1f%% (hits %d, of which invalid %d, waited on a running load %d), verifications %d, saved %d ms, evicted %d",
+				hitRatio() * 100, hits.sum(), negativeHits.sum(), coalesced.sum(), loads.sum(),
+				TimeUnit.NANOSECONDS.toMillis(savedNanos()), evicted.sum());
+	}
+}
+
+class AuthenticationCache {
+	private final CredentialVerifier verifier;
+	private final int maxEntries;
+	private final long maxTtlMillis;
+	private final long negativeTtlMillis;
+	private final AuthenticationCacheMetrics metrics;
+	private final ConcurrentHashMap<String, CompletableFuture<CachedResult>> entries = new ConcurrentHashMap<>();
+
+	private static final class CachedResult {
+		final AuthenticationResult result;
+		final long loadedAtMillis;
+		final long cachedUntilMillis;
+
+		CachedResult(AuthenticationResult result, long loadedAtMillis, long cachedUntilMillis) {
+			this.result = result;
+			this.loadedAtMillis = loadedAtMillis;
+			this.cachedUntilMillis = cachedUntilMillis;
+		}
+	}
+
+	public AuthenticationCache(CredentialVerifier verifier, int maxEntries, long maxTtl, long negativeTtl, TimeUnit unit,
+			AuthenticationCacheMetrics metrics) {
+		if(maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be positive");
+		this.verifier = verifier;
+		this.maxEntries = maxEntries;
+		this.maxTtlMillis = unit.toMillis(maxTtl);
+		this.negativeTtlMillis = unit.toMillis(negativeTtl);
+		this.metrics = metrics;
+	}
+
+	public AuthenticationResult authenticate(String credential) {
+		if(credential == null || credential.isEmpty()) return AuthenticationResult.invalid();
+		String key = keyOf(credential);
+
+		while(true) {
+			CompletableFuture<CachedResult> cached = entries.get(key);
+
+			if(cached == null) {
+				CompletableFuture<CachedResult> mine = new CompletableFuture<>();
+				cached = entries.putIfAbsent(key, mine);
+				if(cached == null) return load(key, credential, mine);		// we won, every other thread waits on mine
+			}
+
+			if(!cached.isDone()) {
+				metrics.onCoalesced();
+				CachedResult result = cached.join();		// a failed load throws here as well, like it did for the loader
+				return result.result;
+			}
+
+			CachedResult result = cached.join();
+			if(System.currentTimeMillis() < result.cachedUntilMillis) {
+				metrics.onHit(result.result.valid);
+				return result.result;
+			}
+			entries.remove(key, cached);		// expired, the next round loads it again
+		}
+	}
+
+	private AuthenticationResult load(String key, String credential, CompletableFuture<CachedResult> mine) {
+		try {
+			long start = System.nanoTime();
+			AuthenticationResult result = verifier.verify(credential);
+			if(result == null) throw new IllegalStateException("the verifier returned no result");
+			metrics.onLoad(result.valid, System.nanoTime() - start);
+
+			long now = System.currentTimeMillis();
+			long until = result.valid ? Math.min(result.expiresAtMillis, now + maxTtlMillis) : now + negativeTtlMillis;
+			mine.complete(new CachedResult(result, now, until));
+
+			if(entries.size() > maxEntries) evict(now);
+			return result;
+		}
+		catch(Throwable e) {		// whatever went wrong, the threads waiting on mine are released and the key loads again next time
+			entries.remove(key, mine);		// do not cache a failure of the verifier itself
+			mine.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	// expired first, then the ones loaded longest ago until we are 10% under the bound
+	private void evict(long now) {
+		int removed = 0;
+		List<Map.Entry<String, CompletableFuture<CachedResult>>> loaded = new ArrayList<>();
+		for(Iterator<Map.Entry<String, CompletableFuture<CachedResult>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, CompletableFuture<CachedResult>> entry = it.next();
+			CompletableFuture<CachedResult> cached = entry.getValue();
+			if(!cached.isDone() || cached.isCompletedExceptionally()) continue;		// never drop a load others are waiting on
+			if(cached.join().cachedUntilMillis <= now) {
+				it.remove();
+				removed++;
+			}
+			else loaded.add(entry);
+		}
+
+		int excess = entries.size() - (maxEntries - maxEntries / 10);
+		if(excess > 0) {
+			loaded.sort(Comparator.comparingLong(entry -> entry.getValue().join().loadedAtMillis));
+			for(int i = 0; i < loaded.size() && excess > 0; i++) {
+				Map.Entry<String, CompletableFuture<CachedResult>> oldest = loaded.get(i);
+				if(entries.remove(oldest.getKey(), oldest.getValue())) {
+					removed++;
+					excess--;
+				}
+			}
+		}
+		if(removed > 0) metrics.onEvicted(removed);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required by every java platform", e);
+		}
+	});
+
+	static String keyOf(String credential) {
+		return Base64.getEncoder().encodeToString(SHA_256.get().digest(credential.getBytes(StandardCharsets.UTF_8)));		// digest() resets it
+	}
+}
+
+// drop in for AuthenticationHandler in a CompiledApiPipeline
+class CachingAuthenticationHandler implements ApiRequestHandler {
+	private final AuthenticationCache cache;
+
+	public CachingAuthenticationHandler(AuthenticationCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		AuthenticationResult result = cache.authenticate(context.credential);
+		context.authenticated = result.valid;
+		context.principal = result.principal;
+		return result.valid;
+	}
+}
+
+
+
+public class AuthenticationCache_Proxy {
+	public static void main(String[] args) throws InterruptedException {
+		AtomicInteger verifications = new AtomicInteger();
+
+		// pretends to verify a signed token : takes 2 ms, tokens "token-<user>" are valid for 1 minute
+		CredentialVerifier slowVerifier = credential -> {
+			verifications.incrementAndGet();
+			try {
+				Thread.sleep(2);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(!credential.startsWith("token-")) return AuthenticationResult.invalid();
+			return AuthenticationResult.valid(credential.substring(6), System.currentTimeMillis() + 60_000);
+		};
+
+		CountingAuthenticationCacheMetrics metrics = new CountingAuthenticationCacheMetrics();
+		AuthenticationCache cache = new AuthenticationCache(slowVerifier, 10_000, 5, 1, TimeUnit.MINUTES, metrics);
+
+		// 32 threads show up at the same moment with the same brand new token
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(32);
+		for(int i = 0; i < 32; i++) {
+			new Thread(() -> {
+				try {
+					start.await();
+					cache.authenticate("token-alice");
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.countDown();
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		System.out.println("burst of 32 for one new token → verifier called " + verifications.get() + " time(s)");
+
+		CompiledApiPipeline pipeline = CompiledApiPipeline.builder()
+				.then(new CachingAuthenticationHandler(cache))
+				.then(new AuthorizationHandler())
+				.build();
+
+		ApiRequestContext context = new ApiRequestContext();
+		for(int i = 0; i < 1_000; i++) {
+			String credential = i % 10 == 0 ? "stolen-cookie" : "token-user" + (i % 50);
+			pipeline.execute(context.reset("user" + (i % 50), "10.0.0.1", "India", credential, "/orders"));
+		}
+		System.out.println("after 1000 requests → verifier called " + verifications.get() + " times");
+		System.out.println(metrics);
+	}
+}
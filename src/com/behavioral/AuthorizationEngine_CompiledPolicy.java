@@ -0,0 +1,304 @@
+/*
+ * Authorization Engine with a compiled decision index (Builder + copy on write)
+Follow up of: Rate Limiter + Access Control (Chain + Strategy) and Compiled Request Pipeline
+
+Requirement
+Authorization / AuthorizationStep has no policy model at all.
+Policies are role → permission → resources ("support" has "orders.read", which is "read" on "orders/*").
+Walking the roles, their permissions and the resource lists of those on every request is too slow.
+Compile the policies once into a bitset based index so that a check is a few array reads.
+Policies change at runtime. A new version is compiled on the side and swapped in atomically, readers never lock.
+
+Patterns Used
+Builder → AuthorizationPolicy is built up, then compiled once
+Copy on write → AuthorizationEngine swaps a whole new index in, an index is never changed after it is built
+ */
+
+
+/*
+ * why through permissions and not a role x resource matrix :-
+ * - 10k roles x 100k resources = 10^9 bits = 125 MB per action, and every policy change rewrites all of it.
+ * - the policy is already factored: few permissions, each covering many resources and granted to many roles.
+ * - so every permission gets a bit number p. the index keeps
+ *   role     → bitset of the permissions the role has
+ *   resource → bitset of the permissions covering it (one table per action)
+ *   allowed = (role bits AND resource bits) != 0, i.e. words = permissions / 64 pairs of array reads, most checks stop at the first hit.
+ * - both tables are flat long[] with a fixed stride, no object per role or resource.
+ *
+ * - resources are sorted by name before they get their ids, so "orders/*" is one contiguous id range found with two binary searches.
+ * - names are turned into ids with a HashMap lookup. a caller that checks often can resolve ids once and use the int api.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+class AuthorizationPolicy {
+	final Map<String, Permission> permissions;
+	final Map<String, List<String>> grants;		// role → permission names
+	final TreeSet<String> resources;
+
+	static final class Permission {
+		final String name;
+		final String action;
+		final List<String> resources;		// exact names, or a prefix ending with "*"
+
+		Permission(String name, String action, List<String> resources) {
+			this.name = name;
+			this.action = action;
+			this.resources = resources;
+		}
+	}
+
+	private AuthorizationPolicy(Builder builder) {
+		this.permissions = new LinkedHashMap<>(builder.permissions);
+		this.grants = new LinkedHashMap<>();
+		for(Map.Entry<String, List<String>> granted: builder.grants.entrySet()) {
+			this.grants.put(granted.getKey(), List.copyOf(granted.getValue()));		// grant() after build() must not change this policy
+		}
+		this.resources = new TreeSet<>(builder.resources);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	static class Builder {
+		private final Map<String, Permission> permissions = new LinkedHashMap<>();
+		private final Map<String, List<String>> grants = new LinkedHashMap<>();
+		private final TreeSet<String> resources = new TreeSet<>();
+
+		// every resource a wildcard may cover has to be known
+		public Builder resource(String name) {
+			resources.add(name);
+			return this;
+		}
+
+		public Builder permission(String name, String action, String... resourcePatterns) {
+			List<String> patterns = Arrays.asList(resourcePatterns.clone());
+			for(String pattern: patterns) {
+				if(!pattern.endsWith("*")) resources.add(pattern);
+			}
+			permissions.put(name, new Permission(name, action, patterns));
+			return this;
+		}
+
+		public Builder grant(String role, String... permissionNames) {
+			List<String> granted = grants.computeIfAbsent(role, r -> new ArrayList<>());
+			granted.addAll(Arrays.asList(permissionNames));
+			return this;
+		}
+
+		public AuthorizationPolicy build() {
+			for(List<String> granted: grants.values()) {
+				for(String permission: granted) {
+					if(!permissions.containsKey(permission)) throw new IllegalArgumentException("unknown permission " + permission);
+				}
+			}
+			return new AuthorizationPolicy(this);
+		}
+	}
+}
+
+final class CompiledAuthorizationIndex {
+	private final Map<String, Integer> roleIds = new HashMap<>();
+	private final Map<String, Integer> resourceIds = new HashMap<>();
+	private final Map<String, Integer> actionIds = new HashMap<>();
+	private final int words;					// longs per bitset
+	private final long[] rolePermissions;		// role * words + w
+	private final long[][] resourcePermissions;	// [action][resource * words + w]
+	final int version;
+
+	CompiledAuthorizationIndex(AuthorizationPolicy policy, int version) {
+		this.version = version;
+
+		String[] resources = policy.resources.toArray(new String[0]);		// sorted, so a prefix is a contiguous id range
+		for(int i = 0; i < resources.length; i++) resourceIds.put(resources[i], i);
+
+		Map<String, Integer> permissionBits = new HashMap<>();
+		for(AuthorizationPolicy.Permission permission: policy.permissions.values()) {
+			permissionBits.put(permission.name, permissionBits.size());
+			actionIds.putIfAbsent(permission.action, actionIds.size());
+		}
+		this.words = Math.max(1, (permissionBits.size() + 63) >>> 6);
+
+		this.resourcePermissions = new long[actionIds.size()][resources.length * words];
+		for(AuthorizationPolicy.Permission permission: policy.permissions.values()) {
+			long[] table = resourcePermissions[actionIds.get(permission.action)];
+			int bit = permissionBits.get(permission.name);
+			for(String pattern: permission.resources) {
+				int from, to;
+				if(pattern.endsWith("*")) {
+					String prefix = pattern.substring(0, pattern.length() - 1);
+					from = lowerBound(resources, prefix);
+					to = lowerBound(resources, prefix + Character.MAX_VALUE);
+				}
+				else {
+					from = resourceIds.get(pattern);
+					to = from + 1;
+				}
+				for(int resource = from; resource < to; resource++) {
+					table[resource * words + (bit >>> 6)] |= 1L << bit;
+				}
+			}
+		}
+
+		for(String role: policy.grants.keySet()) roleIds.put(role, roleIds.size());
+		this.rolePermissions = new long[roleIds.size() * words];
+		for(Map.Entry<String, List<String>> grant: policy.grants.entrySet()) {
+			int role = roleIds.get(grant.getKey());
+			for(String permission: grant.getValue()) {
+				int bit = permissionBits.get(permission);
+				rolePermissions[role * words + (bit >>> 6)] |= 1L << bit;
+			}
+		}
+	}
+
+	private static int lowerBound(String[] sorted, String key) {
+		int index = Arrays.binarySearch(sorted, key);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	// -1 when unknown. unknown roles, actions and resources are never allowed
+	int roleId(String role) {
+		Integer id = roleIds.get(role);
+		return id == null ? -1 : id;
+	}
+
+	int actionId(String action) {
+		Integer id = actionIds.get(action);
+		return id == null ? -1 : id;
+	}
+
+	int resourceId(String resource) {
+		Integer id = resourceIds.get(resource);
+		return id == null ? -1 : id;
+	}
+
+	boolean isAllowed(int role, int action, int resource) {
+		if(role < 0 || action < 0 || resource < 0) return false;
+		long[] covering = resourcePermissions[action];
+		int roleAt = role * words, resourceAt = resource * words;
+		for(int w = 0; w < words; w++) {
+			if((rolePermissions[roleAt + w] & covering[resourceAt + w]) != 0) return true;
+		}
+		return false;
+	}
+
+	long footprintBytes() {
+		long bytes = 8L * rolePermissions.length;
+		for(long[] table: resourcePermissions) bytes += 8L * table.length;
+		return bytes;
+	}
+
+	int roles() {
+		return roleIds.size();
+	}
+
+	int resources() {
+		return resourceIds.size();
+	}
+}
+
+class AuthorizationEngine {
+	private volatile CompiledAuthorizationIndex index;
+
+	public AuthorizationEngine(AuthorizationPolicy policy) {
+		this.index = new CompiledAuthorizationIndex(policy, 1);
+	}
+
+	// compiles next to the live index, then one volatile write. checks running meanwhile finish on the old one
+	public synchronized void update(AuthorizationPolicy policy) {
+		index = new CompiledAuthorizationIndex(policy, index.version + 1);
+	}
+
+	// the snapshot to use for a batch of checks or to resolve ids, it never changes underneath the caller
+	public CompiledAuthorizationIndex current() {
+		return index;
+	}
+
+	public boolean isAllowed(String role, String action, String resource) {
+		CompiledAuthorizationIndex index = this.index;		// read once, so role / action / resource ids come from the same version
+		return index.isAllowed(index.roleId(role), index.actionId(action), index.resourceId(resource));
+	}
+
+	public boolean isAllowed(String[] roles, String action, String resource) {
+		CompiledAuthorizationIndex index = this.index;
+		int actionId = index.actionId(action), resourceId = index.resourceId(resource);
+		for(String role: roles) {
+			if(index.isAllowed(index.roleId(role), actionId, resourceId)) return true;
+		}
+		return false;
+	}
+}
+
+// drop in for AuthorizationHandler in a CompiledApiPipeline. the roles of a principal come from wherever they live (token claims, a directory)
+class PolicyAuthorizationHandler implements ApiRequestHandler {
+	private static final String[] NO_ROLES = new String[0];
+
+	private final AuthorizationEngine engine;
+	private final Function<String, String[]> rolesOfPrincipal;
+
+	public PolicyAuthorizationHandler(AuthorizationEngine engine, Function<String, String[]> rolesOfPrincipal) {
+		this.engine = engine;
+		this.rolesOfPrincipal = rolesOfPrincipal;
+	}
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		String[] roles = context.principal == null ? NO_ROLES : rolesOfPrincipal.apply(context.principal);
+		context.authorized = context.authenticated && roles != null && engine.isAllowed(roles, context.action, context.resource);
+		return context.authorized;
+	}
+}
+
+
+
+public class AuthorizationEngine_CompiledPolicy {
+	public static void main(String[] args) {
+		AuthorizationPolicy policy = AuthorizationPolicy.builder()
+				.resource("orders/1").resource("orders/2").resource("payments/1")
+				.permission("orders.read", "read", "orders/*")
+				.permission("orders.write", "write", "orders/*")
+				.permission("payments.read", "read", "payments/*")
+				.grant("support", "orders.read")
+				.grant("admin", "orders.read", "orders.write", "payments.read")
+				.build();
+
+		AuthorizationEngine engine = new AuthorizationEngine(policy);
+		System.out.println("support read  orders/1   → " + engine.isAllowed("support", "read", "orders/1"));
+		System.out.println("support write orders/1   → " + engine.isAllowed("support", "write", "orders/1"));
+		System.out.println("support read  payments/1 → " + engine.isAllowed("support", "read", "payments/1"));
+		System.out.println("admin   write orders/2   → " + engine.isAllowed("admin", "write", "orders/2"));
+
+		engine.update(AuthorizationPolicy.builder()
+				.resource("orders/1").resource("orders/2").resource("payments/1")
+				.permission("orders.read", "read", "orders/*")
+				.permission("payments.read", "read", "payments/*")
+				.grant("support", "orders.read", "payments.read")
+				.build());
+		System.out.println("---- policy v" + engine.current().version + " swapped in ----");
+		System.out.println("support read  payments/1 → " + engine.isAllowed("support", "read", "payments/1"));
+
+		Map<String, String[]> roles = Map.of("alice", new String[] {"support"});
+		CompiledApiPipeline pipeline = CompiledApiPipeline.builder()
+				.then(new AuthenticationHandler())
+				.then(context -> {		// stands in for the authentication cache which sets the principal
+					context.principal = context.keys.user;
+					return true;
+				})
+				.then(new PolicyAuthorizationHandler(engine, roles::get))
+				.build();
+
+		ApiRequestContext context = new ApiRequestContext().reset("alice", "10.0.0.1", "India", "token-alice", "orders/1");
+		context.action = "write";
+		System.out.println("alice write orders/1 through the pipeline → " + (pipeline.execute(context) ? "allowed" : "stopped at " + context.rejectedBy));
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Benchmark for the compiled authorization index in AuthorizationEngine_CompiledPolicy
+ *
+ * - 10k roles, 100k resources in 1000 folders, 512 permissions over 2 actions.
+ *   every permission covers a few folders ("folder17/*"), every role has a handful of permissions.
+ * - compiled : CompiledAuthorizationIndex.isAllowed(role, action, resource) with ids resolved up front
+ * - by name  : AuthorizationEngine.isAllowed(role, action, resource) including the three name → id lookups
+ * - walk     : what it replaces, role → its permissions → their resource patterns, matched on every check
+ * - also reports compile time and the size of the index, and swaps a new policy in while checks are running.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with warmup + measured rounds.
+ * run it with: java -cp bin com.behavioral.AuthorizationIndexBenchmark
+ */
+
+package com.behavioral;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AuthorizationIndexBenchmark {
+	static final int ROLES = 10_000;
+	static final int RESOURCES = 100_000;
+	static final int FOLDERS = 1_000;
+	static final int PERMISSIONS = 512;
+	static final int FOLDERS_PER_PERMISSION = 4;
+	static final int PERMISSIONS_PER_ROLE = 5;
+	static final int CHECKS = 1 << 20;
+	static final String[] ACTIONS = {"read", "write"};
+
+	static volatile long sink;
+
+	public static void main(String[] args) throws InterruptedException {
+		Random random = new Random(42);
+		AuthorizationPolicy policy = policy(random);
+
+		long compileStart = System.nanoTime();
+		AuthorizationEngine engine = new AuthorizationEngine(policy);
+		long compileNanos = System.nanoTime() - compileStart;
+		CompiledAuthorizationIndex index = engine.current();
+		System.out.printf("%,d roles x %,d resources, %d permissions → compiled in %d ms, index %,d KB%n",
+				index.roles(), index.resources(), PERMISSIONS, compileNanos / 1_000_000, index.footprintBytes() / 1024);
+
+		// the same random checks for every variant
+		String[] roleNames = new String[CHECKS], actionNames = new String[CHECKS], resourceNames = new String[CHECKS];
+		int[] roleIds = new int[CHECKS], actionIds = new int[CHECKS], resourceIds = new int[CHECKS];
+		for(int i = 0; i < CHECKS; i++) {
+			roleNames[i] = "role" + random.nextInt(ROLES);
+			actionNames[i] = ACTIONS[random.nextInt(ACTIONS.length)];
+			resourceNames[i] = resourceName(random.nextInt(RESOURCES));
+			roleIds[i] = index.roleId(roleNames[i]);
+			actionIds[i] = index.actionId(actionNames[i]);
+			resourceIds[i] = index.resourceId(resourceNames[i]);
+		}
+
+		for(int round = 0; round < 5; round++) {		// the last round is reported, the others warm up
+			long allowed = 0;
+			long start = System.nanoTime();
+			for(int i = 0; i < CHECKS; i++) {
+				if(index.isAllowed(roleIds[i], actionIds[i], resourceIds[i])) allowed++;
+			}
+			long compiled = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int i = 0; i < CHECKS; i++) {
+				if(engine.isAllowed(roleNames[i], actionNames[i], resourceNames[i])) allowed++;
+			}
+			long byName = System.nanoTime() - start;
+
+			int walkChecks = CHECKS / 16;		// the walk is slow, a slice of the checks is enough
+			start = System.nanoTime();
+			for(int i = 0; i < walkChecks; i++) {
+				if(walk(policy, roleNames[i], actionNames[i], resourceNames[i])) allowed++;
+			}
+			long walk = System.nanoTime() - start;
+			sink = allowed;
+
+			if(round == 4) {
+				System.out.printf("compiled (ids)   %8.1f ns/check%n", (double) compiled / CHECKS);
+				System.out.printf("compiled (names) %8.1f ns/check%n", (double) byName / CHECKS);
+				System.out.printf("policy walk      %8.1f ns/check%n", (double) walk / walkChecks);
+			}
+		}
+
+		// copy on write under load : a reader keeps checking while a new policy is compiled and swapped in
+		AtomicBoolean running = new AtomicBoolean(true);
+		long[] readerChecks = new long[1];
+		Thread reader = new Thread(() -> {
+			long checks = 0;
+			while(running.get()) {
+				int i = (int) (checks & (CHECKS - 1));
+				if(engine.isAllowed(roleNames[i], actionNames[i], resourceNames[i])) sink = checks;
+				checks++;
+			}
+			readerChecks[0] = checks;
+		});
+		reader.start();
+		long swapStart = System.nanoTime();
+		engine.update(policy(new Random(7)));
+		long swapNanos = System.nanoTime() - swapStart;
+		running.set(false);
+		reader.join();
+		System.out.printf("swap to v%d took %d ms of compiling, %,d checks ran meanwhile without waiting%n",
+				engine.current().version, swapNanos / 1_000_000, readerChecks[0]);
+	}
+
+	static String resourceName(int resource) {
+		return "folder" + (resource % FOLDERS) + "/doc" + resource;
+	}
+
+	static AuthorizationPolicy policy(Random random) {
+		AuthorizationPolicy.Builder builder = AuthorizationPolicy.builder();
+		for(int r = 0; r < RESOURCES; r++) builder.resource(resourceName(r));
+
+		for(int p = 0; p < PERMISSIONS; p++) {
+			String[] patterns = new String[FOLDERS_PER_PERMISSION];
+			for(int f = 0; f < FOLDERS_PER_PERMISSION; f++) patterns[f] = "folder" + random.nextInt(FOLDERS) + "/*";
+			builder.permission("perm" + p, ACTIONS[p % ACTIONS.length], patterns);
+		}
+
+		for(int role = 0; role < ROLES; role++) {
+			String[] granted = new String[PERMISSIONS_PER_ROLE];
+			for(int g = 0; g < PERMISSIONS_PER_ROLE; g++) granted[g] = "perm" + random.nextInt(PERMISSIONS);
+			builder.grant("role" + role, granted);
+		}
+		return builder.build();
+	}
+
+	// the uncompiled way, straight off the policy model
+	static boolean walk(AuthorizationPolicy policy, String role, String action, String resource) {
+		List<String> granted = policy.grants.get(role);
+		if(granted == null) return false;
+		for(String name: granted) {
+			AuthorizationPolicy.Permission permission = policy.permissions.get(name);
+			if(!permission.action.equals(action)) continue;
+			for(String pattern: permission.resources) {
+				boolean matches = pattern.endsWith("*")
+						? resource.startsWith(pattern.substring(0, pattern.length() - 1))
+						: resource.equals(pattern);
+				if(matches) return true;
+			}
+		}
+		return false;
+	}
+}
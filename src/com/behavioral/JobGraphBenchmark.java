@@ -0,0 +1,101 @@
+/*
+ * Benchmark for ParallelJobRunner in JobGraph_WorkStealing
+ *
+ * - a random DAG of 100k jobs : every job depends on 0 to 3 jobs among the 1000 added before it, every job spins for 10 µs.
+ *   → 1 s of work in total, wide enough for any number of cores, with a critical path of a few hundred jobs.
+ * - run at 1, 2, 4 ... cores up to the number of cpus (or the first argument), 3 rounds each, the last one counts.
+ * - makespan  : first job started → last job finished.
+ * - ideal     : max(work / cores, critical path), what a perfect scheduler with no overhead would get.
+ * - cpu util  : process cpu time during the run / (makespan x cores). below 100% is time some worker had nothing to do
+ *   (or, with more threads than cpus, was not given a cpu).
+ * - sequential : the same jobs in topological order in one loop on the main thread, the baseline without any scheduler.
+ * - overhead   : the same graph with jobs that do nothing, makespan / jobs. the cost of the runner per job.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main().
+ * run it with: java -cp bin com.behavioral.JobGraphBenchmark [max cores]
+ */
+
+package com.behavioral;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class JobGraphBenchmark {
+	static final int JOBS = 100_000;
+	static final int WINDOW = 1_000;
+	static final long WORK_NANOS = 10_000;
+	static final int ROUNDS = 3;
+	static volatile long workNanos = WORK_NANOS;		// 0 → empty jobs, to measure the runner itself
+
+	public static void main(String[] args) throws InterruptedException {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int maxCores = args.length > 0 ? Integer.parseInt(args[0]) : cpus;
+		com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+		Random random = new Random(42);
+		JobGraph graph = new JobGraph();
+		JobNode[] nodes = new JobNode[JOBS];
+		int[] depth = new int[JOBS];		// jobs on the longest chain ending here
+		int criticalPath = 0;
+		Runnable work = () -> spin(workNanos);
+		for(int i = 0; i < JOBS; i++) {
+			nodes[i] = graph.add(new Job("job" + i), work);
+			int parents = i == 0 ? 0 : random.nextInt(4);
+			depth[i] = 1;
+			for(int p = 0; p < parents; p++) {
+				int parent = Math.max(0, i - 1 - random.nextInt(WINDOW));
+				graph.dependsOn(nodes[i], nodes[parent]);
+				depth[i] = Math.max(depth[i], depth[parent] + 1);
+			}
+			criticalPath = Math.max(criticalPath, depth[i]);
+		}
+		double workMillis = JOBS * WORK_NANOS / 1e6, pathMillis = criticalPath * WORK_NANOS / 1e6;
+		System.out.printf("%,d jobs, %,d dependencies, %.0f ms of work, critical path %d jobs (%.1f ms), %d cpus%n",
+				JOBS, edges(nodes), workMillis, criticalPath, pathMillis, cpus);
+
+		long sequential = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for(JobNode node: nodes) node.work.run();		// indexes are a topological order, parents are always added first
+			sequential = System.nanoTime() - start;
+		}
+		System.out.printf("sequential on the main thread : %.0f ms%n", sequential / 1e6);
+
+		System.out.printf("%-6s %14s %10s %10s %10s %16s%n", "cores", "makespan ms", "ideal ms", "speedup", "cpu util", "overhead ns/job");
+		double oneCore = 0;
+		for(int cores = 1; cores <= maxCores; cores = cores * 2 > maxCores && cores < maxCores ? maxCores : cores * 2) {
+			ParallelJobRunner runner = new ParallelJobRunner(cores);
+			GraphRun run = null;
+			long cpuNanos = 0;
+			for(int round = 0; round < ROUNDS; round++) {
+				long cpuBefore = os.getProcessCpuTime();
+				run = runner.run(graph);
+				cpuNanos = os.getProcessCpuTime() - cpuBefore;
+			}
+			workNanos = 0;
+			long overhead = Long.MAX_VALUE;
+			for(int round = 0; round < 5 * ROUNDS; round++) overhead = Math.min(overhead, runner.run(graph).makespanNanos / JOBS);
+			workNanos = WORK_NANOS;
+			runner.shutdown();
+			if(run.done != JOBS) throw new IllegalStateException("not every job ran : " + run);
+
+			double makespan = run.makespanNanos / 1e6;
+			if(cores == 1) oneCore = makespan;
+			double ideal = Math.max(workMillis / cores, pathMillis);
+			double utilization = cpuNanos / (run.makespanNanos * (double) cores);
+			System.out.printf("%-6d %14.1f %10.1f %9.2fx %9.0f%% %16d%n", cores, makespan, ideal, oneCore / makespan, utilization * 100, overhead);
+		}
+	}
+
+	private static long edges(JobNode[] nodes) {
+		long edges = 0;
+		for(JobNode node: nodes) edges += node.parents;
+		return edges;
+	}
+
+	private static void spin(long nanos) {
+		if(nanos == 0) return;
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) { }
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Parallel Job Graph on a work stealing pool (Command + Observer)
+Follow up of: Scheduler System (Command + Singleton + Observer)
+
+Requirement
+executeAllJobs() runs every job one after the other on the main thread.
+Jobs can depend on other jobs, the dependencies form a DAG.
+Independent jobs run at the same time, a job starts as soon as all its parents are done (not when a whole "level" is done).
+A job whose parent failed does not run (skipped), the rest of the graph goes on.
+Runs on a work stealing pool of configurable size.
+Makespan and cpu utilization of a 100k job DAG at 1 to N cores (JobGraphBenchmark).
+
+Patterns Used
+Command → every node is a job and its work, run on whichever worker gets to it
+Observer → an optional JobExecutor hears Pending / In Progress / Done / Failed of every node (a skipped node is Failed too)
+ */
+
+
+/*
+ * - every node counts the parents it still waits for. the worker that finishes a parent counts its children down,
+ *   a child that reaches 0 is ready. no node is ever looked at before it is ready, nothing polls.
+ * - ready children are pushed on the finishing worker's own deque (fork), idle workers steal from the other end.
+ *   so a worker mostly runs work close to what it just did, and nobody waits while there is work anywhere.
+ * - the roots are forked by one task inside the pool, not submitted one by one from outside (the shared submission queue).
+ * - the first ready child is not pushed at all, the worker runs it straight away in the same loop :
+ *   a chain a → b → c costs no task and no deque operation per link.
+ * - a failed node marks its children skipped before counting them down. a skipped node marks its own children,
+ *   so the whole subtree is skipped and counted, and the run still ends.
+ * - cycles are found before the run (Kahn's algorithm, O(nodes + edges)), a graph with a cycle is refused.
+ * - a graph can be run again once a run ended, not twice at the same time.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+final class JobNode {
+	private static final AtomicIntegerFieldUpdater<JobNode> WAITING = AtomicIntegerFieldUpdater.newUpdater(JobNode.class, "waiting");
+
+	final Job job;
+	final Runnable work;
+	final int index;		// in its graph
+	final List<JobNode> children = new ArrayList<>();
+	int parents;
+
+	// state of the current run
+	private volatile int waiting;		// parents not finished yet
+	volatile boolean skip;		// a parent failed or was skipped
+
+	JobNode(Job job, Runnable work, int index) {
+		this.job = job;
+		this.work = work;
+		this.index = index;
+	}
+
+	void reset() {
+		waiting = parents;
+		skip = false;
+	}
+
+	// true when this was the last parent it waited for
+	boolean parentFinished() {
+		return WAITING.decrementAndGet(this) == 0;
+	}
+}
+
+class JobGraph {
+	private final List<JobNode> nodes = new ArrayList<>();
+	private boolean checked;		// no cycle, as of the last change
+
+	public synchronized JobNode add(Job job, Runnable work) {
+		JobNode node = new JobNode(job, work, nodes.size());
+		nodes.add(node);
+		checked = false;
+		return node;
+	}
+
+	// child starts after every parent is Done
+	public synchronized void dependsOn(JobNode child, JobNode... parents) {
+		for(JobNode parent: parents) {
+			if(parent == child) throw new IllegalArgumentException(child.job.name + " can not depend on itself");
+			parent.children.add(child);
+			child.parents++;
+		}
+		checked = false;
+	}
+
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	synchronized List<JobNode> nodes() {
+		if(!checked) {
+			checkAcyclic();
+			checked = true;
+		}
+		return nodes;
+	}
+
+	private void checkAcyclic() {
+		int[] waiting = new int[nodes.size()];
+		int[] ready = new int[nodes.size()];
+		int readyCount = 0;
+		for(JobNode node: nodes) {
+			waiting[node.index] = node.parents;
+			if(node.parents == 0) ready[readyCount++] = node.index;
+		}
+		for(int i = 0; i < readyCount; i++) {
+			for(JobNode child: nodes.get(ready[i]).children) {
+				if(--waiting[child.index] == 0) ready[readyCount++] = child.index;
+			}
+		}
+		if(readyCount != nodes.size()) {
+			throw new IllegalArgumentException("the job graph has a cycle, " + (nodes.size() - readyCount) + " jobs can never start");
+		}
+	}
+}
+
+final class GraphRun {
+	final long done, failed, skipped;
+	final long makespanNanos;
+
+	GraphRun(long done, long failed, long skipped, long makespanNanos) {
+		this.done = done;
+		this.failed = failed;
+		this.skipped = skipped;
+		this.makespanNanos = makespanNanos;
+	}
+
+	public String toString() {
+		return String.format("done %d, failed %d, skipped %d in %d ms", done, failed, skipped, TimeUnit.NANOSECONDS.toMillis(makespanNanos));
+	}
+}
+
+class ParallelJobRunner {
+	private final ForkJoinPool pool;
+	private final IJobStatus pending, inProgress, done, failed;		// null without notifications
+
+	public ParallelJobRunner(int parallelism) {
+		this(parallelism, null);
+	}
+
+	public ParallelJobRunner(int parallelism, JobExecutor notifications) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.pending = notifications == null ? null : new Pending(notifications);
+		this.inProgress = notifications == null ? null : new InProgress(notifications);
+		this.done = notifications == null ? null : new Done(notifications);
+		this.failed = notifications == null ? null : new Failed(notifications);
+	}
+
+	private final class Run {
+		final CountDownLatch finished;
+		final LongAdder done = new LongAdder(), failed = new LongAdder(), skipped = new LongAdder();
+
+		Run(int nodes) {
+			this.finished = new CountDownLatch(nodes);
+		}
+	}
+
+	@SuppressWarnings("serial")		// a ForkJoinTask is Serializable, these never leave the pool
+	private final class NodeTask extends RecursiveAction {
+		private final JobNode node;
+		private final Run run;
+
+		NodeTask(JobNode node, Run run) {
+			this.node = node;
+			this.run = run;
+		}
+
+		@Override
+		protected void compute() {
+			JobNode node = this.node;
+			while(node != null) {
+				boolean ok = false;
+				JobNode next = null;
+				try {
+					ok = execute(node, run);
+				}
+				finally {		// whatever happened, the children and run() hear that this node is over
+					for(JobNode child: node.children) {
+						if(!ok) child.skip = true;		// written before the count down, seen by whoever counts it to 0
+						if(!child.parentFinished()) continue;
+						if(next == null) next = child;		// run here, no task for it
+						else new NodeTask(child, run).fork();		// own deque, stolen by idle workers
+					}
+					run.finished.countDown();
+				}
+				node = next;
+			}
+		}
+	}
+
+	// true when the children may run
+	private boolean execute(JobNode node, Run run) {
+		if(node.skip) {
+			run.skipped.increment();
+			tellFailed(node);
+			return false;
+		}
+		try {
+			if(inProgress != null) inProgress.execute(node.job);
+			node.work.run();
+			if(done != null) done.execute(node.job);
+		}
+		catch(Throwable e) {		// an Error too, or a notification that threw : the node failed, its subtree is skipped
+			run.failed.increment();
+			tellFailed(node);
+			return false;
+		}
+		run.done.increment();
+		return true;
+	}
+
+	private void tellFailed(JobNode node) {
+		if(failed == null) return;
+		try {
+			failed.execute(node.job);
+		}
+		catch(Throwable e) {
+			// nobody left to tell, the node is counted already
+		}
+	}
+
+	// runs every job of the graph, returns when all are done, failed or skipped
+	public GraphRun run(JobGraph graph) throws InterruptedException {
+		List<JobNode> nodes = graph.nodes();
+		Run run = new Run(nodes.size());
+		for(JobNode node: nodes) {
+			node.reset();
+			if(pending != null) pending.execute(node.job);
+		}
+
+		long start = System.nanoTime();
+		pool.execute(new RecursiveAction() {		// the roots are forked from inside the pool, onto a worker's deque
+			@Override
+			protected void compute() {
+				for(JobNode node: nodes) {
+					if(node.parents == 0) new NodeTask(node, run).fork();
+				}
+			}
+		});
+		run.finished.await();
+		return new GraphRun(run.done.sum(), run.failed.sum(), run.skipped.sum(), System.nanoTime() - start);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
+
+
+
+public class JobGraph_WorkStealing {
+	public static void main(String[] args) throws InterruptedException {
+		JobExecutor jobExecutor = new JobExecutor();
+		ParallelJobRunner runner = new ParallelJobRunner(4, jobExecutor);
+
+		// fetch → parse orders + parse customers → join → report, and an audit that fails and takes its export down with it
+		JobGraph graph = new JobGraph();
+		long start = System.nanoTime();
+		JobNode fetch = graph.add(new Job("fetch"), () -> step("fetch", start, 30));
+		JobNode orders = graph.add(new Job("parse-orders"), () -> step("parse-orders", start, 50));
+		JobNode customers = graph.add(new Job("parse-customers"), () -> step("parse-customers", start, 20));
+		JobNode join = graph.add(new Job("join"), () -> step("join", start, 10));
+		JobNode report = graph.add(new Job("report"), () -> step("report", start, 10));
+		JobNode audit = graph.add(new Job("audit"), () -> {
+			throw new IllegalStateException("audit service down");
+		});
+		JobNode export = graph.add(new Job("export"), () -> step("export", start, 10));
+		graph.dependsOn(orders, fetch);
+		graph.dependsOn(customers, fetch);
+		graph.dependsOn(join, orders, customers);
+		graph.dependsOn(report, join);
+		graph.dependsOn(export, audit);
+
+		System.out.println(runner.run(graph));
+
+		graph.dependsOn(fetch, report);
+		try {
+			runner.run(graph);
+		}
+		catch(IllegalArgumentException e) {
+			System.out.println("refused : " + e.getMessage());
+		}
+		runner.shutdown();
+	}
+
+	private static void step(String name, long start, long millis) {
+		System.out.printf("%4d ms  %-16s starts on %s%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), name,
+				Thread.currentThread().getName());
+		try {
+			Thread.sleep(millis);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ * Asynchronous Job Listener notification (Observer with bounded fan-out)
+Follow up of: Scheduler System (Command + Singleton + Observer)
+
+Requirement
+JobExecutor.executeJob calls every listener on the thread running the job, for every state of every job.
+One slow listener (a webhook, a database write) slows every job down.
+Listeners are told asynchronously.
+Every listener has its own bounded queue, what happens when it is full is chosen per listener
+DROP → the new notification is dropped and counted
+BLOCK → the job thread waits until there is room (nothing is lost, the listener slows jobs down, on purpose)
+COALESCE → only the latest state per job is kept, a listener that is behind skips states it would overwrite anyway
+A listener can subscribe to some states only (e.g. Done).
+Job throughput must not go down when listeners are added.
+
+Patterns Used
+Observer → listeners subscribe to job states
+Producer / consumer → the job thread produces notifications, every listener consumes its own queue on its own thread
+ */
+
+
+/*
+ * - the job thread puts one event on one queue, whatever the number of listeners. a dispatcher thread copies it
+ *   to the queues of the listeners that subscribed to that state. so the cost on the job thread does not grow with the listeners.
+ * - every listener has its own thread and queue. a slow listener only fills its own queue.
+ * - with BLOCK the dispatcher waits for the slow listener, then the dispatcher's queue fills and the job thread waits too.
+ *   that is the price of not losing anything. without a BLOCK listener the job thread never waits :
+ *   when the dispatcher itself is behind, the event is dropped before it reaches the DROP listeners,
+ *   counted on the executor and on every DROP listener that wanted it.
+ * - COALESCE listeners do not go through the dispatcher : the job thread puts the event in their queue itself (a lock and a map
+ *   lookup, it never waits). a dispatcher drop could have lost the last state of a job for good, the final Done included.
+ *   so that part of the cost on the job thread does grow with the number of COALESCE listeners.
+ *   a COALESCE queue holds one entry per job at most. when it is full of other jobs, the state of a new job is dropped
+ *   and counted on that listener, like DROP.
+ * - a listener thread is only woken when its queue goes from empty to not empty, a busy listener costs the dispatcher a lock and an add.
+ * - a listener that throws keeps its thread, the exception is counted.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+enum ListenerOverflow {
+	DROP, BLOCK, COALESCE
+}
+
+final class JobStatusEvent {
+	final Job job;
+	IJobStatus status;		// only ever changed inside the queue of a COALESCE listener, on its own copy
+
+	JobStatusEvent(Job job, IJobStatus status) {
+		this.job = job;
+		this.status = status;
+	}
+}
+
+// one listener, its queue and its thread. also the handle to unsubscribe and read its counters
+final class ListenerMailbox {
+	final Listener listener;
+	final ListenerOverflow overflow;
+	private final int capacity;
+	private final Set<Class<? extends IJobStatus>> statuses;		// null → every state
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final ArrayDeque<JobStatusEvent> events = new ArrayDeque<>();
+	private final Map<Long, JobStatusEvent> pendingByJob = new HashMap<>();		// COALESCE only
+	private final Thread thread;
+	private volatile boolean open = true;
+
+	final LongAdder delivered = new LongAdder();
+	final LongAdder dropped = new LongAdder();
+	final LongAdder coalesced = new LongAdder();
+	final LongAdder failed = new LongAdder();
+
+	ListenerMailbox(Listener listener, ListenerOverflow overflow, int capacity, Set<Class<? extends IJobStatus>> statuses) {
+		if(capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.listener = listener;
+		this.overflow = overflow;
+		this.capacity = capacity;
+		this.statuses = statuses;
+		this.thread = new Thread(this::deliver, "listener-" + listener.name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	boolean wants(IJobStatus status) {
+		return statuses == null || statuses.contains(status.getClass());
+	}
+
+	void offer(JobStatusEvent event) throws InterruptedException {
+		lock.lock();
+		try {
+			if(overflow == ListenerOverflow.COALESCE) {
+				JobStatusEvent pending = pendingByJob.get(event.job.id);
+				if(pending != null) {
+					pending.status = event.status;		// the older state was not delivered yet, the listener only sees the newer one
+					coalesced.increment();
+					return;
+				}
+				event = new JobStatusEvent(event.job, event.status);		// own copy, the event is shared with other listeners
+			}
+
+			while(events.size() >= capacity) {
+				if(overflow != ListenerOverflow.BLOCK) {
+					dropped.increment();
+					return;
+				}
+				if(!open) return;
+				notFull.await();
+			}
+			events.addLast(event);
+			if(overflow == ListenerOverflow.COALESCE) pendingByJob.put(event.job.id, event);
+			if(events.size() == 1) notEmpty.signal();		// the listener thread only waits when its queue is empty
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void deliver() {
+		while(open) {
+			JobStatusEvent event;
+			lock.lock();
+			try {
+				while(events.isEmpty()) {
+					if(!open) return;
+					notEmpty.await();
+				}
+				boolean wasFull = events.size() >= capacity;
+				event = events.pollFirst();
+				if(overflow == ListenerOverflow.COALESCE) pendingByJob.remove(event.job.id);
+				if(wasFull && overflow == ListenerOverflow.BLOCK) notFull.signal();
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			finally {
+				lock.unlock();
+			}
+
+			try {
+				listener.onStatus(event.job, event.status);
+				delivered.increment();
+			}
+			catch(Throwable e) {
+				failed.increment();		// an Error too : a dead listener thread would leave BLOCK offers waiting forever
+			}
+		}
+	}
+
+	public int queued() {
+		lock.lock();
+		try {
+			return events.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	void close() {
+		open = false;
+		lock.lock();
+		try {
+			notFull.signalAll();		// a dispatcher waiting for room in a full BLOCK queue sees !open and goes on
+			notEmpty.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		thread.interrupt();
+	}
+
+	public String toString() {
+		return String.format("%s (%s) : delivered %d, dropped %d, coalesced %d, failed %d, queued %d",
+				listener.name, overflow, delivered.sum(), dropped.sum(), coalesced.sum(), failed.sum(), queued());
+	}
+}
+
+class AsyncJobExecutor extends JobExecutor {
+	private final ArrayBlockingQueue<JobStatusEvent> events;
+	private final List<ListenerMailbox> mailboxes = new CopyOnWriteArrayList<>();		// every one
+	private final List<ListenerMailbox> coalescing = new CopyOnWriteArrayList<>();		// COALESCE, filled by the job thread
+	private final List<ListenerMailbox> dispatched = new CopyOnWriteArrayList<>();		// DROP and BLOCK, filled by the dispatcher
+	private final Thread dispatcher;
+	private volatile boolean anyBlocking;		// a BLOCK listener is subscribed, the job thread has to wait instead of dropping
+	final LongAdder dropped = new LongAdder();		// events the dispatcher had no room for, with no BLOCK listener around (COALESCE ones still got them)
+
+	public AsyncJobExecutor(int capacity) {
+		this.events = new ArrayBlockingQueue<>(capacity);
+		this.dispatcher = new Thread(this::dispatch, "job-listener-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	// no printing and no listener on the job thread, one event on one queue
+	@Override
+	public void executeJob(IJobStatus jobStatus, Job job) {
+		if(mailboxes.isEmpty()) return;
+		JobStatusEvent event = new JobStatusEvent(job, jobStatus);
+		for(ListenerMailbox mailbox: coalescing) {
+			if(mailbox.wants(jobStatus)) offer(mailbox, event);		// keeps the latest state of every job, whatever the dispatcher does
+		}
+		if(dispatched.isEmpty()) return;
+		if(!anyBlocking) {
+			if(!events.offer(event)) {		// only DROP listeners behind the dispatcher, they would drop it anyway
+				dropped.increment();
+				for(ListenerMailbox mailbox: dispatched) {
+					if(mailbox.wants(jobStatus)) mailbox.dropped.increment();
+				}
+			}
+			return;
+		}
+		try {
+			events.put(event);		// only waits when a BLOCK listener is behind
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// a COALESCE offer never waits, so it is never interrupted
+	private static void offer(ListenerMailbox mailbox, JobStatusEvent event) {
+		try {
+			mailbox.offer(event);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void dispatch() {
+		try {
+			while(true) {
+				JobStatusEvent event = events.take();
+				for(ListenerMailbox mailbox: dispatched) {
+					if(mailbox.wants(event.status)) mailbox.offer(event);
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			// closed
+		}
+	}
+
+	// no statuses → every state
+	@SafeVarargs
+	public final ListenerMailbox subscribe(Listener listener, ListenerOverflow overflow, int capacity, Class<? extends IJobStatus>... statuses) {
+		Set<Class<? extends IJobStatus>> filter = null;
+		if(statuses.length > 0) {
+			filter = new HashSet<>();
+			for(Class<? extends IJobStatus> status: statuses) filter.add(status);
+		}
+		ListenerMailbox mailbox = new ListenerMailbox(listener, overflow, capacity, filter);
+		mailboxes.add(mailbox);
+		if(overflow == ListenerOverflow.COALESCE) coalescing.add(mailbox);
+		else dispatched.add(mailbox);
+		if(overflow == ListenerOverflow.BLOCK) anyBlocking = true;
+		return mailbox;
+	}
+
+	// every state, nothing lost : like the synchronous JobExecutor, only on the listener's own thread
+	@Override
+	public void addListener(Listener listener) {
+		subscribe(listener, ListenerOverflow.BLOCK, 1024);
+	}
+
+	@Override
+	public void removeListeners(Listener listener) {
+		for(ListenerMailbox mailbox: mailboxes) {
+			if(mailbox.listener == listener) {
+				mailboxes.remove(mailbox);
+				coalescing.remove(mailbox);
+				dispatched.remove(mailbox);
+				mailbox.close();
+			}
+		}
+		boolean blocking = false;
+		for(ListenerMailbox mailbox: mailboxes) blocking |= mailbox.overflow == ListenerOverflow.BLOCK;
+		anyBlocking = blocking;
+	}
+
+	public List<ListenerMailbox> getMailboxes() {
+		return mailboxes;
+	}
+
+	public void close() {
+		dispatcher.interrupt();
+		for(ListenerMailbox mailbox: mailboxes) mailbox.close();
+	}
+}
+
+
+
+public class JobListeners_AsyncFanOut {
+	// a listener that does I/O : 50 µs per notification
+	static class WebhookListener extends Listener {
+		final AtomicInteger received = new AtomicInteger();
+
+		WebhookListener(String name) {
+			super(name);
+		}
+
+		@Override
+		public void onStatus(Job job, IJobStatus jobStatus) {
+			LockSupport.parkNanos(50_000);
+			received.incrementAndGet();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		AsyncJobExecutor executor = new AsyncJobExecutor(4096);
+		IJobStatus[] states = {new Pending(executor), new InProgress(executor), new Done(executor)};
+
+		WebhookListener audit = new WebhookListener("audit");
+		WebhookListener dashboard = new WebhookListener("dashboard");
+		WebhookListener billing = new WebhookListener("billing");
+		executor.subscribe(audit, ListenerOverflow.BLOCK, 256);
+		executor.subscribe(dashboard, ListenerOverflow.COALESCE, 256);
+		executor.subscribe(billing, ListenerOverflow.DROP, 256, Done.class);		// only bills finished jobs
+
+		long start = System.nanoTime();
+		for(int i = 0; i < 2_000; i++) {
+			Job job = new Job("job" + i);
+			for(IJobStatus state: states) state.execute(job);
+		}
+		long jobsDone = System.nanoTime() - start;
+		Thread.sleep(1_000);
+		System.out.printf("2000 jobs x 3 states in %d ms on the job thread%n", TimeUnit.NANOSECONDS.toMillis(jobsDone));
+		for(ListenerMailbox mailbox: executor.getMailboxes()) System.out.println("  " + mailbox);
+		executor.close();
+
+		// job thread throughput vs number of 50 µs listeners, listeners called in line (JobExecutor without the printing)
+		// against AsyncJobExecutor (DROP, 1024)
+		System.out.printf("%-10s %18s %18s%n", "listeners", "sync states/s", "async states/s");
+		for(int listeners: new int[] {1, 4, 16, 64}) {
+			JobExecutor sync = new JobExecutor() {
+				@Override
+				public void executeJob(IJobStatus jobStatus, Job job) {
+					for(Listener l: listners) l.onStatus(job, jobStatus);
+				}
+			};
+			AsyncJobExecutor async = new AsyncJobExecutor(4096);
+			for(int l = 0; l < listeners; l++) {
+				sync.addListener(new WebhookListener("sync" + l));
+				async.subscribe(new WebhookListener("async" + l), ListenerOverflow.DROP, 1024);
+			}
+			double syncRate = rate(sync, 20_000 / listeners), asyncRate = rate(async, 200_000);
+			System.out.printf("%-10d %,18.0f %,18.0f%n", listeners, syncRate, asyncRate);
+			async.close();
+		}
+	}
+
+	private static double rate(JobExecutor executor, int transitions) {
+		IJobStatus done = new Done(executor);
+		Job job = new Job("measured");
+		long start = System.nanoTime();
+		for(int i = 0; i < transitions; i++) done.execute(job);
+		return transitions / ((System.nanoTime() - start) / 1e9);
+	}
+}
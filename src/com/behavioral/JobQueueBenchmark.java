@@ -0,0 +1,106 @@
+/*
+ * Benchmark for BoundedJobQueue in JobQueue_LockFreeRingBuffer
+ *
+ * - 1, 2, 4 ... 64 producer threads offer 2M jobs in total, 4 consumer threads take them (poll or drainTo in batches of 64).
+ * - a full queue makes a producer yield, an empty one makes a consumer yield (spinning would burn whole time slices once
+ *   there are more threads than cpus).
+ * - compared with ArrayBlockingQueue (one lock for both ends) and ConcurrentLinkedQueue (lock free, unbounded, a node per job).
+ * - reported : jobs per second from the first offer to the last job taken.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with warmup + measured rounds.
+ * run it with: java -cp bin com.behavioral.JobQueueBenchmark
+ */
+
+package com.behavioral;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JobQueueBenchmark {
+	static final int JOBS = 2_000_000;
+	static final int CONSUMERS = 4;
+	static final int CAPACITY = 1 << 14;
+	static final int ROUNDS = 3;
+
+	interface JobQueue {
+		boolean offer(Job job);
+
+		// takes up to 64 jobs, returns how many
+		int take();
+	}
+
+	static JobQueue ringPoll() {
+		BoundedJobQueue queue = new BoundedJobQueue(CAPACITY);
+		return new JobQueue() {
+			public boolean offer(Job job) { return queue.offer(job); }
+			public int take() { return queue.poll() == null ? 0 : 1; }
+		};
+	}
+
+	static JobQueue ringDrain() {
+		BoundedJobQueue queue = new BoundedJobQueue(CAPACITY);
+		Consumer sink = new Consumer();
+		return new JobQueue() {
+			public boolean offer(Job job) { return queue.offer(job); }
+			public int take() { return queue.drainTo(sink, 64); }
+		};
+	}
+
+	static JobQueue of(Queue<Job> queue) {
+		return new JobQueue() {
+			public boolean offer(Job job) { return queue.offer(job); }
+			public int take() { return queue.poll() == null ? 0 : 1; }
+		};
+	}
+
+	static final class Consumer implements java.util.function.Consumer<Job> {
+		public void accept(Job job) { }
+	}
+
+	static double run(JobQueue queue, int producers, Job[] jobs) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(producers + CONSUMERS);
+		AtomicInteger taken = new AtomicInteger();
+		long start = System.nanoTime();
+		for(int p = 0; p < producers; p++) {
+			int from = JOBS / producers * p, to = p == producers - 1 ? JOBS : from + JOBS / producers;
+			new Thread(() -> {
+				for(int i = from; i < to; i++) {
+					while(!queue.offer(jobs[i])) Thread.yield();
+				}
+				done.countDown();
+			}).start();
+		}
+		for(int c = 0; c < CONSUMERS; c++) {
+			new Thread(() -> {
+				while(taken.get() < JOBS) {
+					int n = queue.take();
+					if(n == 0) Thread.yield();
+					else taken.addAndGet(n);
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		return JOBS / ((System.nanoTime() - start) / 1e9);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Job[] jobs = new Job[JOBS];
+		for(int i = 0; i < JOBS; i++) jobs[i] = new Job("job" + i);
+
+		System.out.printf("%-10s %16s %16s %16s %16s%n", "producers", "ring poll/s", "ring drain/s", "ArrayBlocking/s", "ConcurrentLinked/s");
+		for(int producers = 1; producers <= 64; producers *= 2) {
+			double[] result = new double[4];
+			for(int round = 0; round < ROUNDS; round++) {		// the last round counts
+				result[0] = run(ringPoll(), producers, jobs);
+				result[1] = run(ringDrain(), producers, jobs);
+				result[2] = run(of(new ArrayBlockingQueue<>(CAPACITY)), producers, jobs);
+				result[3] = run(of(new ConcurrentLinkedQueue<>()), producers, jobs);
+			}
+			System.out.printf("%-10d %,16.0f %,16.0f %,16.0f %,16.0f%n", producers, result[0], result[1], result[2], result[3]);
+		}
+	}
+}
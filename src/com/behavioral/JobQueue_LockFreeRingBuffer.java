@@ -0,0 +1,214 @@
+/*
+ * Lock free Job Queue (bounded MPMC ring buffer)
+Follow up of: Scheduler System (Command + Singleton + Observer)
+
+Requirement
+JobQueueSingleton.addJob / removeJob change a LinkedList without any synchronization,
+and removeJob(job) ignores its argument and removes the head.
+Many producer threads add jobs, many workers take them.
+bounded capacity, offer fails instead of growing without limit
+workers can take a batch of jobs at once
+a specific job can be removed by its id
+throughput under contention from 1 to 64 producers (JobQueueBenchmark)
+
+Patterns Used
+Singleton → JobQueueSingleton stays the one queue of the process, only what is behind it changed
+ */
+
+
+/*
+ * the queue (after Dmitry Vyukov's bounded MPMC queue) :-
+ * - an array of capacity (power of 2) slots, each with a sequence number. tail = next position to write, head = next to read.
+ * - a producer claims position p with one CAS on tail when sequence[p] == p (the slot is free for round p),
+ *   writes the job and sets sequence[p] = p + 1 ("full"). a consumer claims p with one CAS on head when sequence[p] == p + 1,
+ *   takes the job and sets sequence[p] = p + capacity (free for the next round).
+ * - producers only contend on tail, consumers only on head, a producer and a consumer never touch the same counter.
+ *   no locks, a thread that is descheduled in the middle only delays the one slot it claimed.
+ * - full → offer returns false, empty → poll returns null. waiting is up to the caller (spin, park, or a different queue).
+ *
+ * batch drain : the consumer checks how many slots after head are already full, claims all of them with one CAS on head.
+ *
+ * remove by id :-
+ * - removing from the middle of a ring is not possible without moving the others. so the slot holding the job is found by a scan
+ *   and its content swapped for REMOVED with a CAS. a consumer takes a slot with getAndSet(null), so of the consumer and the remover
+ *   exactly one gets the job. consumers skip REMOVED.
+ * - a removed job keeps its slot until the consumers pass it, so capacity counts removed jobs until then.
+ * - the scan is O(capacity). removal (cancel) is rare, the hot path pays nothing for it.
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+final class BoundedJobQueue {
+	private static final Job REMOVED = new Job("removed");
+
+	private final int mask;
+	private final AtomicReferenceArray<Job> jobs;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();		// separate objects, so producers and consumers do not share a cache line
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong removed = new AtomicLong();		// REMOVED slots between head and tail
+
+	public BoundedJobQueue(int capacity) {
+		if(capacity < 2 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of 2, got " + capacity);
+		this.mask = capacity - 1;
+		this.jobs = new AtomicReferenceArray<>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++) sequences.set(i, i);
+	}
+
+	// false when full
+	public boolean offer(Job job) {
+		if(job == null) throw new NullPointerException("job");
+		long position = tail.get();
+		while(true) {
+			int slot = (int) position & mask;
+			long difference = sequences.get(slot) - position;
+			if(difference == 0) {
+				if(tail.weakCompareAndSetVolatile(position, position + 1)) {
+					jobs.set(slot, job);
+					sequences.lazySet(slot, position + 1);		// publishes the job, the volatile write of the job is ordered before
+					return true;
+				}
+				position = tail.get();
+			}
+			else if(difference < 0) return false;		// the slot of this round still holds a job of the previous round
+			else position = tail.get();				// another producer took it, try the current tail
+		}
+	}
+
+	// null when empty
+	public Job poll() {
+		while(true) {
+			long position = head.get();
+			int slot = (int) position & mask;
+			long difference = sequences.get(slot) - (position + 1);
+			if(difference < 0) return null;
+			if(difference == 0 && head.weakCompareAndSetVolatile(position, position + 1)) {
+				Job job = take(slot, position);
+				if(job != REMOVED) return job;
+			}
+		}
+	}
+
+	// hands up to max jobs to sink, claiming all the ready ones with one CAS. returns how many
+	public int drainTo(Consumer<Job> sink, int max) {
+		int drained = 0;
+		while(drained < max) {
+			long position = head.get();
+			int ready = 0;
+			while(ready < max - drained && ready <= mask && sequences.get((int) (position + ready) & mask) == position + ready + 1) ready++;
+			if(ready == 0) {
+				if(sequences.get((int) position & mask) - (position + 1) < 0) return drained;		// empty
+				continue;
+			}
+			if(!head.compareAndSet(position, position + ready)) continue;
+			for(int i = 0; i < ready; i++) {
+				Job job = take((int) (position + i) & mask, position + i);
+				if(job != REMOVED) {
+					sink.accept(job);
+					drained++;
+				}
+			}
+		}
+		return drained;
+	}
+
+	private Job take(int slot, long position) {
+		Job job = jobs.getAndSet(slot, null);
+		sequences.lazySet(slot, position + mask + 1);		// free for the round after
+		if(job == REMOVED) removed.decrementAndGet();		// head passed it, it is no longer between head and tail
+		return job;
+	}
+
+	// true when the job was still queued. it will not be handed to any consumer
+	public boolean remove(long jobId) {
+		long from = head.get(), to = tail.get();
+		for(long position = from; position < to; position++) {
+			int slot = (int) position & mask;
+			Job job = jobs.get(slot);
+			if(job != null && job != REMOVED && job.id == jobId && jobs.compareAndSet(slot, job, REMOVED)) {
+				removed.incrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// approximate while producers and consumers are running
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get() - removed.get());
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+}
+
+
+
+public class JobQueue_LockFreeRingBuffer {
+	public static void main(String[] args) throws InterruptedException {
+		BoundedJobQueue queue = new BoundedJobQueue(8);
+
+		Job[] jobs = new Job[10];
+		for(int i = 0; i < jobs.length; i++) {
+			jobs[i] = new Job("job" + i);
+			System.out.println("offer " + jobs[i].name + " → " + queue.offer(jobs[i]));		// the last two do not fit
+		}
+		System.out.println("remove job3 by id → " + queue.remove(jobs[3].id) + ", remove it again → " + queue.remove(jobs[3].id));
+		System.out.println("poll → " + queue.poll().name + ", size " + queue.size());
+
+		StringBuilder batch = new StringBuilder();
+		int drained = queue.drainTo(job -> batch.append(job.name).append(' '), 100);
+		System.out.println("drained " + drained + " in one batch → " + batch);
+
+		// 4 producers and 2 consumers, every job has to come out exactly once
+		BoundedJobQueue shared = new BoundedJobQueue(1024);
+		int perProducer = 250_000;
+		boolean[] seen = new boolean[4 * perProducer];
+		long firstId = new Job("marker").id + 1;
+		Job[] all = new Job[seen.length];
+		for(int i = 0; i < all.length; i++) all[i] = new Job("j");
+
+		Thread[] producers = new Thread[4];
+		for(int p = 0; p < producers.length; p++) {
+			int from = p * perProducer;
+			producers[p] = new Thread(() -> {
+				for(int i = from; i < from + perProducer; i++) {
+					while(!shared.offer(all[i])) Thread.yield();
+				}
+			});
+			producers[p].start();
+		}
+		int[] duplicates = new int[1];
+		Thread[] consumers = new Thread[2];
+		AtomicInteger consumed = new AtomicInteger();
+		for(int c = 0; c < consumers.length; c++) {
+			consumers[c] = new Thread(() -> {
+				while(consumed.get() < seen.length) {
+					int n = shared.drainTo(job -> {
+						int index = (int) (job.id - firstId);
+						synchronized(seen) {
+							if(seen[index]) duplicates[0]++;
+							seen[index] = true;
+						}
+					}, 64);
+					if(n == 0) Thread.yield();
+					consumed.addAndGet(n);
+				}
+			});
+			consumers[c].start();
+		}
+		for(Thread t: producers) t.join();
+		for(Thread t: consumers) t.join();
+		int missing = 0;
+		for(boolean s: seen) if(!s) missing++;
+		System.out.println("4 producers, 2 consumers, " + seen.length + " jobs → missing " + missing + ", duplicates " + duplicates[0]);
+	}
+}
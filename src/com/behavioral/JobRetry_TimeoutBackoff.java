@@ -0,0 +1,288 @@
+/*
+ * Job Retry, Timeout and Backoff (Command + Strategy)
+Follow up of: Scheduler System (Command + Singleton + Observer) and Scheduler Engine on a Timing Wheel
+
+Requirement
+Pending, In Progress and Done have no failure path : a job that throws just disappears, a job that hangs keeps its worker forever.
+A run that throws or takes longer than its timeout failed, a hung run is cancelled.
+A failed run is retried with exponential backoff and jitter, on a timer (no thread sleeps until the retry).
+After maxAttempts the run goes to a dead letter queue.
+Listeners hear about it : Retrying and Failed states.
+A burst of failures must not fill the worker pool with retries : only so many retries run at once.
+
+Patterns Used
+Command → Retrying and Failed are two more IJobStatus commands
+Strategy → RetryPolicy decides how often, how long and how far apart a run is tried
+Builder → RetryPolicy is configured once
+ */
+
+
+/*
+ * - the retry waits in the timing wheel of the JobScheduler like any other timer, so 10k jobs waiting for a retry are
+ *   10k list nodes and not 10k sleeping threads.
+ * - backoff = initial x multiplier^(failed attempts - 1), capped at max, then "full jitter" : a random delay between 0 and that.
+ *   jobs that failed together (a database went down) come back spread over the whole window instead of all at the same tick.
+ * - a timeout interrupts the worker. Thread.sleep, blocking queues, interruptible I/O ... stop at once.
+ *   code that ignores interrupts can not be stopped from outside in java, it keeps the worker until it returns,
+ *   and the run still counts as failed (TimeoutException).
+ * - maxRetriesInFlight caps retries that are running (or queued for a worker). more retries that come due wait for one to end.
+ * - the dead letter queue is bounded, when full the oldest entry goes (and is counted).
+ */
+
+package com.behavioral;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+class Retrying implements IJobStatus {
+	JobExecutor jobExecutor;
+
+	public Retrying(JobExecutor jobExecutor) {
+		this.jobExecutor = jobExecutor;
+	}
+
+	public void execute(Job job) {
+		jobExecutor.executeJob(this, job);
+	}
+
+	public String toString() {
+		return "Retrying";
+	}
+}
+
+class Failed implements IJobStatus {
+	JobExecutor jobExecutor;
+
+	public Failed(JobExecutor jobExecutor) {
+		this.jobExecutor = jobExecutor;
+	}
+
+	public void execute(Job job) {
+		jobExecutor.executeJob(this, job);
+	}
+
+	public String toString() {
+		return "Failed";
+	}
+}
+
+final class RetryPolicy {
+	static final RetryPolicy NONE = builder().build();		// one attempt, no timeout
+
+	final int maxAttempts;
+	final long timeoutMillis;		// 0 → no timeout
+	final long initialBackoffMillis, maxBackoffMillis;
+	final double multiplier;
+	final int maxRetriesInFlight;
+
+	private RetryPolicy(Builder builder) {
+		this.maxAttempts = builder.maxAttempts;
+		this.timeoutMillis = builder.timeoutMillis;
+		this.initialBackoffMillis = builder.initialBackoffMillis;
+		this.maxBackoffMillis = builder.maxBackoffMillis;
+		this.multiplier = builder.multiplier;
+		this.maxRetriesInFlight = builder.maxRetriesInFlight;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	// wait before the next attempt, after failedAttempts attempts failed
+	long backoffMillis(int failedAttempts) {
+		double backoff = initialBackoffMillis * Math.pow(multiplier, failedAttempts - 1);
+		long capped = (long) Math.min(backoff, maxBackoffMillis);
+		return ThreadLocalRandom.current().nextLong(capped + 1);
+	}
+
+	public String toString() {
+		return String.format("%d attempts, timeout %d ms, backoff %d..%d ms x%.1f, %d retries in flight",
+				maxAttempts, timeoutMillis, initialBackoffMillis, maxBackoffMillis, multiplier, maxRetriesInFlight);
+	}
+
+	static class Builder {
+		private int maxAttempts = 1;
+		private long timeoutMillis;
+		private long initialBackoffMillis = 100;
+		private long maxBackoffMillis = 30_000;
+		private double multiplier = 2;
+		private int maxRetriesInFlight = 4;
+
+		// the first run included
+		public Builder maxAttempts(int maxAttempts) {
+			if(maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be positive");
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		// of every attempt
+		public Builder timeout(long timeout, TimeUnit unit) {
+			if(unit.toMillis(timeout) <= 0) throw new IllegalArgumentException("timeout must be at least 1 ms");
+			this.timeoutMillis = unit.toMillis(timeout);
+			return this;
+		}
+
+		public Builder backoff(long initial, long max, TimeUnit unit) {
+			if(initial < 0 || max < initial) throw new IllegalArgumentException("need 0 <= initial <= max");
+			this.initialBackoffMillis = unit.toMillis(initial);
+			this.maxBackoffMillis = unit.toMillis(max);
+			return this;
+		}
+
+		public Builder multiplier(double multiplier) {
+			if(multiplier < 1) throw new IllegalArgumentException("multiplier must be at least 1");
+			this.multiplier = multiplier;
+			return this;
+		}
+
+		public Builder maxRetriesInFlight(int maxRetriesInFlight) {
+			if(maxRetriesInFlight <= 0) throw new IllegalArgumentException("maxRetriesInFlight must be positive");
+			this.maxRetriesInFlight = maxRetriesInFlight;
+			return this;
+		}
+
+		public RetryPolicy build() {
+			return new RetryPolicy(this);
+		}
+	}
+}
+
+final class DeadLetter {
+	final Job job;
+	final int attempts;
+	final Throwable lastError;
+	final long failedMillis = System.currentTimeMillis();
+
+	DeadLetter(Job job, int attempts, Throwable lastError) {
+		this.job = job;
+		this.attempts = attempts;
+		this.lastError = lastError;
+	}
+
+	public String toString() {
+		return job.name + " after " + attempts + " attempts : " + lastError;
+	}
+}
+
+class DeadLetterQueue {
+	private final int capacity;
+	private final ArrayDeque<DeadLetter> letters = new ArrayDeque<>();
+	final LongAdder evicted = new LongAdder();		// dropped to make room for newer ones
+
+	public DeadLetterQueue(int capacity) {
+		if(capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+	}
+
+	synchronized void add(DeadLetter letter) {
+		if(letters.size() == capacity) {
+			letters.pollFirst();
+			evicted.increment();
+		}
+		letters.addLast(letter);
+	}
+
+	// takes everything out, oldest first. to look at them, or to schedule them again once the cause is fixed
+	public synchronized List<DeadLetter> drain() {
+		List<DeadLetter> drained = new ArrayList<>(letters);
+		letters.clear();
+		return drained;
+	}
+
+	public synchronized int size() {
+		return letters.size();
+	}
+}
+
+
+
+public class JobRetry_TimeoutBackoff {
+	public static void main(String[] args) throws InterruptedException {
+		// counts the states instead of printing every one of them
+		Map<String, LongAdder> states = new ConcurrentHashMap<>();
+		JobExecutor counting = new JobExecutor() {
+			@Override
+			public void executeJob(IJobStatus jobStatus, Job job) {
+				states.computeIfAbsent(jobStatus.toString(), state -> new LongAdder()).increment();
+			}
+		};
+
+		RetryPolicy policy = RetryPolicy.builder()
+				.maxAttempts(4)
+				.timeout(100, TimeUnit.MILLISECONDS)
+				.backoff(20, 500, TimeUnit.MILLISECONDS)
+				.maxRetriesInFlight(2)
+				.build();
+		JobScheduler scheduler = JobScheduler.builder().workers(4).retry(policy).notify(counting).build();
+		System.out.println("policy : " + policy);
+
+		CountDownLatch done = new CountDownLatch(1);
+		AtomicInteger flakyRuns = new AtomicInteger();
+		scheduler.schedule(new Job("flaky"), JobSchedule.after(0, TimeUnit.MILLISECONDS), () -> {
+			if(flakyRuns.incrementAndGet() < 3) throw new IllegalStateException("connection refused");
+			done.countDown();
+		});
+		scheduler.schedule(new Job("hung"), JobSchedule.after(0, TimeUnit.MILLISECONDS), () -> {
+			try {
+				Thread.sleep(60_000);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		scheduler.schedule(new Job("broken"), JobSchedule.after(0, TimeUnit.MILLISECONDS), () -> {
+			throw new IllegalArgumentException("bad input");
+		});
+		done.await();
+		System.out.println("flaky succeeded on attempt " + flakyRuns.get());
+
+		// retry storm : 200 jobs fail once at the same moment, 200 fresh jobs are scheduled right after
+		AtomicInteger retriesRunning = new AtomicInteger(), mostRetriesRunning = new AtomicInteger();
+		CountDownLatch stormOver = new CountDownLatch(400);
+		long stormStart = System.nanoTime();
+		long[] freshDoneNanos = new long[1];
+		AtomicInteger freshLeft = new AtomicInteger(200);
+		for(int i = 0; i < 200; i++) {
+			AtomicInteger runs = new AtomicInteger();
+			scheduler.schedule(new Job("storm" + i), JobSchedule.after(0, TimeUnit.MILLISECONDS), () -> {
+				if(runs.incrementAndGet() == 1) throw new IllegalStateException("database down");
+				mostRetriesRunning.accumulateAndGet(retriesRunning.incrementAndGet(), Math::max);
+				busy(2_000_000);
+				retriesRunning.decrementAndGet();
+				stormOver.countDown();
+			});
+		}
+		for(int i = 0; i < 200; i++) {
+			scheduler.schedule(new Job("fresh" + i), JobSchedule.after(5, TimeUnit.MILLISECONDS), () -> {
+				busy(100_000);
+				if(freshLeft.decrementAndGet() == 0) freshDoneNanos[0] = System.nanoTime() - stormStart;
+				stormOver.countDown();
+			});
+		}
+		stormOver.await();
+		long stormNanos = System.nanoTime() - stormStart;
+		System.out.printf("storm : at most %d retries ran at once (limit %d), 200 fresh jobs done after %d ms, all retries after %d ms%n",
+				mostRetriesRunning.get(), policy.maxRetriesInFlight, TimeUnit.NANOSECONDS.toMillis(freshDoneNanos[0]),
+				TimeUnit.NANOSECONDS.toMillis(stormNanos));
+
+		while(scheduler.deadLetters().size() < 2) Thread.sleep(10);		// hung and broken, after their 4th attempt
+		System.out.println("retried " + scheduler.retried.sum() + ", timed out " + scheduler.timedOut.sum() + ", states " + states);
+		for(DeadLetter letter: scheduler.deadLetters().drain()) System.out.println("dead letter : " + letter);
+
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+	}
+
+	private static void busy(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) { }
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Priority and Fair Share Scheduling Classes
+Follow up of: Scheduler System (Command + Singleton + Observer) and Scheduler Engine on a Timing Wheel
+
+Requirement
+Jobs run in FIFO order and Job has nothing but a name.
+Jobs get a priority level and a tenant.
+A higher priority job always goes first.
+Within a priority, tenants share the workers fairly : one tenant with 100k jobs queued must not starve a tenant with 10.
+A tenant can get a bigger share (weight).
+Dispatch in O(log n) or better.
+Queue depth and wait time per scheduling class (priority + tenant).
+
+Patterns Used
+Strategy → JobScheduler hands due jobs to a FairShareJobQueue instead of straight to its workers when one is configured
+ */
+
+
+/*
+ * how the next job is picked :-
+ * - one level per JobPriority. the highest level with anything queued wins (4 levels, O(1) to find).
+ * - inside a level, every tenant has its own FIFO and a virtual time. the tenants that have jobs sit in a heap ordered by virtual time.
+ *   dispatch = take the tenant with the smallest virtual time (O(log tenants)), run its oldest job,
+ *   add 1 / weight to its virtual time and put it back if it has more jobs.
+ *   so tenants take turns, a tenant with weight 2 gets two turns per turn of a weight 1 tenant. (start time fair queuing)
+ * - a tenant that was idle comes back at the virtual time of the level, not at its old one. being idle earns no credit
+ *   to run a burst ahead of the others later.
+ * - strict priority : a flood of CRITICAL jobs does hold back LOW ones. that is what priority means here, keep CRITICAL for little work.
+ *
+ * - one lock around all of it, held for a heap operation and an ArrayDeque operation.
+ * - the wait time of a job (queued → dispatched) goes into the LatencyHistogram of its class.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+enum JobPriority {
+	CRITICAL, HIGH, NORMAL, LOW
+}
+
+final class QueuedJob {
+	final Job job;
+	final Runnable work;
+	final long queuedNanos;
+
+	QueuedJob(Job job, Runnable work, long queuedNanos) {
+		this.job = job;
+		this.work = work;
+		this.queuedNanos = queuedNanos;
+	}
+}
+
+class FairShareJobQueue {
+	private static final long VIRTUAL_UNIT = 1 << 20;		// virtual time of one job at weight 1
+
+	private static final class TenantQueue {
+		final String tenant;
+		final ArrayDeque<QueuedJob> jobs = new ArrayDeque<>();
+		final LatencyHistogram waitTime = new LatencyHistogram();
+		long virtualTime;
+		long dispatched;
+
+		TenantQueue(String tenant) {
+			this.tenant = tenant;
+		}
+	}
+
+	private static final class Level {
+		final Map<String, TenantQueue> tenants = new HashMap<>();
+		final PriorityQueue<TenantQueue> ready = new PriorityQueue<>((a, b) -> Long.compare(a.virtualTime, b.virtualTime));
+		long virtualTime;		// of the last dispatched job
+		int depth;
+	}
+
+	private final EnumMap<JobPriority, Level> levels = new EnumMap<>(JobPriority.class);
+	private final Map<String, Integer> weights = new HashMap<>();
+
+	public FairShareJobQueue() {
+		for(JobPriority priority: JobPriority.values()) levels.put(priority, new Level());
+	}
+
+	// share of the tenant against the others at the same priority, 1 when not set
+	public synchronized void setWeight(String tenant, int weight) {
+		if(weight <= 0) throw new IllegalArgumentException("weight must be positive");
+		weights.put(tenant, weight);
+	}
+
+	public synchronized void submit(Job job, Runnable work) {
+		Level level = levels.get(job.priority);
+		TenantQueue tenant = level.tenants.computeIfAbsent(job.tenant, TenantQueue::new);
+		if(tenant.jobs.isEmpty()) {
+			tenant.virtualTime = Math.max(tenant.virtualTime, level.virtualTime);		// no credit for having been idle
+			level.ready.add(tenant);
+		}
+		tenant.jobs.addLast(new QueuedJob(job, work, System.nanoTime()));
+		level.depth++;
+	}
+
+	// the next job to run, null when nothing is queued
+	public synchronized QueuedJob poll() {
+		for(JobPriority priority: JobPriority.values()) {
+			Level level = levels.get(priority);
+			if(level.depth == 0) continue;
+
+			TenantQueue tenant = level.ready.poll();
+			QueuedJob next = tenant.jobs.pollFirst();
+			level.depth--;
+			level.virtualTime = tenant.virtualTime;
+			tenant.virtualTime += VIRTUAL_UNIT / weights.getOrDefault(tenant.tenant, 1);
+			tenant.dispatched++;
+			if(!tenant.jobs.isEmpty()) level.ready.add(tenant);
+
+			tenant.waitTime.record(System.nanoTime() - next.queuedNanos);
+			return next;
+		}
+		return null;
+	}
+
+	public synchronized int depth() {
+		int depth = 0;
+		for(Level level: levels.values()) depth += level.depth;
+		return depth;
+	}
+
+	// per scheduling class "PRIORITY/tenant", classes that never had a job are not listed
+	public synchronized Map<String, SchedulingClassMetrics> metrics() {
+		Map<String, SchedulingClassMetrics> metrics = new LinkedHashMap<>();
+		for(Map.Entry<JobPriority, Level> level: levels.entrySet()) {
+			for(TenantQueue tenant: level.getValue().tenants.values()) {
+				metrics.put(level.getKey() + "/" + tenant.tenant,
+						new SchedulingClassMetrics(tenant.jobs.size(), tenant.dispatched, tenant.waitTime.snapshot()));
+			}
+		}
+		return metrics;
+	}
+}
+
+final class SchedulingClassMetrics {
+	final int depth;
+	final long dispatched;
+	final LatencyHistogram.Snapshot waitTime;
+
+	SchedulingClassMetrics(int depth, long dispatched, LatencyHistogram.Snapshot waitTime) {
+		this.depth = depth;
+		this.dispatched = dispatched;
+		this.waitTime = waitTime;
+	}
+
+	public String toString() {
+		return String.format("depth %d, dispatched %d, wait p50 %d µs p99 %d µs max %d µs", depth, dispatched,
+				TimeUnit.NANOSECONDS.toMicros(waitTime.percentile(50)), TimeUnit.NANOSECONDS.toMicros(waitTime.percentile(99)),
+				TimeUnit.NANOSECONDS.toMicros(waitTime.max()));
+	}
+}
+
+
+
+public class JobScheduling_FairShare {
+	public static void main(String[] args) throws InterruptedException {
+		FairShareJobQueue queue = new FairShareJobQueue();
+		Runnable nothing = () -> { };
+
+		// tenant "bulk" dumps 100k jobs, then two small tenants and one critical job show up
+		for(int i = 0; i < 100_000; i++) queue.submit(new Job("import" + i, "bulk", JobPriority.NORMAL), nothing);
+		for(int i = 0; i < 10; i++) {
+			queue.submit(new Job("report" + i, "acme", JobPriority.NORMAL), nothing);
+			queue.submit(new Job("invoice" + i, "globex", JobPriority.NORMAL), nothing);
+		}
+		queue.submit(new Job("failover", "ops", JobPriority.CRITICAL), nothing);
+
+		StringBuilder order = new StringBuilder();
+		for(int i = 0; i < 12; i++) order.append(queue.poll().job.name).append(' ');
+		System.out.println("first 12 dispatched → " + order);
+
+		int polls = 12, lastSmallTenantJob = 0;
+		for(QueuedJob next; (next = queue.poll()) != null; ) {
+			polls++;
+			if(!next.job.tenant.equals("bulk")) lastSmallTenantJob = polls;
+		}
+		System.out.println("all 20 jobs of acme and globex done after " + lastSmallTenantJob + " of " + polls + " dispatches");
+
+		// weight 3 vs 1
+		queue.setWeight("gold", 3);
+		for(int i = 0; i < 400; i++) {
+			queue.submit(new Job("g" + i, "gold", JobPriority.NORMAL), nothing);
+			queue.submit(new Job("s" + i, "silver", JobPriority.NORMAL), nothing);
+		}
+		int gold = 0;
+		for(int i = 0; i < 400; i++) if(queue.poll().job.tenant.equals("gold")) gold++;
+		System.out.println("gold (weight 3) got " + gold + " of the first 400 dispatches, silver " + (400 - gold));
+		while(queue.poll() != null) { }
+
+		// the same queue behind a JobScheduler with 2 workers
+		JobScheduler scheduler = JobScheduler.builder().workers(2).fairShare(queue).build();
+		CountDownLatch done = new CountDownLatch(2_010);
+		AtomicInteger bulkRan = new AtomicInteger();
+		for(int i = 0; i < 2_000; i++) {
+			scheduler.schedule(new Job("sync" + i, "bulk", JobPriority.LOW), JobSchedule.after(0, TimeUnit.MILLISECONDS), () -> {
+				bulkRan.incrementAndGet();
+				busy(20_000);
+				done.countDown();
+			});
+		}
+		int[] bulkBeforeAcme = new int[1];
+		for(int i = 0; i < 10; i++) {
+			scheduler.schedule(new Job("report" + i, "acme", JobPriority.LOW), JobSchedule.after(5, TimeUnit.MILLISECONDS), () -> {
+				bulkBeforeAcme[0] = Math.max(bulkBeforeAcme[0], bulkRan.get());
+				done.countDown();
+			});
+		}
+		done.await();
+		scheduler.shutdown();
+		System.out.println("through the scheduler : acme's 10 jobs all ran before bulk job " + bulkBeforeAcme[0] + " of 2000");
+		queue.metrics().forEach((schedulingClass, metrics) -> System.out.println(schedulingClass + " → " + metrics));
+	}
+
+	private static void busy(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) { }
+	}
+}
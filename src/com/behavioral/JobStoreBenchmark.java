@@ -0,0 +1,58 @@
+/*
+ * Benchmark for DurableJobStore in JobStore_WriteAheadLog
+ *
+ * - every durability level with 1, 8 and 32 threads, each thread records state changes of its own jobs for 2 seconds.
+ * - records/s : state changes that returned to the caller. fsyncs/s and records per fsync show how well group commit batches.
+ * - the log is on the local disk (java.io.tmpdir, or the directory given as first argument), the numbers depend on it completely.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main().
+ * run it with: java -cp bin com.behavioral.JobStoreBenchmark [directory]
+ */
+
+package com.behavioral;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+public class JobStoreBenchmark {
+	static final long MILLIS = 2_000;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path directory = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("jobstore-benchmark");
+
+		System.out.printf("%-12s %8s %14s %12s %16s%n", "durability", "threads", "records/s", "fsyncs/s", "records/fsync");
+		for(JobDurability durability: JobDurability.values()) {
+			for(int threads: new int[] {1, 8, 32}) {
+				Path log = directory.resolve(durability + "-" + threads + ".wal");
+				Files.deleteIfExists(log);
+				DurableJobStore store = DurableJobStore.open(log, durability);
+
+				CountDownLatch done = new CountDownLatch(threads);
+				long end = System.currentTimeMillis() + MILLIS;
+				long start = System.nanoTime();
+				for(int t = 0; t < threads; t++) {
+					new Thread(() -> {
+						byte[] cycle = {DurableJobStore.PENDING, DurableJobStore.IN_PROGRESS, DurableJobStore.DONE};
+						Job job = null;
+						for(int i = 0; System.currentTimeMillis() < end; i++) {
+							if(i % 3 == 0) job = new Job("job" + i, "tenant", JobPriority.NORMAL);
+							store.record(job, cycle[i % 3]);
+						}
+						done.countDown();
+					}).start();
+				}
+				done.await();
+				double seconds = (System.nanoTime() - start) / 1e9;
+				long records = store.records.sum(), syncs = store.syncs.sum();
+				store.close();
+				Files.deleteIfExists(log);
+
+				System.out.printf("%-12s %8d %,14.0f %,12.0f %16s%n", durability, threads, records / seconds, syncs / seconds,
+						syncs == 0 ? "-" : String.format("%.1f", (double) records / syncs));
+			}
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/*
+ * Durable Job Store (write ahead log)
+Follow up of: Scheduler System (Command + Singleton + Observer)
+
+Requirement
+Jobs in JobQueueSingleton only live in memory, a restart loses all of them.
+Every state a job goes through (Pending, In Progress, Done, Retrying, Failed) is appended to a log file on local disk.
+Records are small and binary.
+fsync is batched (group commit) so that many threads share one fsync.
+At startup the log is replayed and the jobs that did not finish are queued again.
+Throughput is documented for every durability level (JobStoreBenchmark).
+
+Patterns Used
+Observer → the store is a Listener of the JobExecutor, it is told about every state like any other listener
+Singleton → recovered jobs go back into JobQueueSingleton
+ */
+
+
+/*
+ * record layout (big endian) :-
+ *   int length of what follows the crc | int crc32 of it | byte state | long job id | long epoch millis
+ *   a Pending record also has : byte priority | short + utf-8 name | short + utf-8 tenant
+ *   → 25 bytes for In Progress / Done / Retrying / Failed, ~40 for Pending.
+ *
+ * durability levels :-
+ * - NONE       : record() returns once the record is in the in-heap buffer, the flusher hands it to the OS later, never fsync'd.
+ *                fastest. a crash of the jvm loses what was still in the buffer, a power loss also what the OS had not written yet.
+ * - BATCHED    : group commit. writers add their record to a buffer and wait. one flusher thread writes whatever is in the buffer
+ *                and fsyncs it, then wakes every writer that was in that batch. while one fsync runs the next batch fills up,
+ *                so the more threads write, the more records share one fsync.
+ * - PER_RECORD : every record is written and fsync'd before the writer goes on, one fsync each.
+ *
+ * replay :-
+ * - read record by record. a record that is cut off or whose crc does not match is where the crash happened, the log is truncated there.
+ * - a job whose last state is Pending, In Progress or Retrying did not finish and is returned by recover(). a job that was In Progress
+ *   runs again, so jobs are run at least once and should be safe to repeat. a job that Failed (dead lettered) is not run again.
+ * - after replay the log is compacted : the records of unfinished jobs are written to a new file that replaces the old one.
+ */
+
+package com.behavioral;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+enum JobDurability {
+	NONE, BATCHED, PER_RECORD
+}
+
+class DurableJobStore extends Listener implements Closeable {
+	static final byte PENDING = 0, IN_PROGRESS = 1, DONE = 2, RETRYING = 3, FAILED = 4;
+	private static final int HEADER = 8;		// length + crc
+	private static final int BUFFER = 1 << 20;
+
+	private final Path file;
+	private final JobDurability durability;
+	private final FileChannel channel;
+	private final List<Job> unfinished = new ArrayList<>();
+
+	// group commit, guarded by lock
+	private final Object lock = new Object();
+	private ByteBuffer filling = ByteBuffer.allocate(BUFFER);
+	private ByteBuffer flushing = ByteBuffer.allocate(BUFFER);
+	private long appended, durable;		// record numbers
+	private IOException failure;
+	private volatile boolean open = true;
+	private final Thread flusher;
+	private final CRC32 crc = new CRC32();
+
+	final LongAdder records = new LongAdder();
+	final LongAdder syncs = new LongAdder();
+
+	private static final class JobRecord {
+		final long id;
+		final String name, tenant;
+		final JobPriority priority;
+		byte state = PENDING;
+
+		JobRecord(long id, String name, String tenant, JobPriority priority) {
+			this.id = id;
+			this.name = name;
+			this.tenant = tenant;
+			this.priority = priority;
+		}
+	}
+
+	private DurableJobStore(Path file, JobDurability durability) throws IOException {
+		super("job-store");
+		this.file = file;
+		this.durability = durability;
+
+		Map<Long, JobRecord> jobs = replay(file);
+		compact(file, jobs);
+		for(JobRecord job: jobs.values()) unfinished.add(new Job(job.id, job.name, job.tenant, job.priority));
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.flusher = new Thread(this::flushLoop, "job-store-flusher");
+		this.flusher.setDaemon(true);
+		if(durability != JobDurability.PER_RECORD) flusher.start();
+	}
+
+	public static DurableJobStore open(Path file, JobDurability durability) throws IOException {
+		return new DurableJobStore(file, durability);
+	}
+
+	// jobs that were Pending, In Progress or Retrying when the log was last written, in the order they were submitted
+	public List<Job> recover() {
+		return new ArrayList<>(unfinished);
+	}
+
+	@Override
+	public void onStatus(Job job, IJobStatus jobStatus) {
+		record(job, stateOf(jobStatus));
+	}
+
+	static byte stateOf(IJobStatus jobStatus) {
+		if(jobStatus instanceof Pending) return PENDING;
+		if(jobStatus instanceof InProgress) return IN_PROGRESS;
+		if(jobStatus instanceof Done) return DONE;
+		if(jobStatus instanceof Retrying) return RETRYING;
+		if(jobStatus instanceof Failed) return FAILED;
+		throw new IllegalArgumentException("no record for " + jobStatus);
+	}
+
+	// returns when the record is as durable as the level promises
+	public void record(Job job, byte state) {
+		byte[] name = null, tenant = null;
+		int size = HEADER + 1 + 8 + 8;
+		if(state == PENDING) {
+			name = utf8(job.name, "name");
+			tenant = utf8(job.tenant, "tenant");
+			size += 1 + 2 + name.length + 2 + tenant.length;
+		}
+
+		synchronized(lock) {
+			if(failure != null) throw new UncheckedIOException("job store failed earlier", failure);
+			if(!open) throw new IllegalStateException("job store is closed");
+
+			if(durability == JobDurability.PER_RECORD) {
+				filling.clear();
+				write(filling, job, state, name, tenant, size);
+				filling.flip();
+				try {
+					while(filling.hasRemaining()) channel.write(filling);
+					channel.force(false);
+				}
+				catch(IOException e) {
+					failure = e;
+					throw new UncheckedIOException(e);
+				}
+				records.increment();
+				syncs.increment();
+				return;
+			}
+
+			try {
+				while(filling.remaining() < size && failure == null && open) lock.wait();		// the flusher is behind by a whole buffer
+				if(failure != null) throw new UncheckedIOException("job store failed", failure);		// the flusher is gone, no room will come
+				if(!open) throw new IllegalStateException("job store is closed");
+				write(filling, job, state, name, tenant, size);
+				long mine = ++appended;
+				records.increment();
+				lock.notifyAll();		// wakes the flusher
+
+				if(durability == JobDurability.BATCHED) {
+					while(durable < mine && failure == null) lock.wait();
+					if(failure != null) throw new UncheckedIOException("job store failed", failure);
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted before the record was durable", e);
+			}
+		}
+	}
+
+	// the length goes in an unsigned short. a longer one would be written cut, under a valid crc, and replay would misread the log
+	private static byte[] utf8(String value, String what) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > 0xFFFF) throw new IllegalArgumentException("job " + what + " is " + bytes.length + " bytes in utf-8, at most 65535 fit in a record");
+		return bytes;
+	}
+
+	private void write(ByteBuffer buffer, Job job, byte state, byte[] name, byte[] tenant, int size) {
+		int start = buffer.position();
+		buffer.putInt(size - HEADER).putInt(0);
+		buffer.put(state).putLong(job.id).putLong(System.currentTimeMillis());
+		if(state == PENDING) {
+			buffer.put((byte) job.priority.ordinal());
+			buffer.putShort((short) name.length).put(name);
+			buffer.putShort((short) tenant.length).put(tenant);
+		}
+		crc.reset();
+		crc.update(buffer.array(), start + HEADER, size - HEADER);
+		buffer.putInt(start + 4, (int) crc.getValue());
+	}
+
+	private void flushLoop() {
+		while(true) {
+			long batchEnd;
+			synchronized(lock) {
+				while(filling.position() == 0 && open) {
+					try {
+						lock.wait();
+					}
+					catch(InterruptedException e) {
+						return;
+					}
+				}
+				if(filling.position() == 0) return;		// closed and nothing left
+				ByteBuffer full = filling;
+				filling = flushing;
+				flushing = full;
+				batchEnd = appended;
+				lock.notifyAll();		// writers waiting for room can go on into the empty buffer
+			}
+
+			try {
+				flushing.flip();
+				while(flushing.hasRemaining()) channel.write(flushing);
+				flushing.clear();
+				if(durability == JobDurability.BATCHED) {
+					channel.force(false);
+					syncs.increment();
+				}
+			}
+			catch(IOException e) {
+				synchronized(lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+
+			synchronized(lock) {
+				durable = batchEnd;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private static Map<Long, JobRecord> replay(Path file) throws IOException {
+		Map<Long, JobRecord> jobs = new LinkedHashMap<>();
+		if(!Files.exists(file)) return jobs;
+
+		long valid = 0;
+		CRC32 crc = new CRC32();
+		try(InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			DataInputStream data = new DataInputStream(in);
+			while(true) {
+				int length, expected;
+				byte[] payload;
+				try {
+					length = data.readInt();
+					expected = data.readInt();
+					if(length < 17 || length > BUFFER) break;
+					payload = new byte[length];
+					data.readFully(payload);
+				}
+				catch(EOFException e) {
+					break;		// cut off in the middle of a record
+				}
+				crc.reset();
+				crc.update(payload);
+				if((int) crc.getValue() != expected) break;
+
+				apply(ByteBuffer.wrap(payload), jobs);
+				valid += HEADER + length;
+			}
+		}
+
+		if(valid < Files.size(file)) {
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(valid);		// the torn tail of the last run
+			}
+		}
+		return jobs;
+	}
+
+	private static void apply(ByteBuffer record, Map<Long, JobRecord> jobs) {
+		byte state = record.get();
+		long id = record.getLong();
+		record.getLong();		// when, not needed for recovery
+		if(state == PENDING) {
+			JobPriority priority = JobPriority.values()[record.get()];
+			String name = utf8(record), tenant = utf8(record);
+			jobs.put(id, new JobRecord(id, name, tenant, priority));
+			return;
+		}
+		JobRecord job = jobs.get(id);
+		if(job == null) return;		// a job submitted before the last compaction that finished, or never stored as Pending
+		if(state == DONE || state == FAILED) jobs.remove(id);
+		else job.state = state;
+	}
+
+	private static String utf8(ByteBuffer record) {
+		byte[] bytes = new byte[record.getShort() & 0xFFFF];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// rewrites the log with only the unfinished jobs, then swaps it in with one rename
+	private static void compact(Path file, Map<Long, JobRecord> jobs) throws IOException {
+		if(!Files.exists(file)) return;
+		Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+		try(FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+			CRC32 crc = new CRC32();
+			for(JobRecord job: jobs.values()) {
+				byte[] name = utf8(job.name, "name"), tenant = utf8(job.tenant, "tenant");
+				if(buffer.remaining() < 2 * (HEADER + 17) + 5 + name.length + tenant.length) {		// its Pending record and its last state
+					buffer.flip();
+					while(buffer.hasRemaining()) out.write(buffer);
+					buffer.clear();
+				}
+				writeRaw(buffer, crc, PENDING, job.id, job.priority, name, tenant);
+				if(job.state != PENDING) writeRaw(buffer, crc, job.state, job.id, null, null, null);
+			}
+			buffer.flip();
+			while(buffer.hasRemaining()) out.write(buffer);
+			out.force(true);
+		}
+		Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		try(FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);		// makes the rename itself durable (linux, other platforms may refuse)
+		}
+		catch(IOException e) {
+			// not supported here, the rename is still atomic
+		}
+	}
+
+	private static void writeRaw(ByteBuffer buffer, CRC32 crc, byte state, long id, JobPriority priority, byte[] name, byte[] tenant) {
+		int start = buffer.position();
+		buffer.putInt(0).putInt(0).put(state).putLong(id).putLong(System.currentTimeMillis());
+		if(state == PENDING) {
+			buffer.put((byte) priority.ordinal());
+			buffer.putShort((short) name.length).put(name);
+			buffer.putShort((short) tenant.length).put(tenant);
+		}
+		int length = buffer.position() - start - HEADER;
+		crc.reset();
+		crc.update(buffer.array(), start + HEADER, length);
+		buffer.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+	}
+
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	// writes what is buffered (fsync'd unless NONE), then closes the file
+	@Override
+	public void close() throws IOException {
+		synchronized(lock) {
+			open = false;
+			lock.notifyAll();
+		}
+		if(durability != JobDurability.PER_RECORD) {
+			try {
+				flusher.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		channel.close();
+	}
+}
+
+
+
+public class JobStore_WriteAheadLog {
+	public static void main(String[] args) throws IOException {
+		Path log = Files.createTempDirectory("jobstore").resolve("jobs.wal");
+
+		// first run : 5 jobs submitted, 2 done, 1 in progress, then the process "crashes" (the store is not closed)
+		DurableJobStore store = DurableJobStore.open(log, JobDurability.BATCHED);
+		JobExecutor executor = new JobExecutor() {
+			@Override
+			public void executeJob(IJobStatus jobStatus, Job job) {
+				for(Listener l: listners) l.onStatus(job, jobStatus);		// no printing, only the store listens
+			}
+		};
+		executor.addListener(store);
+		Pending pending = new Pending(executor);
+		InProgress inProgress = new InProgress(executor);
+		Done done = new Done(executor);
+
+		Job[] jobs = new Job[5];
+		for(int i = 0; i < jobs.length; i++) {
+			jobs[i] = new Job("job" + i, i % 2 == 0 ? "acme" : "globex", JobPriority.NORMAL);
+			pending.execute(jobs[i]);
+		}
+		inProgress.execute(jobs[0]);
+		done.execute(jobs[0]);
+		inProgress.execute(jobs[1]);
+		done.execute(jobs[1]);
+		inProgress.execute(jobs[2]);
+		System.out.println("first run wrote " + store.records.sum() + " records, " + Files.size(log) + " bytes, " + store.syncs.sum() + " fsyncs");
+
+		// a torn last record, like a crash in the middle of a write
+		Files.write(log, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+		// restart
+		DurableJobStore restarted = DurableJobStore.open(log, JobDurability.BATCHED);
+		JobQueueSingleton queue = JobQueueSingleton.getInstance();
+		for(Job job: restarted.recover()) {
+			queue.addJob(job);
+			System.out.println("recovered " + job.name + " (id " + job.id + ", tenant " + job.tenant + ")");
+		}
+		System.out.println("log after replay and compaction : " + Files.size(log) + " bytes, the next new job gets id " + new Job("next").id);
+		restarted.close();
+	}
+}
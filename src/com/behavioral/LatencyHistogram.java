@@ -0,0 +1,129 @@
+/*
+ * Lock free latency histogram (HDR style buckets)
+ *
+ * - a value (nanoseconds) goes into a bucket by its power of two and the next SUB_BITS bits below it,
+ *   so every bucket is at most 1 / 2^SUB_BITS = 12.5% wide relative to its value, from 1 ns up to minutes.
+ * - 488 buckets in one AtomicLongArray. record() is a few shifts and one atomic increment, no lock, no allocation.
+ * - snapshot() copies the counts, so percentiles are computed on the copy while recording goes on.
+ *   a snapshot taken during recording can be off by the few values recorded while it was copied.
+ * - striped : many threads recording the same typical value all increment the same bucket, one cache line bouncing between cores.
+ *   new LatencyHistogram(stripes) keeps one row of buckets per stripe, a thread always records into the row of its hash
+ *   (like LongAdder cells). snapshot() adds the rows up. costs BUCKETS x 8 bytes (~4 KB) per stripe.
+ *
+ * public because the decorators in com.structural record into it as well.
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class LatencyHistogram {
+	static final int SUB_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final int stripeMask;
+	private final AtomicLong max = new AtomicLong();
+
+	public LatencyHistogram() {
+		this(1);
+	}
+
+	// stripes is rounded up to a power of 2
+	public LatencyHistogram(int stripes) {
+		if(stripes <= 0) throw new IllegalArgumentException("stripes must be positive");
+		int rounded = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+		this.counts = new AtomicLongArray(rounded * BUCKETS);
+		this.stripeMask = rounded - 1;
+	}
+
+	public void record(long nanos) {
+		if(nanos < 0) nanos = 0;
+		int row = stripeMask == 0 ? 0 : stripeOf(Thread.currentThread()) * BUCKETS;
+		counts.incrementAndGet(row + bucketOf(nanos));
+		if(nanos > max.get()) max.accumulateAndGet(nanos, Math::max);		// read first, most values are not a new max
+	}
+
+	private int stripeOf(Thread thread) {
+		int hash = System.identityHashCode(thread) * 0x9E3779B9;		// spread, neighbouring hashes end up in different stripes
+		return (hash >>> 16) & stripeMask;
+	}
+
+	static int bucketOf(long value) {
+		if(value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// highest value that lands in the bucket
+	static long upperBoundOf(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			long n = counts.get(i);
+			copy[i % BUCKETS] += n;
+			count += n;
+		}
+		return new Snapshot(copy, count, max.get());
+	}
+
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long max;
+
+		Snapshot(long[] counts, long count, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.max = max;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public long max() {
+			return max;
+		}
+
+		// e.g. 99.0 → the value 99% of the recorded values are at or below, rounded up to its bucket
+		public long percentile(double percent) {
+			if(count == 0) return 0;
+			long rank = (long) Math.ceil(count * percent / 100.0);
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank && counts[i] > 0) return Math.min(upperBoundOf(i), max);
+			}
+			return max;
+		}
+
+		// estimated from bucket midpoints, good enough to compare handlers
+		public double mean() {
+			if(count == 0) return 0;
+			double sum = 0;
+			for(int i = 0; i < counts.length; i++) {
+				if(counts[i] == 0) continue;
+				long upper = upperBoundOf(i);
+				long lower = i == 0 ? 0 : upperBoundOf(i - 1) + 1;
+				sum += counts[i] * (lower + upper) / 2.0;
+			}
+			return sum / count;
+		}
+
+		public String toString() {
+			return String.format("n=%d mean=%.0fns p50=%dns p99=%dns p99.9=%dns max=%dns",
+					count, mean(), percentile(50), percentile(99), percentile(99.9), max);
+		}
+	}
+}
@@ -0,0 +1,445 @@
+/*
+ * Multi-Symbol Market Data with Order Books (Observer, Flyweight)
+Follow up of: Trading Platform (Observer + Strategy + Singleton)
+
+Requirement
+MarketDataFeed holds one int price for the whole market.
+Per instrument, for thousands of symbols :
+best bid, best ask (price and size), last trade (price and size), traded volume
+a top-N order book on both sides
+Stored in primitive arrays keyed by an interned symbol id, no maps of boxed objects on the update path.
+A TradingAlgorithm subscribes to a subset of symbols, an update only touches the subscribers of its symbol.
+Consistent book snapshots for threads other than the feed.
+
+Patterns Used
+Observer → TradingAlgorithms subscribe per symbol, onSymbolUpdate
+Flyweight → a symbol is an int id, its name is stored once in the SymbolTable
+Builder → SymbolMarketData is sized once
+ */
+
+
+/*
+ * - the name → id map is only used to subscribe and to intern, the feed updates and the algorithms read by id.
+ *   ids are 0, 1, 2 ... so they index the arrays directly.
+ * - one array per field for all symbols (struct of arrays) : bid prices of symbol s are at s * depth ... s * depth + depth - 1.
+ *   nothing is allocated per update and a symbol's levels are next to each other in memory.
+ * - the book is aggregated by price : quote(symbol, side, price, size) sets the size at that price, size 0 removes the level.
+ *   only the best depth levels are kept, a level pushed out is forgotten (the venue sends it again when it comes back in).
+ *   depth is small (5, 10), finding the level is a linear scan and a shift with System.arraycopy.
+ * - one feed thread writes. subscribers are called on it, right after the update, and can read any field of the symbol directly.
+ * - any other thread reads through snapshot(), a seqlock per symbol : the version is odd while the feed writes the symbol,
+ *   a reader copies the book and tries again if the version was odd or moved. the feed never waits for a reader.
+ * - subscribers of a symbol are an array replaced on subscribe (copy on write), an update reads one slot and walks that array.
+ *   symbols nobody subscribed to cost no dispatch at all.
+ */
+
+package com.behavioral;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// symbol name ↔ int id
+final class SymbolTable {
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final String[] names;
+	private volatile int size;
+
+	SymbolTable(int capacity) {
+		this.names = new String[capacity];
+	}
+
+	// the id of the symbol, a new one the first time
+	public synchronized int intern(String symbol) {
+		Integer id = ids.get(symbol);
+		if(id != null) return id;
+		if(size == names.length) throw new IllegalStateException("symbol table is full, " + names.length + " symbols");
+		names[size] = symbol;
+		ids.put(symbol, size);
+		return size++;
+	}
+
+	// -1 when the symbol was never interned
+	public synchronized int id(String symbol) {
+		Integer id = ids.get(symbol);
+		return id == null ? -1 : id;
+	}
+
+	public String name(int id) {
+		if(id < 0 || id >= size) throw new IllegalArgumentException("unknown symbol id " + id);
+		return names[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return names.length;
+	}
+}
+
+// a copy of one symbol's book, reusable : snapshot() fills it in place
+final class BookSnapshot {
+	int symbol = -1;
+	int last, lastSize;
+	long volume;
+	int bidLevels, askLevels;
+	final int[] bidPrices, bidSizes, askPrices, askSizes;
+
+	BookSnapshot(int depth) {
+		this.bidPrices = new int[depth];
+		this.bidSizes = new int[depth];
+		this.askPrices = new int[depth];
+		this.askSizes = new int[depth];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder("last " + last + " x " + lastSize + ", volume " + volume + "\n");
+		for(int level = 0; level < Math.max(bidLevels, askLevels); level++) {
+			String bid = level < bidLevels ? bidSizes[level] + " @ " + bidPrices[level] : "";
+			String ask = level < askLevels ? askPrices[level] + " x " + askSizes[level] : "";
+			out.append(String.format("  %14s | %-14s%n", bid, ask));
+		}
+		return out.toString();
+	}
+}
+
+final class SymbolMarketData {
+	private static final TradingAlgorithm[] NONE = new TradingAlgorithm[0];
+
+	final SymbolTable symbols;
+	final int depth;
+
+	// index = symbol id, or symbol id * depth + level for the book
+	private final int[] last, lastSize;
+	private final long[] volume;
+	private final int[] bidLevels, askLevels;
+	private final int[] bidPrices, bidSizes, askPrices, askSizes;
+
+	private final AtomicLongArray versions;		// odd while the feed writes the symbol
+	private final AtomicReferenceArray<TradingAlgorithm[]> subscribers;
+
+	private SymbolMarketData(Builder builder) {
+		int capacity = builder.symbols;
+		this.symbols = new SymbolTable(capacity);
+		this.depth = builder.depth;
+		this.last = new int[capacity];
+		this.lastSize = new int[capacity];
+		this.volume = new long[capacity];
+		this.bidLevels = new int[capacity];
+		this.askLevels = new int[capacity];
+		this.bidPrices = new int[capacity * depth];
+		this.bidSizes = new int[capacity * depth];
+		this.askPrices = new int[capacity * depth];
+		this.askSizes = new int[capacity * depth];
+		this.versions = new AtomicLongArray(capacity);
+		this.subscribers = new AtomicReferenceArray<>(capacity);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/* ---------- feed thread ---------- */
+
+	// sets the size at price on one side of the book, size 0 removes the level
+	public void quote(int symbol, boolean bid, int price, int size) {
+		int base = symbol * depth;
+		int[] prices = bid ? bidPrices : askPrices;
+		int[] sizes = bid ? bidSizes : askSizes;
+		int[] levels = bid ? bidLevels : askLevels;
+		int count = levels[symbol];
+		int level = 0;
+		while(level < count && (bid ? prices[base + level] > price : prices[base + level] < price)) level++;
+
+		if(level < count && prices[base + level] == price) {
+			beginWrite(symbol);
+			if(size == 0) {
+				int moved = count - level - 1;
+				System.arraycopy(prices, base + level + 1, prices, base + level, moved);
+				System.arraycopy(sizes, base + level + 1, sizes, base + level, moved);
+				levels[symbol] = count - 1;
+			}
+			else sizes[base + level] = size;
+			endWrite(symbol);
+		}
+		else if(size > 0 && level < depth) {
+			beginWrite(symbol);
+			int moved = Math.min(count, depth - 1) - level;		// when the book is full the worst level falls out
+			System.arraycopy(prices, base + level, prices, base + level + 1, moved);
+			System.arraycopy(sizes, base + level, sizes, base + level + 1, moved);
+			prices[base + level] = price;
+			sizes[base + level] = size;
+			levels[symbol] = Math.min(count + 1, depth);
+			endWrite(symbol);
+		}
+		else return;		// removing a level it does not have, or a level below the top depth : nothing changed
+		dispatch(symbol);
+	}
+
+	public void trade(int symbol, int price, int size) {
+		beginWrite(symbol);
+		last[symbol] = price;
+		lastSize[symbol] = size;
+		volume[symbol] += size;
+		endWrite(symbol);
+		dispatch(symbol);
+	}
+
+	private void beginWrite(int symbol) {
+		versions.lazySet(symbol, versions.get(symbol) + 1);
+		VarHandle.storeStoreFence();		// the odd version is visible before any field it guards
+	}
+
+	private void endWrite(int symbol) {
+		versions.lazySet(symbol, versions.get(symbol) + 1);		// release : the fields are visible before the even version
+	}
+
+	private void dispatch(int symbol) {
+		TradingAlgorithm[] subscribed = subscribers.get(symbol);
+		if(subscribed == null) return;
+		for(TradingAlgorithm algorithm: subscribed) algorithm.onSymbolUpdate(symbol, this);
+	}
+
+	/* ---------- the feed thread and its subscribers, not consistent from other threads ---------- */
+
+	public int bid(int symbol) {
+		return bidLevels[symbol] == 0 ? 0 : bidPrices[symbol * depth];
+	}
+
+	public int bidSize(int symbol) {
+		return bidLevels[symbol] == 0 ? 0 : bidSizes[symbol * depth];
+	}
+
+	public int ask(int symbol) {
+		return askLevels[symbol] == 0 ? 0 : askPrices[symbol * depth];
+	}
+
+	public int askSize(int symbol) {
+		return askLevels[symbol] == 0 ? 0 : askSizes[symbol * depth];
+	}
+
+	public int last(int symbol) {
+		return last[symbol];
+	}
+
+	public int lastSize(int symbol) {
+		return lastSize[symbol];
+	}
+
+	public long volume(int symbol) {
+		return volume[symbol];
+	}
+
+	public int bidLevels(int symbol) {
+		return bidLevels[symbol];
+	}
+
+	public int askLevels(int symbol) {
+		return askLevels[symbol];
+	}
+
+	// level 0 is the best
+	public int bidPrice(int symbol, int level) {
+		return bidPrices[symbol * depth + level];
+	}
+
+	public int askPrice(int symbol, int level) {
+		return askPrices[symbol * depth + level];
+	}
+
+	// the last trade, or the middle of the book before the first trade, or the one side there is, or 0
+	public int price(int symbol) {
+		if(last[symbol] != 0) return last[symbol];
+		int bid = bid(symbol), ask = ask(symbol);
+		if(bid != 0 && ask != 0) return (bid + ask) >>> 1;
+		return bid != 0 ? bid : ask;
+	}
+
+	/* ---------- any thread ---------- */
+
+	// copies the book of the symbol into snapshot, consistent : never half of one update
+	public BookSnapshot snapshot(int symbol, BookSnapshot snapshot) {
+		if(snapshot.bidPrices.length < depth) throw new IllegalArgumentException("snapshot is for depth " + snapshot.bidPrices.length + ", the book has " + depth);
+		int base = symbol * depth;
+		while(true) {
+			long version = versions.get(symbol);
+			if((version & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			snapshot.last = last[symbol];
+			snapshot.lastSize = lastSize[symbol];
+			snapshot.volume = volume[symbol];
+			int bids = Math.min(bidLevels[symbol], depth), asks = Math.min(askLevels[symbol], depth);
+			System.arraycopy(bidPrices, base, snapshot.bidPrices, 0, bids);
+			System.arraycopy(bidSizes, base, snapshot.bidSizes, 0, bids);
+			System.arraycopy(askPrices, base, snapshot.askPrices, 0, asks);
+			System.arraycopy(askSizes, base, snapshot.askSizes, 0, asks);
+			VarHandle.loadLoadFence();		// the copy is read before the version is read again
+			if(versions.get(symbol) == version) {
+				snapshot.symbol = symbol;
+				snapshot.bidLevels = bids;
+				snapshot.askLevels = asks;
+				return snapshot;
+			}
+		}
+	}
+
+	public BookSnapshot snapshot(String symbol) {
+		int id = symbols.id(symbol);
+		if(id < 0) throw new IllegalArgumentException("unknown symbol " + symbol);
+		return snapshot(id, new BookSnapshot(depth));
+	}
+
+	public synchronized void subscribe(TradingAlgorithm algorithm, String... names) {
+		for(String name: names) {
+			int symbol = symbols.intern(name);
+			TradingAlgorithm[] current = subscribers.get(symbol);
+			if(current == null) current = NONE;
+			if(Arrays.asList(current).contains(algorithm)) continue;
+			TradingAlgorithm[] grown = Arrays.copyOf(current, current.length + 1);
+			grown[current.length] = algorithm;
+			subscribers.set(symbol, grown);
+		}
+	}
+
+	public synchronized void unsubscribe(TradingAlgorithm algorithm, String... names) {
+		for(String name: names) {
+			int symbol = symbols.id(name);
+			if(symbol >= 0) remove(symbol, algorithm);
+		}
+	}
+
+	// from every symbol
+	public synchronized void unsubscribe(TradingAlgorithm algorithm) {
+		for(int symbol = 0; symbol < symbols.size(); symbol++) remove(symbol, algorithm);
+	}
+
+	private void remove(int symbol, TradingAlgorithm algorithm) {
+		TradingAlgorithm[] current = subscribers.get(symbol);
+		if(current == null) return;
+		TradingAlgorithm[] shrunk = Arrays.stream(current).filter(subscribed -> subscribed != algorithm).toArray(TradingAlgorithm[]::new);
+		if(shrunk.length != current.length) subscribers.set(symbol, shrunk.length == 0 ? null : shrunk);
+	}
+
+	public int subscriberCount(int symbol) {
+		TradingAlgorithm[] subscribed = subscribers.get(symbol);
+		return subscribed == null ? 0 : subscribed.length;
+	}
+
+	static class Builder {
+		private int symbols = 10_000;
+		private int depth = 5;
+
+		// the most symbols that can be interned
+		public Builder symbols(int symbols) {
+			if(symbols <= 0) throw new IllegalArgumentException("symbols must be positive");
+			this.symbols = symbols;
+			return this;
+		}
+
+		// levels kept on each side of every book
+		public Builder depth(int depth) {
+			if(depth <= 0) throw new IllegalArgumentException("depth must be positive");
+			this.depth = depth;
+			return this;
+		}
+
+		public SymbolMarketData build() {
+			if((long) symbols * depth > Integer.MAX_VALUE) throw new IllegalArgumentException("symbols x depth does not fit in an array");
+			return new SymbolMarketData(this);
+		}
+	}
+}
+
+
+
+public class MarketDataBook_SymbolTable {
+	// counts what it is told, checks it is only told about its own symbols
+	static class SubsetAlgorithm extends TradingAlgorithm {
+		final boolean[] mine;
+		long updates, foreign;
+
+		SubsetAlgorithm(String name, int capacity) {
+			super(name, price -> { });
+			this.mine = new boolean[capacity];
+		}
+
+		@Override
+		public void onSymbolUpdate(int symbol, SymbolMarketData data) {
+			updates++;
+			if(!mine[symbol]) foreign++;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		SymbolMarketData market = SymbolMarketData.builder().symbols(10_000).depth(5).build();
+		int aapl = market.symbols.intern("AAPL");
+
+		TradingAlgorithm printer = new TradingAlgorithm("Algo-Momentum-AAPL", new MomentumStrategy());
+		market.subscribe(printer, "AAPL");
+		market.quote(aapl, true, 9_990, 300);
+		market.quote(aapl, false, 10_010, 200);
+		market.trade(aapl, 10_000, 100);
+		market.unsubscribe(printer);
+
+		// 5000 symbols, an algorithm on 10 of them and one on 500
+		String[] names = new String[5_000];
+		int[] ids = new int[names.length];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = "SYM" + i;
+			ids[i] = market.symbols.intern(names[i]);
+		}
+		SubsetAlgorithm narrow = new SubsetAlgorithm("narrow", 10_000), wide = new SubsetAlgorithm("wide", 10_000);
+		for(int i = 0; i < 10; i++) {
+			market.subscribe(narrow, names[i]);
+			narrow.mine[ids[i]] = true;
+		}
+		for(int i = 0; i < 500; i++) {
+			market.subscribe(wide, names[i * 10]);
+			wide.mine[ids[i * 10]] = true;
+		}
+
+		// a reader on another thread takes AAPL snapshots while the feed writes it
+		int[] torn = new int[1];
+		Thread reader = new Thread(() -> {
+			BookSnapshot snapshot = new BookSnapshot(5);
+			while(!Thread.currentThread().isInterrupted()) {
+				market.snapshot(aapl, snapshot);
+				for(int level = 1; level < snapshot.bidLevels; level++) {
+					if(snapshot.bidPrices[level] >= snapshot.bidPrices[level - 1]) torn[0]++;
+				}
+				if(snapshot.bidLevels > 0 && snapshot.askLevels > 0 && snapshot.bidPrices[0] >= snapshot.askPrices[0]) torn[0]++;
+			}
+		});
+		reader.start();
+
+		Random random = new Random(7);
+		int updates = 2_000_000;
+		long start = System.nanoTime();
+		for(int i = 0; i < updates; i++) {
+			int symbol = i % 8 == 0 ? aapl : ids[random.nextInt(ids.length)];
+			int mid = 10_000 + (symbol & 255);
+			int tick = random.nextInt(20) + 1;
+			if(random.nextInt(4) == 0) market.trade(symbol, mid, 10);
+			else if(random.nextBoolean()) market.quote(symbol, true, mid - tick, random.nextInt(3) * 100);
+			else market.quote(symbol, false, mid + tick, random.nextInt(3) * 100);
+		}
+		long elapsed = System.nanoTime() - start;
+		reader.interrupt();
+		reader.join();
+
+		System.out.printf("%,d updates on %d symbols in %.0f ms, %.0f ns per update%n", updates, market.symbols.size(), elapsed / 1e6, (double) elapsed / updates);
+		System.out.println("narrow : " + narrow.updates + " updates, " + narrow.foreign + " for symbols it did not subscribe to");
+		System.out.println("wide   : " + wide.updates + " updates, " + wide.foreign + " for symbols it did not subscribe to");
+		System.out.println("torn AAPL snapshots seen by the reader thread : " + torn[0]);
+		System.out.print("AAPL book : " + market.snapshot("AAPL"));
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Delivery Policies for Slow Subscribers (Decorator + Strategy)
+Follow up of: Trading Platform (Observer + Strategy + Singleton) and Multi-Symbol Market Data
+
+Requirement
+Backpressure handling : notifySubscribers() calls onPriceUpdate inline, a slow MeanReversionStrategy stalls the feed.
+Per subscriber, a delivery policy :
+CONFLATE → only the latest price per symbol is kept, a slow subscriber sees fewer, newer prices
+DROP_OLDEST → bounded queue, when full the oldest price is dropped
+BLOCK → bounded queue, when full the feed waits
+The feed never runs the subscriber's code, memory stays bounded whatever the policy.
+Lag metrics per subscriber : prices waiting, delivered, conflated, dropped, time the feed was blocked, publish → delivery latency.
+
+Patterns Used
+Decorator → SubscriberMailbox is a TradingAlgorithm around a TradingAlgorithm, it registers wherever an algorithm does
+Strategy → DeliveryPolicy decides what happens to a price the subscriber is not ready for
+ */
+
+
+/*
+ * - the feed thread offers the price to the mailbox and goes on, the mailbox's own thread calls the algorithm (onSymbolPrice).
+ *   one thread offers (the feed), one thread takes (the mailbox), so no locks : sequences like the ring buffer's.
+ * - CONFLATE : one slot per symbol holding (present, price) and a queue of the symbols that have a price waiting.
+ *   offer = swap the slot, and only when it was empty put the symbol in the queue. take = next symbol from the queue, swap its slot empty.
+ *   a symbol is at most once in the queue, so the queue can not overflow and memory is 2 longs and an int per symbol.
+ *   the subscriber always gets the latest price of each symbol, in the order the symbols first changed.
+ * - DROP_OLDEST and BLOCK : a ring of capacity (symbol, price) packed in one long. when full, DROP_OLDEST moves the head
+ *   on itself with a compare and set (the mailbox thread takes with a compare and set too, whoever wins has the slot),
+ *   BLOCK waits for the mailbox thread, like the ring buffer's publisher. once the mailbox is closed (or its algorithm threw
+ *   an Error) nobody makes room any more, BLOCK drops instead of waiting forever.
+ * - lag : each price is stamped when offered. latency is stamp → handed to the algorithm. with CONFLATE the stamp is the
+ *   one of the latest price, what the algorithm sees is that old, older prices it never saw are in conflated.
+ * - the algorithm is called on the mailbox thread only, never on the feed thread. it can not read SymbolMarketData
+ *   directly (the feed thread is writing it), it gets the price, or takes a snapshot().
+ */
+
+package com.behavioral;
+
+import java.io.Closeable;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+enum DeliveryPolicy {
+	CONFLATE, DROP_OLDEST, BLOCK
+}
+
+final class SubscriberMailbox extends TradingAlgorithm implements Closeable {
+	private static final long PRESENT = 1L << 32;
+	private static final int SPINS = 100;
+
+	final TradingAlgorithm algorithm;
+	final DeliveryPolicy policy;
+	private final TickWaitStrategy wait;
+
+	// CONFLATE
+	private final AtomicLongArray latest;		// per symbol, PRESENT | price, or 0
+	private final long[] latestNanos;
+	private final int[] dirty;		// symbols with a price waiting
+	// DROP_OLDEST, BLOCK
+	private final long[] events;		// symbol << 32 | price
+	private final long[] eventNanos;
+
+	private final int mask;
+	private final PaddedSequence head = new PaddedSequence(0);		// next to take
+	private final PaddedSequence tail = new PaddedSequence(0);		// next to offer
+
+	// lag metrics
+	final LatencyHistogram latency = new LatencyHistogram();		// offered → handed to the algorithm
+	final LongAdder delivered = new LongAdder();
+	final LongAdder conflated = new LongAdder();		// prices replaced by a newer one before delivery
+	final LongAdder dropped = new LongAdder();
+	final LongAdder blockedNanos = new LongAdder();		// time the feed waited on this subscriber
+	final LongAdder failed = new LongAdder();
+
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private SubscriberMailbox(Builder builder) {
+		super(builder.algorithm.getName(), price -> { });
+		this.algorithm = builder.algorithm;
+		this.policy = builder.policy;
+		this.wait = builder.wait;
+		if(policy == DeliveryPolicy.CONFLATE) {
+			int size = Integer.highestOneBit(Math.max(2, builder.symbols) * 2 - 1);		// power of 2 ≥ symbols
+			this.latest = new AtomicLongArray(builder.symbols);
+			this.latestNanos = new long[builder.symbols];
+			this.dirty = new int[size];
+			this.events = null;
+			this.eventNanos = null;
+			this.mask = size - 1;
+		}
+		else {
+			this.latest = null;
+			this.latestNanos = null;
+			this.dirty = null;
+			this.events = new long[builder.capacity];
+			this.eventNanos = new long[builder.capacity];
+			this.mask = builder.capacity - 1;
+		}
+		this.thread = new Thread(this::deliver, "mailbox-" + algorithm.getName());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public static Builder builder(TradingAlgorithm algorithm) {
+		return new Builder(algorithm);
+	}
+
+	/* ---------- feed side, called where the algorithm itself used to be called ---------- */
+
+	@Override
+	public void onPriceUpdate(int price) {
+		offer(0, price);
+	}
+
+	@Override
+	public void onSymbolUpdate(int symbol, SymbolMarketData data) {
+		offer(symbol, data.price(symbol));
+	}
+
+	@Override
+	public void onSymbolPrice(int symbol, int price) {
+		offer(symbol, price);
+	}
+
+	@Override
+	public void setStrategy(TradingStrategy strategy) {
+		algorithm.setStrategy(strategy);
+	}
+
+	// one offering thread only
+	void offer(int symbol, int price) {
+		long now = System.nanoTime();
+		if(policy == DeliveryPolicy.CONFLATE) {
+			latestNanos[symbol] = now;
+			long previous = latest.getAndSet(symbol, PRESENT | (price & 0xffffffffL));
+			if(previous != 0) {
+				conflated.increment();
+				return;
+			}
+			long next = tail.get();
+			dirty[(int) next & mask] = symbol;		// never full, a symbol is queued at most once
+			tail.set(next + 1);
+			return;
+		}
+
+		long next = tail.get();
+		if(next - head.get() > mask) {
+			if(policy == DeliveryPolicy.DROP_OLDEST) dropOldest(next);
+			else if(!block(next)) return;
+		}
+		int index = (int) next & mask;
+		events[index] = (long) symbol << 32 | (price & 0xffffffffL);
+		eventNanos[index] = now;
+		tail.set(next + 1);
+	}
+
+	private void dropOldest(long next) {
+		long oldest;
+		while(next - (oldest = head.get()) > mask) {
+			if(head.compareAndSet(oldest, oldest + 1)) dropped.increment();		// lost the race → the mailbox took it, there is room
+		}
+	}
+
+	// false → the mailbox is closed (or its algorithm died), nobody will make room : the price is dropped
+	private boolean block(long next) {
+		long start = System.nanoTime();
+		try {
+			for(int idle = 0; next - head.get() > mask; idle++) {
+				if(!running) {
+					dropped.increment();
+					return false;
+				}
+				idle(idle);
+			}
+			return true;
+		}
+		finally {
+			blockedNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	/* ---------- mailbox thread ---------- */
+
+	private void deliver() {
+		int idle = 0;
+		while(running) {
+			if(policy == DeliveryPolicy.CONFLATE ? takeLatest() : takeOldest()) idle = 0;
+			else idle(idle++);
+		}
+	}
+
+	private boolean takeLatest() {
+		long next = head.get();
+		if(next >= tail.get()) return false;
+		int symbol = dirty[(int) next & mask];
+		head.set(next + 1);		// before the swap : a price offered from now on queues the symbol again
+		long value = latest.getAndSet(symbol, 0);
+		hand(symbol, (int) value, latestNanos[symbol]);
+		return true;
+	}
+
+	private boolean takeOldest() {
+		while(true) {
+			long next = head.get();
+			if(next >= tail.get()) return false;
+			int index = (int) next & mask;
+			long event = events[index];
+			long stamp = eventNanos[index];
+			if(head.compareAndSet(next, next + 1)) {		// else the feed dropped it meanwhile, the slot may be rewritten
+				hand((int) (event >>> 32), (int) event, stamp);
+				return true;
+			}
+		}
+	}
+
+	private void hand(int symbol, int price, long stampNanos) {
+		latency.record(System.nanoTime() - stampNanos);
+		try {
+			algorithm.onSymbolPrice(symbol, price);
+			delivered.increment();		// only when it went through, a failed price is counted once, as failed
+		}
+		catch(RuntimeException e) {
+			failed.increment();
+		}
+		catch(Error e) {		// the algorithm is in no state to go on : stop, so a BLOCK feed does not wait on a dead thread
+			failed.increment();
+			running = false;
+			throw e;
+		}
+	}
+
+	private void idle(int idle) {
+		if(wait == TickWaitStrategy.BUSY_SPIN || idle < SPINS) Thread.onSpinWait();
+		else if(wait == TickWaitStrategy.YIELD || idle < 2 * SPINS) Thread.yield();
+		else LockSupport.parkNanos(50_000);
+	}
+
+	// prices (CONFLATE : symbols) waiting for the algorithm
+	public long pending() {
+		return Math.max(0, tail.get() - head.get());
+	}
+
+	@Override
+	public void close() {
+		running = false;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s : delivered %d, failed %d, conflated %d, dropped %d, pending %d, feed blocked %.1f ms, lag %s",
+				getName(), policy, delivered.sum(), failed.sum(), conflated.sum(), dropped.sum(), pending(), blockedNanos.sum() / 1e6, latency.snapshot());
+	}
+
+	static class Builder {
+		private final TradingAlgorithm algorithm;
+		private DeliveryPolicy policy = DeliveryPolicy.CONFLATE;
+		private int symbols = 1;
+		private int capacity = 1024;
+		private TickWaitStrategy wait = TickWaitStrategy.PARK;
+
+		private Builder(TradingAlgorithm algorithm) {
+			if(algorithm == null) throw new IllegalArgumentException("algorithm is required");
+			this.algorithm = algorithm;
+		}
+
+		public Builder policy(DeliveryPolicy policy) {
+			this.policy = policy;
+			return this;
+		}
+
+		// CONFLATE : ids offered are 0 ... symbols - 1 (1 for MarketDataFeed, the symbol table capacity for SymbolMarketData)
+		public Builder symbols(int symbols) {
+			if(symbols <= 0) throw new IllegalArgumentException("symbols must be positive");
+			this.symbols = symbols;
+			return this;
+		}
+
+		// DROP_OLDEST and BLOCK : prices the queue holds, a power of 2
+		public Builder capacity(int capacity) {
+			if(capacity < 2 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of 2, got " + capacity);
+			this.capacity = capacity;
+			return this;
+		}
+
+		// how the mailbox thread waits for prices (and the feed, with BLOCK, for room)
+		public Builder wait(TickWaitStrategy wait) {
+			this.wait = wait;
+			return this;
+		}
+
+		public SubscriberMailbox build() {
+			return new SubscriberMailbox(this);
+		}
+	}
+}
+
+
+
+public class MarketDataDelivery_Mailbox {
+	// takes workNanos per price and remembers the last price of every symbol it saw
+	static class SlowAlgorithm extends TradingAlgorithm {
+		final int[] lastSeen;
+		private final long workNanos;
+
+		SlowAlgorithm(String name, int symbols, long workNanos) {
+			super(name, price -> { });
+			this.lastSeen = new int[symbols];
+			this.workNanos = workNanos;
+		}
+
+		@Override
+		public void onSymbolPrice(int symbol, int price) {
+			long end = System.nanoTime() + workNanos;
+			while(System.nanoTime() < end) Thread.onSpinWait();
+			lastSeen[symbol] = price;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		// the single price feed : a MeanReversionStrategy that needs 5 ms a price, behind a conflating mailbox
+		MarketDataFeed feed = MarketDataFeed.getInstance();
+		MeanReversionStrategy meanReversion = new MeanReversionStrategy();
+		SubscriberMailbox slowMeanReversion = SubscriberMailbox.builder(new TradingAlgorithm("Algo-SlowMeanReversion", price -> {
+			LockSupport.parkNanos(5_000_000);
+			meanReversion.execute(price);
+		})).policy(DeliveryPolicy.CONFLATE).build();
+		feed.register(slowMeanReversion);
+		long start = System.nanoTime();
+		for(int price = 1; price <= 10_000; price++) feed.setMarketPrice(price);
+		System.out.printf("10000 prices published in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+		while(slowMeanReversion.pending() > 0) Thread.sleep(1);
+		Thread.sleep(10);
+		feed.unregister(slowMeanReversion);
+		slowMeanReversion.close();
+		System.out.println(slowMeanReversion);
+
+		// 1000 symbols, 100k updates as fast as the feed goes, a subscriber that needs 20 µs a price under each policy
+		int symbols = 1_000, updates = 100_000;
+		Random random = new Random(3);
+		int[] symbolOf = new int[updates], priceOf = new int[updates], published = new int[symbols];
+		for(int i = 0; i < updates; i++) {
+			symbolOf[i] = random.nextInt(symbols);
+			priceOf[i] = 10_000 + i;
+			published[symbolOf[i]] = priceOf[i];
+		}
+		System.out.printf("%-12s %10s %10s %10s %10s %12s %10s %10s %14s%n",
+				"policy", "feed ms", "delivered", "conflated", "dropped", "blocked ms", "p50 µs", "p99 µs", "latest seen");
+		for(DeliveryPolicy policy: DeliveryPolicy.values()) {
+			SlowAlgorithm slow = new SlowAlgorithm("slow-" + policy, symbols, 20_000);
+			SubscriberMailbox mailbox = SubscriberMailbox.builder(slow).policy(policy).symbols(symbols).capacity(256).build();
+			start = System.nanoTime();
+			for(int i = 0; i < updates; i++) mailbox.onSymbolPrice(symbolOf[i], priceOf[i]);
+			long feedNanos = System.nanoTime() - start;
+			while(mailbox.pending() > 0) Thread.sleep(1);
+			Thread.sleep(5);
+			mailbox.close();
+
+			int latestSeen = 0;
+			for(int symbol = 0; symbol < symbols; symbol++) if(slow.lastSeen[symbol] == published[symbol]) latestSeen++;
+			LatencyHistogram.Snapshot lag = mailbox.latency.snapshot();
+			System.out.printf("%-12s %10.1f %10d %10d %10d %12.1f %10.0f %10.0f %9d/%d%n", policy, feedNanos / 1e6,
+					mailbox.delivered.sum(), mailbox.conflated.sum(), mailbox.dropped.sum(), mailbox.blockedNanos.sum() / 1e6,
+					lag.percentile(50) / 1e3, lag.percentile(99) / 1e3, latestSeen, symbols);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Benchmark for TickRingBuffer in MarketDataFeed_RingBuffer
+ *
+ * - the feed publishes 1M ticks at 1M ticks/s (one every µs, paced by the clock), to 1, 2, 4 ... 32 algorithms
+ *   that only add the price up.
+ * - tick to strategy latency : from the time the tick was due to go out (not when it actually went out, so a feed
+ *   that fell behind shows up as latency too) to the moment the algorithm gets it.
+ *   per algorithm, the table shows the worst algorithm of the run.
+ * - ring : every algorithm on its own thread (TickWaitStrategy from the first argument, YIELD by default).
+ *   inline : the old way, the feed calls every algorithm one after the other on its own thread.
+ * - achieved : ticks/s the feed really got out. below 1M the algorithms could not keep up and the ring pushed back.
+ * - isolation : 3 algorithms plus one that stalls for 200 µs every 1000 ticks (a lock, a gc, a slow model).
+ *   the latency shown is the worst of the 3 others : inline they wait for the stall, on the ring they should not.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with a warmup run.
+ * run it with: java -cp bin com.behavioral.MarketDataFeedBenchmark [BUSY_SPIN|YIELD|PARK]
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+public class MarketDataFeedBenchmark {
+	static final int TICKS = 1_000_000;
+	static final long INTERVAL_NANOS = 1_000;		// 1M ticks/s
+	static final int CAPACITY = 1 << 16;
+
+	static long dueNanos;		// inline mode : when the tick being handed out was due, written and read on the feed thread
+
+	static final class SummingStrategy implements TradingStrategy {
+		long sum;
+
+		@Override
+		public void execute(int price) {
+			sum += price;
+		}
+	}
+
+	static final class QuietAlgorithm extends TradingAlgorithm {
+		private final SummingStrategy strategy;
+		final LatencyHistogram inlineLatency = new LatencyHistogram();
+		private final boolean inline;
+		private final boolean stalls;
+		private int ticks;
+
+		QuietAlgorithm(String name, SummingStrategy strategy, boolean inline, boolean stalls) {
+			super(name, strategy);
+			this.strategy = strategy;
+			this.inline = inline;
+			this.stalls = stalls;
+		}
+
+		@Override
+		public void onPriceUpdate(int price) {
+			if(inline) inlineLatency.record(System.nanoTime() - dueNanos);
+			strategy.execute(price);
+			if(stalls && ++ticks % 1000 == 0) LockSupport.parkNanos(200_000);
+		}
+	}
+
+	// ticks/s achieved, worst latency snapshot of the algorithms that do not stall in worst[0]
+	static double ring(int algorithms, boolean oneStalls, TickWaitStrategy wait, LatencyHistogram.Snapshot[] worst) {
+		TickRingBuffer ring = new TickRingBuffer(CAPACITY);
+		for(int a = 0; a < algorithms; a++) {
+			ring.subscribe(new QuietAlgorithm("algo" + a, new SummingStrategy(), false, oneStalls && a == 0), wait);
+		}
+
+		long start = System.nanoTime();
+		for(int i = 0; i < TICKS; i++) {
+			long due = start + i * INTERVAL_NANOS;
+			while(System.nanoTime() < due) Thread.yield();		// ahead of the clock, let the algorithms have the cpu
+			ring.publish(100 + (i & 63), due);
+		}
+		double achieved = TICKS / ((System.nanoTime() - start) / 1e9);
+
+		for(RingSubscriber subscriber: ring.subscribers()) {
+			while(subscriber.sequence.get() < TICKS - 1) Thread.yield();
+		}
+		worst[0] = null;
+		for(RingSubscriber subscriber: ring.subscribers()) {
+			if(!((QuietAlgorithm) subscriber.algorithm).stalls) worst[0] = worse(worst[0], subscriber.latency.snapshot());
+		}
+		ring.close();
+		return achieved;
+	}
+
+	static double inline(int algorithms, boolean oneStalls, LatencyHistogram.Snapshot[] worst) {
+		List<QuietAlgorithm> subscribers = new CopyOnWriteArrayList<>();
+		for(int a = 0; a < algorithms; a++) subscribers.add(new QuietAlgorithm("algo" + a, new SummingStrategy(), true, oneStalls && a == 0));
+
+		long start = System.nanoTime();
+		for(int i = 0; i < TICKS; i++) {
+			long due = start + i * INTERVAL_NANOS;
+			while(System.nanoTime() < due) Thread.onSpinWait();
+			dueNanos = due;
+			for(QuietAlgorithm algorithm: subscribers) algorithm.onPriceUpdate(100 + (i & 63));
+		}
+		double achieved = TICKS / ((System.nanoTime() - start) / 1e9);
+
+		worst[0] = null;
+		for(QuietAlgorithm algorithm: subscribers) {
+			if(!algorithm.stalls) worst[0] = worse(worst[0], algorithm.inlineLatency.snapshot());
+		}
+		return achieved;
+	}
+
+	private static LatencyHistogram.Snapshot worse(LatencyHistogram.Snapshot a, LatencyHistogram.Snapshot b) {
+		return a == null || b.percentile(99) > a.percentile(99) ? b : a;
+	}
+
+	public static void main(String[] args) {
+		TickWaitStrategy wait = args.length > 0 ? TickWaitStrategy.valueOf(args[0]) : TickWaitStrategy.YIELD;
+		LatencyHistogram.Snapshot[] worst = new LatencyHistogram.Snapshot[1];
+		ring(4, false, wait, worst);		// warmup
+		inline(4, false, worst);
+
+		System.out.printf("%d cpus, ring waits with %s%n", Runtime.getRuntime().availableProcessors(), wait);
+		System.out.printf("%-7s %-6s %12s %10s %10s %10s %12s%n", "algos", "mode", "achieved/s", "p50 µs", "p99 µs", "p99.9 µs", "max µs");
+		List<String> rows = new ArrayList<>();
+		for(int algorithms = 1; algorithms <= 32; algorithms *= 2) {
+			double achieved = ring(algorithms, false, wait, worst);
+			rows.add(row(String.valueOf(algorithms), "ring", achieved, worst[0]));
+			achieved = inline(algorithms, false, worst);
+			rows.add(row(String.valueOf(algorithms), "inline", achieved, worst[0]));
+			for(String row: rows) System.out.println(row);
+			rows.clear();
+		}
+		System.out.println(row("3+stall", "ring", ring(4, true, wait, worst), worst[0]));
+		System.out.println(row("3+stall", "inline", inline(4, true, worst), worst[0]));
+	}
+
+	private static String row(String algorithms, String mode, double achieved, LatencyHistogram.Snapshot latency) {
+		return String.format("%-7s %-6s %,12.0f %10.1f %10.1f %10.1f %,12.1f", algorithms, mode, achieved,
+				latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3, latency.max() / 1e3);
+	}
+}
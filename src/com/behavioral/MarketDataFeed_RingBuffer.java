@@ -0,0 +1,307 @@
+/*
+ * Market Data Fan-out on a Ring Buffer (Observer, Disruptor style)
+Follow up of: Trading Platform (Observer + Strategy + Singleton)
+
+Requirement
+MarketDataFeed.setMarketPrice calls every TradingAlgorithm one after the other on the publisher thread,
+from a plain ArrayList : register() from another thread can throw ConcurrentModificationException,
+and one slow algorithm delays the price for all the others.
+A ring buffer publication mode :
+the feed writes every tick into a preallocated ring (nothing allocated per tick)
+every TradingAlgorithm reads the ring on its own thread, at its own pace, through its own sequence
+no locks between the feed and the algorithms
+Tick to strategy latency per algorithm, as a histogram, at 1M ticks/s with 1 to 32 algorithms (MarketDataFeedBenchmark).
+
+Patterns Used
+Observer → every algorithm still sees every price, in order, only on its own thread
+Singleton → MarketDataFeed stays the one feed, the ring is a mode of it
+ */
+
+
+/*
+ * how it works (after the LMAX Disruptor) :-
+ * - the ring is capacity slots of primitives (price, publish time), allocated once. tick n goes to slot n & (capacity - 1).
+ * - one publisher. it writes the slot, then moves the cursor to n with a release store. an algorithm that reads
+ *   the cursor (volatile) sees everything written before it, so the slots need no locks and no volatile.
+ * - every algorithm has its own sequence (the last tick it finished). it reads the cursor once and handles every tick up to it
+ *   in one batch, then stores its sequence once. a slow algorithm just has a bigger batch next time.
+ * - the publisher may not overwrite a slot some algorithm has not read yet : before taking tick n it checks that
+ *   the slowest sequence is past n - capacity, and only looks again when it caught up with the last value it saw.
+ *   so a slow algorithm makes the feed wait (backpressure) once it is a whole ring behind, and never loses ticks.
+ * - every sequence sits alone on its cache line (padding), so the algorithms do not slow each other down by writing next to each other.
+ * - an algorithm with nothing to read spins, yields or parks (TickWaitStrategy). spinning is the fastest and burns a core per
+ *   algorithm, only for machines with a core to spare per algorithm.
+ * - an algorithm that subscribes starts at the next tick, it does not see the past.
+ * - an algorithm that unsubscribes stops at the tick it is on, even in the middle of a batch. it keeps holding the publisher back
+ *   until its thread is out of the ring, so no slot it may still read gets overwritten. a subscriber thread that dies leaves too.
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+enum TickWaitStrategy {
+	BUSY_SPIN, YIELD, PARK
+}
+
+// a long alone on its cache line : 7 longs before and after it
+abstract class SequenceLeftPadding {
+	long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class SequenceValue extends SequenceLeftPadding {
+	volatile long value;
+}
+
+final class PaddedSequence extends SequenceValue {
+	private static final AtomicLongFieldUpdater<SequenceValue> VALUE = AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+	long p9, p10, p11, p12, p13, p14, p15;
+
+	PaddedSequence(long initial) {
+		value = initial;
+	}
+
+	long get() {
+		return value;
+	}
+
+	// release store : what was written before is seen by whoever reads this value
+	void set(long next) {
+		VALUE.lazySet(this, next);
+	}
+
+	boolean compareAndSet(long expected, long next) {
+		return VALUE.compareAndSet(this, expected, next);
+	}
+}
+
+final class TickRingBuffer {
+	private final int mask;
+	final int[] prices;
+	final long[] publishNanos;
+	private final PaddedSequence cursor = new PaddedSequence(-1);		// last published tick
+	private volatile RingSubscriber[] subscribers = new RingSubscriber[0];
+
+	// publisher thread only
+	private long next;
+	private long slowest = -1;		// sequence of the slowest subscriber, when the publisher last looked
+
+	TickRingBuffer(int capacity) {
+		if(capacity < 2 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of 2, got " + capacity);
+		this.mask = capacity - 1;
+		this.prices = new int[capacity];
+		this.publishNanos = new long[capacity];
+	}
+
+	// one publishing thread only
+	public void publish(int price) {
+		publish(price, System.nanoTime());
+	}
+
+	// stampNanos : when the tick was meant to go out, latency is counted from there
+	void publish(int price, long stampNanos) {
+		long sequence = next;
+		long wrapPoint = sequence - prices.length;
+		if(wrapPoint > slowest) {
+			long min;
+			while(wrapPoint > (min = slowestSequence(sequence - 1))) Thread.yield();		// a subscriber is a whole ring behind
+			slowest = min;
+		}
+		int index = (int) sequence & mask;
+		prices[index] = price;
+		publishNanos[index] = stampNanos;
+		cursor.set(sequence);
+		next = sequence + 1;
+	}
+
+	private long slowestSequence(long upTo) {
+		long min = upTo;
+		for(RingSubscriber subscriber: subscribers) min = Math.min(min, subscriber.sequence.get());
+		return min;
+	}
+
+	long cursor() {
+		return cursor.get();
+	}
+
+	int index(long sequence) {
+		return (int) sequence & mask;
+	}
+
+	public synchronized RingSubscriber subscribe(TradingAlgorithm algorithm, TickWaitStrategy wait) {
+		RingSubscriber subscriber = new RingSubscriber(this, algorithm, wait, cursor.get());
+		RingSubscriber[] current = subscribers, grown = new RingSubscriber[current.length + 1];
+		System.arraycopy(current, 0, grown, 0, current.length);
+		grown[current.length] = subscriber;
+		subscribers = grown;
+		// the publisher may have gone on while it was added, start from where it is now. it can not pass this one any more
+		subscriber.sequence.set(cursor.get());
+		subscriber.start();
+		return subscriber;
+	}
+
+	// it still holds the publisher back until its thread is out of the ring, see remove
+	public synchronized void unsubscribe(TradingAlgorithm algorithm) {
+		for(RingSubscriber subscriber: subscribers) {
+			if(subscriber.algorithm == algorithm && subscriber.running()) {
+				subscriber.stop();
+				return;
+			}
+		}
+	}
+
+	// by the subscriber thread on its way out. before that the publisher could overwrite a slot it is still reading
+	synchronized void remove(RingSubscriber subscriber) {
+		RingSubscriber[] current = subscribers;
+		for(int i = 0; i < current.length; i++) {
+			if(current[i] != subscriber) continue;
+			RingSubscriber[] shrunk = new RingSubscriber[current.length - 1];
+			System.arraycopy(current, 0, shrunk, 0, i);
+			System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+			subscribers = shrunk;
+			return;
+		}
+	}
+
+	RingSubscriber[] subscribers() {
+		return subscribers;
+	}
+
+	public synchronized void close() {
+		for(RingSubscriber subscriber: subscribers) subscriber.stop();		// each one leaves the array when its thread is done
+	}
+}
+
+// one algorithm, its thread and its sequence
+final class RingSubscriber {
+	private static final int SPINS = 100;
+
+	final TradingAlgorithm algorithm;
+	final PaddedSequence sequence;
+	final LatencyHistogram latency = new LatencyHistogram();		// tick published → handed to the algorithm
+	final LongAdder failed = new LongAdder();
+	private final TickRingBuffer ring;
+	private final TickWaitStrategy wait;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	RingSubscriber(TickRingBuffer ring, TradingAlgorithm algorithm, TickWaitStrategy wait, long start) {
+		this.ring = ring;
+		this.algorithm = algorithm;
+		this.wait = wait;
+		this.sequence = new PaddedSequence(start);
+		this.thread = new Thread(this::consume, "ticks-" + algorithm.getName());
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	private void consume() {
+		int[] prices = ring.prices;
+		long[] publishNanos = ring.publishNanos;
+		long next = sequence.get() + 1;
+		int idle = 0;
+		try {
+			while(running) {
+				long available = ring.cursor();
+				if(available < next) {
+					idle(idle++);
+					continue;
+				}
+				idle = 0;
+				for(; next <= available && running; next++) {		// stopped → not one more tick, even mid batch
+					int index = ring.index(next);
+					int price = prices[index];
+					latency.record(System.nanoTime() - publishNanos[index]);
+					try {
+						algorithm.onPriceUpdate(price);
+					}
+					catch(Throwable e) {
+						failed.increment();		// one bad tick does not stop the algorithm
+						if(e instanceof VirtualMachineError) throw e;		// this one does
+					}
+				}
+				sequence.set(next - 1);		// once per batch
+			}
+		}
+		finally {
+			running = false;
+			ring.remove(this);		// a dead or stopped subscriber must not hold the publisher back
+		}
+	}
+
+	private void idle(int idle) {
+		if(wait == TickWaitStrategy.BUSY_SPIN || idle < SPINS) Thread.onSpinWait();
+		else if(wait == TickWaitStrategy.YIELD || idle < 2 * SPINS) Thread.yield();
+		else LockSupport.parkNanos(50_000);
+	}
+
+	// ticks published but not handled yet
+	public long lag() {
+		return ring.cursor() - sequence.get();
+	}
+
+	void stop() {
+		running = false;
+	}
+
+	boolean running() {
+		return running;
+	}
+}
+
+
+
+public class MarketDataFeed_RingBuffer {
+	static class CountingStrategy implements TradingStrategy {
+		long ticks, sum;
+
+		@Override
+		public void execute(int price) {
+			ticks++;
+			sum += price;
+		}
+	}
+
+	// a TradingAlgorithm that does not print every price
+	static class QuietAlgorithm extends TradingAlgorithm {
+		private final TradingStrategy strategy;
+
+		QuietAlgorithm(String name, TradingStrategy strategy) {
+			super(name, strategy);
+			this.strategy = strategy;
+		}
+
+		@Override
+		public void onPriceUpdate(int price) {
+			strategy.execute(price);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		MarketDataFeed feed = MarketDataFeed.getInstance();
+		TickRingBuffer ring = feed.useRingBuffer(1 << 12, TickWaitStrategy.YIELD);
+
+		CountingStrategy fast = new CountingStrategy();
+		CountingStrategy slow = new CountingStrategy();
+		feed.register(new QuietAlgorithm("fast", fast));
+		feed.register(new QuietAlgorithm("slow", price -> {
+			slow.execute(price);
+			LockSupport.parkNanos(2_000);		// 2 µs per tick, a heavy model
+		}));
+
+		for(int i = 0; i < 100_000; i++) feed.setMarketPrice(100 + i % 50);
+		while(fast.ticks < 100_000 || slow.ticks < 100_000) Thread.sleep(1);
+
+		System.out.println("fast saw " + fast.ticks + " ticks, slow saw " + slow.ticks + " ticks, sums equal → " + (fast.sum == slow.sum));
+		for(RingSubscriber subscriber: ring.subscribers()) {
+			System.out.println(subscriber.algorithm.getName() + " tick → strategy " + subscriber.latency.snapshot());
+		}
+		ring.close();
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Pipeline Instrumentation (Decorator + Observer)
+Follow up of: Compiled Request Pipeline and API Request Middleware
+
+Requirement
+Nobody can tell how much time each handler (authentication, authorization, rate limiting, validation)
+or each middleware decorator (authentication, logging, metrics) adds to a request.
+Record the latency of every handler into a lock free histogram, and count how often each handler stopped the request.
+A snapshot of all of it can be polled cheaply (a dashboard every few seconds).
+Switched off it must cost next to nothing, so it can stay compiled in and be switched on in production.
+
+Patterns Used
+Decorator → TimedApiRequestHandler wraps a handler and times it, the handler does not know
+Observer → the handlers report into PipelineInstrumentation, whoever polls snapshot() reads it
+ */
+
+
+/*
+ * - one HandlerStats per handler name : a LatencyHistogram and a LongAdder of short-circuits. recording is lock free and does not allocate.
+ * - pipelines : InstrumentedApiPipeline is built twice from the same handlers, once plain and once with every handler wrapped.
+ *   execute() reads the enabled flag once and runs one of the two. switched off that is one volatile read,
+ *   the plain pipeline still has its own handler at each call site, and System.nanoTime() is never called.
+ *   (both share the call sites of CompiledApiPipeline, so a site sees at most two classes, which the jit still inlines.)
+ * - decorators (com.structural) check the flag in every layer, a decorator stack has no single entry point to switch at.
+ * - a request switched on in the middle is timed from the next request on, never half.
+ * - the histogram of a decorator holds the time of the layer and everything under it.
+ *   what a decorator adds itself = its mean minus the mean of the layer it wraps (means add up, percentiles do not).
+ *
+ * public, with HandlerStats and HandlerSnapshot, because com.structural records into it as well.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+final class TimedApiRequestHandler implements ApiRequestHandler {
+	private final ApiRequestHandler handler;
+	private final PipelineInstrumentation.HandlerStats stats;
+
+	TimedApiRequestHandler(ApiRequestHandler handler, PipelineInstrumentation.HandlerStats stats) {
+		this.handler = handler;
+		this.stats = stats;
+	}
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		long start = System.nanoTime();
+		boolean passed = handler.handle(context);
+		stats.record(System.nanoTime() - start, passed);
+		return passed;
+	}
+
+	@Override
+	public String name() {
+		return handler.name();		// rejectedBy names the real handler, not the wrapper
+	}
+}
+
+final class InstrumentedApiPipeline {
+	private final PipelineInstrumentation instrumentation;
+	private final CompiledApiPipeline plain;
+	private final CompiledApiPipeline timed;
+
+	InstrumentedApiPipeline(PipelineInstrumentation instrumentation, List<ApiRequestHandler> handlers) {
+		this.instrumentation = instrumentation;
+		CompiledApiPipeline.Builder plain = CompiledApiPipeline.builder();
+		CompiledApiPipeline.Builder timed = CompiledApiPipeline.builder();
+		for(ApiRequestHandler handler: handlers) {
+			plain.then(handler);
+			timed.then(new TimedApiRequestHandler(handler, instrumentation.handler(handler.name())));
+		}
+		this.plain = plain.build();
+		this.timed = timed.build();
+	}
+
+	public boolean execute(ApiRequestContext context) {
+		return instrumentation.isEnabled() ? timed.execute(context) : plain.execute(context);
+	}
+
+	public int size() {
+		return plain.size();
+	}
+}
+
+public final class PipelineInstrumentation {
+	private volatile boolean enabled;
+	private final ConcurrentHashMap<String, HandlerStats> byName = new ConcurrentHashMap<>();
+	private final List<HandlerStats> inOrder = new CopyOnWriteArrayList<>();		// snapshot order = order of registration
+
+	public PipelineInstrumentation(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	// handlers with the same name share their stats, e.g. the same handler in two pipelines
+	public HandlerStats handler(String name) {
+		HandlerStats stats = byName.get(name);
+		if(stats != null) return stats;
+		synchronized(this) {		// registration only, never on a request
+			stats = byName.get(name);
+			if(stats == null) {
+				stats = new HandlerStats(name);
+				inOrder.add(stats);
+				byName.put(name, stats);
+			}
+			return stats;
+		}
+	}
+
+	// copies the counters, recording goes on meanwhile. a few thousand longs per handler, fine to poll every second
+	public Map<String, HandlerSnapshot> snapshot() {
+		Map<String, HandlerSnapshot> snapshot = new LinkedHashMap<>();
+		for(HandlerStats stats: inOrder) {
+			snapshot.put(stats.name, new HandlerSnapshot(stats.name, stats.latency.snapshot(), stats.shortCircuits.sum()));
+		}
+		return snapshot;
+	}
+
+	public static final class HandlerStats {
+		private final String name;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder shortCircuits = new LongAdder();
+
+		HandlerStats(String name) {
+			this.name = name;
+		}
+
+		// passed = false when the handler stopped the request
+		public void record(long nanos, boolean passed) {
+			latency.record(nanos);
+			if(!passed) shortCircuits.increment();
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	public static final class HandlerSnapshot {
+		private final String name;
+		private final LatencyHistogram.Snapshot latency;
+		private final long shortCircuits;
+
+		HandlerSnapshot(String name, LatencyHistogram.Snapshot latency, long shortCircuits) {
+			this.name = name;
+			this.latency = latency;
+			this.shortCircuits = shortCircuits;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public LatencyHistogram.Snapshot getLatency() {
+			return latency;
+		}
+
+		public long getShortCircuits() {
+			return shortCircuits;
+		}
+
+		public String toString() {
+			return String.format("%-26s %s, stopped %d", name, latency, shortCircuits);
+		}
+	}
+
+
+
+	public static void main(String[] args) {
+		MultiDimensionRateLimiter limiter = MultiDimensionRateLimiter.builder()
+				.limit(RateLimitDimension.IP, new TokenBucketRateLimiter(50_000, 1, TimeUnit.SECONDS))
+				.build();
+
+		List<ApiRequestHandler> handlers = new ArrayList<>();
+		handlers.add(new AuthenticationHandler());
+		handlers.add(new AuthorizationHandler());
+		handlers.add(new RateLimitHandler(limiter));
+		handlers.add(new RequestValidationHandler());
+
+		PipelineInstrumentation instrumentation = new PipelineInstrumentation(false);
+		InstrumentedApiPipeline pipeline = new InstrumentedApiPipeline(instrumentation, handlers);
+		CompiledApiPipeline bare = CompiledApiPipeline.builder()
+				.then(handlers.get(0)).then(handlers.get(1)).then(handlers.get(2)).then(handlers.get(3))
+				.build();
+
+		ApiRequestContext context = new ApiRequestContext();
+		String[] ips = new String[256];
+		for(int i = 0; i < ips.length; i++) ips[i] = "10.0.0." + i;
+
+		// 5 rounds each, the last one counts (jit warm up)
+		double bareNanos = 0, offNanos = 0, onNanos = 0;
+		for(int round = 0; round < 5; round++) {
+			bareNanos = run(bare::execute, context, ips);
+			instrumentation.setEnabled(false);
+			offNanos = run(pipeline::execute, context, ips);
+			instrumentation.setEnabled(true);
+			onNanos = run(pipeline::execute, context, ips);
+		}
+		System.out.printf("per request : bare pipeline %.1f ns, instrumentation off %.1f ns, on %.1f ns%n", bareNanos, offNanos, onNanos);
+
+		for(HandlerSnapshot handler: instrumentation.snapshot().values()) {
+			System.out.println(handler);
+		}
+	}
+
+	private interface Pipeline {
+		boolean execute(ApiRequestContext context);
+	}
+
+	private static double run(Pipeline pipeline, ApiRequestContext context, String[] ips) {
+		int requests = 2_000_000;
+		long start = System.nanoTime();
+		for(int i = 0; i < requests; i++) {
+			String credential = (i & 63) == 0 ? null : "token";		// every 64th request stops at authentication
+			pipeline.execute(context.reset("user", ips[i & 255], "India", credential, "/orders"));
+		}
+		return (double) (System.nanoTime() - start) / requests;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Benchmark for the rate limiting algorithms in RateLimiterAlgorithms_Strategy
+ *
+ * - runs every algorithm at 1, 8 and 64 threads, each thread calling RateLimit() on random ips out of a fixed pool.
+ * - reports ops/sec and the p99 latency of a single RateLimit() call.
+ * - latency is sampled (1 call out of SAMPLE_EVERY) so that reading the clock does not dominate what is measured.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with warmup + measured rounds.
+ * run it with: java -cp bin com.behavioral.RateLimiterAlgorithmsBenchmark [seconds per run]
+ */
+
+package com.behavioral;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class RateLimiterAlgorithmsBenchmark {
+	static final int[] THREADS = {1, 8, 64};
+	static final int KEYS = 4096;
+	static final int SAMPLE_EVERY = 64;
+	static final int SAMPLES_PER_THREAD = 1 << 16;
+
+	public static void main(String[] args) throws InterruptedException {
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 2;
+
+		String[] ips = new String[KEYS];
+		for(int i = 0; i < KEYS; i++) {
+			ips[i] = "10." + (i >> 8) + "." + (i & 0xFF) + ".1";
+		}
+
+		// limits are high enough that most calls are accepted, which is the path we care about
+		List<Supplier<KeyedRateLimiter>> algorithms = List.of(
+				() -> new FixedWindowRateLimiter(1_000_000, 1, TimeUnit.SECONDS),
+				() -> new SlidingWindowLogRateLimiter(2_000, 1, TimeUnit.SECONDS),
+				() -> new SlidingWindowCounterRateLimiter(SlidingWindowCounterRateLimiter.MAX_LIMIT, 1, TimeUnit.SECONDS),
+				() -> new TokenBucketRateLimiter(1_000_000, 1, TimeUnit.SECONDS)
+		);
+
+		System.out.printf("%-22s %8s %16s %12s %10s%n", "algorithm", "threads", "ops/sec", "p99 (ns)", "accepted");
+		for(Supplier<KeyedRateLimiter> algorithm: algorithms) {
+			for(int threads: THREADS) {
+				run(algorithm.get(), threads, ips, seconds / 2 + 1);		// warmup, result dropped
+				Result result = run(algorithm.get(), threads, ips, seconds);
+				System.out.printf("%-22s %8d %,16d %12d %9.1f%%%n",
+						result.name, threads, result.opsPerSecond, result.p99Nanos, result.acceptedPercent);
+			}
+		}
+	}
+
+	static class Result {
+		String name;
+		long opsPerSecond;
+		long p99Nanos;
+		double acceptedPercent;
+	}
+
+	static Result run(KeyedRateLimiter limiter, int threads, String[] ips, long seconds) throws InterruptedException {
+		LongAdder ops = new LongAdder();
+		LongAdder accepted = new LongAdder();
+		long[][] samples = new long[threads][];
+		int[] sampleCounts = new int[threads];
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		long[] deadline = new long[1];
+
+		for(int t = 0; t < threads; t++) {
+			int id = t;
+			Thread worker = new Thread(() -> {
+				long[] mine = new long[SAMPLES_PER_THREAD];
+				int taken = 0;
+				long localOps = 0, localAccepted = 0;
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					start.await();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					done.countDown();
+					return;
+				}
+
+				while(System.nanoTime() < deadline[0]) {
+					for(int i = 0; i < SAMPLE_EVERY - 1; i++) {
+						if(limiter.RateLimit(1, ips[random.nextInt(KEYS)])) localAccepted++;
+					}
+					String ip = ips[random.nextInt(KEYS)];
+					long before = System.nanoTime();
+					if(limiter.RateLimit(1, ip)) localAccepted++;
+					long took = System.nanoTime() - before;
+					mine[taken++ & (SAMPLES_PER_THREAD - 1)] = took;		// keeps the latest samples once full
+					localOps += SAMPLE_EVERY;
+				}
+
+				ops.add(localOps);
+				accepted.add(localAccepted);
+				samples[id] = mine;
+				sampleCounts[id] = Math.min(taken, SAMPLES_PER_THREAD);
+				done.countDown();
+			});
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		long begin = System.nanoTime();
+		deadline[0] = begin + TimeUnit.SECONDS.toNanos(seconds);
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		int total = 0;
+		for(int count: sampleCounts) total += count;
+		long[] all = new long[total];
+		int at = 0;
+		for(int t = 0; t < threads; t++) {
+			System.arraycopy(samples[t], 0, all, at, sampleCounts[t]);
+			at += sampleCounts[t];
+		}
+		Arrays.sort(all);
+
+		Result result = new Result();
+		result.name = limiter.toString();
+		result.opsPerSecond = ops.sum() * 1_000_000_000L / elapsed;
+		result.p99Nanos = all.length == 0 ? 0 : all[(int) (all.length * 0.99)];
+		result.acceptedPercent = ops.sum() == 0 ? 0 : 100.0 * accepted.sum() / ops.sum();
+		return result;
+	}
+}
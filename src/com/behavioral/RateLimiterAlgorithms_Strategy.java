@@ -0,0 +1,378 @@
+/*
+ * Rate Limiting Algorithms (Strategy)
+Follow up of: Rate Limiter + Access Control (Chain + Strategy)
+
+Requirement
+RateLimitByIp / RateLimitByRegion only compare a number passed in by the caller.
+Real limiters need to remember what every key (ip, user, region) did and look at the clock.
+Provide the classic algorithms as IRateLimitingType strategies:
+Fixed window
+Sliding window log
+Sliding window counter
+Token bucket
+
+Many threads call RateLimiting.action() at the same time, so no algorithm may take a global lock.
+
+Patterns Used
+Strategy → every algorithm is an IRateLimitingType and can be swapped in RateLimitingStrategy
+Template method → KeyedRateLimiter reads the clock once and hands it to the algorithm
+
+Follow-ups
+Unbounded number of keys (botnet / scan)
+Limits across many nodes
+ */
+
+
+/*
+ * how the per key state is kept without a global lock :-
+ * - all the keys live in a ConcurrentHashMap. reads of an existing key never lock, a new key only locks its own bin.
+ * - fixed window, sliding window counter and token bucket pack their whole state into one long inside an AtomicLong.
+ *   an update is read → compute new long → compareAndSet, retried if another thread won. no thread ever blocks.
+ *   PackedStateRateLimiter runs that loop, the algorithms only say how the long changes.
+ * - sliding window log has to keep one timestamp per accepted request, which is more than one long.
+ *   it locks only the log of that one key, so two different keys never wait on each other.
+ *
+ * the "requests" argument of RateLimit() is read as the number of permits this call wants (normally 1).
+ * the old RateLimitByIp / RateLimitByRegion keep reading it as the request count the caller already counted.
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+abstract class KeyedRateLimiter implements IRateLimitingType {
+	final int limit;
+	final long windowNanos;
+	final long startNanos;
+
+	KeyedRateLimiter(int limit, long window, TimeUnit unit) {
+		if(limit <= 0) throw new IllegalArgumentException("limit must be positive");
+		if(window <= 0) throw new IllegalArgumentException("window must be positive");
+		this.limit = limit;
+		this.windowNanos = unit.toNanos(window);
+		this.startNanos = System.nanoTime();
+	}
+
+	@Override
+	public boolean RateLimit(int requests, String key) {
+		return tryAcquire(key, requests, System.nanoTime());
+	}
+
+	// the clock is passed in so that a caller checking several limiters reads it only once
+	abstract boolean tryAcquire(String key, int permits, long nowNanos);
+
+	// gives back permits taken by tryAcquire() when another limiter rejected the same request
+	abstract void refund(String key, int permits, long nowNanos);
+
+	// number of keys currently holding state
+	abstract int trackedKeys();
+
+	long windowIndex(long nowNanos) {
+		return (nowNanos - startNanos) / windowNanos;
+	}
+
+	static <V> V stateFor(ConcurrentHashMap<String, V> states, String key, Supplier<V> factory) {
+		V state = states.get(key);
+		if(state != null) return state;
+		V created = factory.get();
+		state = states.putIfAbsent(key, created);
+		return state == null ? created : state;
+	}
+}
+
+
+
+/*
+ * base of the algorithms whose whole per key state fits in one long.
+ * the algorithm is written as pure functions on that long, the base class runs them in a compareAndSet loop.
+ * because the functions do not care where the long lives, the same algorithm can also run on RateLimitKeyStore.
+ */
+abstract class PackedStateRateLimiter extends KeyedRateLimiter {
+	private final ConcurrentHashMap<String, AtomicLong> states = new ConcurrentHashMap<>();
+	private final Supplier<AtomicLong> newState = () -> new AtomicLong(initialState());
+
+	PackedStateRateLimiter(int limit, long window, TimeUnit unit) {
+		super(limit, window, unit);
+	}
+
+	// state of a key never seen before
+	abstract long initialState();
+
+	abstract boolean allows(long state, int permits, long nowNanos);
+
+	// state after permits were taken. only called when allows() returned true for the same state
+	abstract long acquire(long state, int permits, long nowNanos);
+
+	abstract long refund(long state, int permits, long nowNanos);
+
+	// how long a key must have been left alone before its state can be dropped (RateLimitKeyStore) without handing it
+	// a fresh quota early. a fixed window or a bucket forgets everything one window after the last request
+	long minIdleNanos() {
+		return windowNanos;
+	}
+
+	@Override
+	boolean tryAcquire(String key, int permits, long nowNanos) {
+		if(permits > limit) return false;
+		AtomicLong state = stateFor(states, key, newState);
+
+		while(true) {
+			long current = state.get();
+			if(!allows(current, permits, nowNanos)) return false;
+			if(state.compareAndSet(current, acquire(current, permits, nowNanos))) return true;
+		}
+	}
+
+	@Override
+	void refund(String key, int permits, long nowNanos) {
+		AtomicLong state = states.get(key);
+		if(state == null) return;
+
+		while(true) {
+			long current = state.get();
+			long refunded = refund(current, permits, nowNanos);
+			if(refunded == current || state.compareAndSet(current, refunded)) return;
+		}
+	}
+
+	@Override
+	int trackedKeys() {
+		return states.size();
+	}
+}
+
+
+
+// state = [ window index : 32 bits | count in window : 32 bits ]
+class FixedWindowRateLimiter extends PackedStateRateLimiter {
+	public FixedWindowRateLimiter(int limit, long window, TimeUnit unit) {
+		super(limit, window, unit);
+	}
+
+	private long count(long state, long window) {
+		return (state >>> 32) == window ? state & 0xFFFFFFFFL : 0;		// a new window starts from 0
+	}
+
+	@Override
+	long initialState() {
+		return 0;
+	}
+
+	@Override
+	boolean allows(long state, int permits, long nowNanos) {
+		long window = windowIndex(nowNanos) & 0xFFFFFFFFL;
+		return count(state, window) + permits <= limit;
+	}
+
+	@Override
+	long acquire(long state, int permits, long nowNanos) {
+		long window = windowIndex(nowNanos) & 0xFFFFFFFFL;
+		return (window << 32) | (count(state, window) + permits);
+	}
+
+	@Override
+	long refund(long state, int permits, long nowNanos) {
+		long window = windowIndex(nowNanos) & 0xFFFFFFFFL;
+		if((state >>> 32) != window || (state & 0xFFFFFFFFL) < permits) return state;		// window already rolled over, nothing to give back
+		return state - permits;
+	}
+
+	public String toString() {
+		return "FixedWindow";
+	}
+}
+
+
+
+// keeps the timestamp of every accepted request of the last window in a ring of size limit.
+// the slot after the newest one always holds the oldest accepted request.
+class SlidingWindowLogRateLimiter extends KeyedRateLimiter {
+	private final ConcurrentHashMap<String, Log> states = new ConcurrentHashMap<>();
+	private final Supplier<Log> newLog = () -> new Log(limit);		// kept in a field so that a lookup does not allocate a lambda
+
+	private static final class Log {
+		final long[] acceptedAt;
+		int head;		// slot of the oldest accepted request
+		int size;
+
+		Log(int limit) {
+			acceptedAt = new long[limit];
+		}
+	}
+
+	public SlidingWindowLogRateLimiter(int limit, long window, TimeUnit unit) {
+		super(limit, window, unit);
+	}
+
+	@Override
+	boolean tryAcquire(String key, int permits, long nowNanos) {
+		if(permits > limit) return false;
+		Log log = stateFor(states, key, newLog);
+		long[] ring = log.acceptedAt;
+
+		synchronized(log) {		// only this key's log, never a global lock
+			while(log.size > 0 && nowNanos - ring[log.head] >= windowNanos) {		// drop what slid out of the window
+				log.head = (log.head + 1) % ring.length;
+				log.size--;
+			}
+			if(log.size + permits > limit) return false;
+
+			for(int i = 0; i < permits; i++) {
+				ring[(log.head + log.size) % ring.length] = nowNanos;
+				log.size++;
+			}
+			return true;
+		}
+	}
+
+	@Override
+	void refund(String key, int permits, long nowNanos) {
+		Log log = states.get(key);
+		if(log == null) return;
+
+		synchronized(log) {		// forget the newest entries
+			log.size = Math.max(0, log.size - permits);
+		}
+	}
+
+	@Override
+	int trackedKeys() {
+		return states.size();
+	}
+
+	public String toString() {
+		return "SlidingWindowLog";
+	}
+}
+
+
+
+// estimate = count of current window + count of previous window * part of the previous window still inside the sliding window
+// state = [ window index : 32 bits | previous window count : 16 bits | current window count : 16 bits ]
+class SlidingWindowCounterRateLimiter extends PackedStateRateLimiter {
+	static final int MAX_LIMIT = 0xFFFF;
+
+	public SlidingWindowCounterRateLimiter(int limit, long window, TimeUnit unit) {
+		super(limit, window, unit);
+		if(limit > MAX_LIMIT) throw new IllegalArgumentException("limit must be at most " + MAX_LIMIT);
+	}
+
+	// state moved to the window of now, so that previous and current count can be read from it directly
+	private long rolled(long state, long window) {
+		long gap = (window - (state >>> 32)) & 0xFFFFFFFFL;
+		if(gap == 0) return state;
+		if(gap == 1) return (window << 32) | ((state & 0xFFFF) << 16);		// the stored current window became the previous one
+		return window << 32;
+	}
+
+	@Override
+	long initialState() {
+		return 0;
+	}
+
+	@Override
+	boolean allows(long state, int permits, long nowNanos) {
+		long elapsed = nowNanos - startNanos;
+		long windowIndex = elapsed / windowNanos;
+		long intoWindow = elapsed - windowIndex * windowNanos;
+		long current = rolled(state, windowIndex & 0xFFFFFFFFL);
+
+		long weightedPrevious = ((current >>> 16) & 0xFFFF) * (windowNanos - intoWindow) / windowNanos;
+		return weightedPrevious + (current & 0xFFFF) + permits <= limit;
+	}
+
+	@Override
+	long acquire(long state, int permits, long nowNanos) {
+		return rolled(state, windowIndex(nowNanos) & 0xFFFFFFFFL) + permits;
+	}
+
+	@Override
+	long refund(long state, int permits, long nowNanos) {
+		long window = windowIndex(nowNanos) & 0xFFFFFFFFL;
+		if((state >>> 32) != window || (state & 0xFFFF) < permits) return state;
+		return state - permits;
+	}
+
+	// the count of a window still weighs on the whole next one
+	@Override
+	long minIdleNanos() {
+		return 2 * windowNanos;
+	}
+
+	public String toString() {
+		return "SlidingWindowCounter";
+	}
+}
+
+
+
+/*
+ * token bucket written as GCRA (generic cell rate algorithm) so that the whole bucket is one long.
+ * - instead of "tokens left + last refill time" we keep tat = the time at which the bucket would be full again.
+ * - every permit pushes tat forward by interval = window / limit (the time one token takes to refill).
+ * - a request is allowed while tat stays within burst = limit * interval of now, i.e. while tokens are left.
+ * this behaves exactly like a bucket of size limit refilled with limit tokens per window.
+ */
+class TokenBucketRateLimiter extends PackedStateRateLimiter {
+	private final long intervalNanos;
+	private final long burstNanos;
+
+	public TokenBucketRateLimiter(int capacity, long refillWindow, TimeUnit unit) {
+		super(capacity, refillWindow, unit);
+		this.intervalNanos = Math.max(1, windowNanos / capacity);
+		this.burstNanos = intervalNanos * capacity;
+	}
+
+	@Override
+	long initialState() {
+		return Long.MIN_VALUE;
+	}
+
+	@Override
+	boolean allows(long tat, int permits, long nowNanos) {
+		long now = nowNanos - startNanos;
+		return Math.max(tat, now) + permits * intervalNanos - now <= burstNanos;
+	}
+
+	@Override
+	long acquire(long tat, int permits, long nowNanos) {
+		return Math.max(tat, nowNanos - startNanos) + permits * intervalNanos;
+	}
+
+	@Override
+	long refund(long tat, int permits, long nowNanos) {
+		return tat - permits * intervalNanos;		// moving tat back is the same as putting tokens back in the bucket
+	}
+
+	public String toString() {
+		return "TokenBucket";
+	}
+}
+
+
+
+public class RateLimiterAlgorithms_Strategy {
+	public static void main(String[] args) {
+		KeyedRateLimiter[] limiters = {
+				new FixedWindowRateLimiter(3, 1, TimeUnit.SECONDS),
+				new SlidingWindowLogRateLimiter(3, 1, TimeUnit.SECONDS),
+				new SlidingWindowCounterRateLimiter(3, 1, TimeUnit.SECONDS),
+				new TokenBucketRateLimiter(3, 1, TimeUnit.SECONDS)
+		};
+
+		for(KeyedRateLimiter limiter: limiters) {
+			RateLimitingStrategy strategy = new RateLimitingStrategy();
+			strategy.setRateLimitingType(limiter);
+
+			StringBuilder result = new StringBuilder(limiter + " → ");
+			for(int i = 1; i <= 5; i++) {
+				result.append(strategy.executeRateLimiting(1, "123.45.67.89") ? "allowed " : "blocked ");
+			}
+			result.append("| other ip ").append(strategy.executeRateLimiting(1, "98.76.54.32") ? "allowed" : "blocked");
+			System.out.println(result);
+		}
+	}
+}
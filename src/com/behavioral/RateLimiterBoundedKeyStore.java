@@ -0,0 +1,353 @@
+/*
+ * Memory Bounded Key Store for rate limiters
+Follow up of: Rate Limiting Algorithms (Strategy)
+
+Requirement
+A stateful limiter keeps one entry for every ip / user it has ever seen.
+Under a scan or a botnet that is millions of keys that never go away and the heap grows without a bound.
+Keep the per key state in a store with
+a maximum number of keys
+eviction of keys that were idle for longer than a ttl
+a few dozen bytes per key instead of a String + map entry + AtomicLong
+metrics for its footprint and for how often it evicts
+
+Patterns Used
+Strategy → the store runs any PackedStateRateLimiter algorithm, the algorithm never knows where its long lives
+Decorator → BoundedRateLimiter is still an IRateLimitingType and can be put in RateLimitingStrategy
+ */
+
+
+/*
+ * layout :-
+ * - a key is never stored, only a 64 bit hash of it. two keys colliding on 64 bits would share one limit,
+ *   which for a few million keys is a chance of about 1 in 10^6 and accepted here.
+ * - the table is split into segments, each one an open addressing (linear probing) table of three long[] :
+ *   hash | packed limiter state | last access time  →  24 bytes per slot, ~32 bytes per key at 75% load.
+ * - each segment has its own lock, so only keys hashing to the same segment ever wait on each other.
+ *
+ * eviction :-
+ * - idle : when a segment is full it first sweeps out every key idle for longer than the ttl (at most once per ttl / 4).
+ * - size : if it is still full, the least recently used of a few sampled keys is dropped.
+ * - deletes use backward shift, so there are no tombstones and lookups never get slower over time.
+ * - a key that gets evicted comes back with a fresh quota. that is why the ttl may not be shorter than the time the algorithm
+ *   still remembers a key for (minIdleNanos) : one window, two for the sliding window counter, whose previous window still counts.
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+class RateLimitKeyStore {
+	static final int SAMPLED_FOR_EVICTION = 8;
+	private static final int MAX_SEGMENTS = 64;
+
+	private final Segment[] segments;
+	private final int segmentShift;
+	private final int maxKeys;
+	private final long idleNanos;
+
+	private final LongAdder inserted = new LongAdder();
+	private final LongAdder evictedIdle = new LongAdder();
+	private final LongAdder evictedSize = new LongAdder();
+
+	private static final class Segment {
+		final long[] hashes;		// 0 = empty slot
+		final long[] states;
+		final long[] lastAccess;
+		final int mask;
+		final int maxKeys;
+		int size;
+		long lastSweep;
+
+		Segment(int maxKeys, long now) {
+			int capacity = Integer.highestOneBit(Math.max(2, maxKeys * 4 / 3) - 1) << 1;		// power of two, load <= 75%
+			this.hashes = new long[capacity];
+			this.states = new long[capacity];
+			this.lastAccess = new long[capacity];
+			this.mask = capacity - 1;
+			this.maxKeys = maxKeys;
+			this.lastSweep = now;
+		}
+
+		int find(long hash) {
+			for(int i = (int) hash & mask; ; i = (i + 1) & mask) {
+				long h = hashes[i];
+				if(h == hash) return i;
+				if(h == 0) return -1;
+			}
+		}
+
+		int insert(long hash, long state, long now) {
+			int i = (int) hash & mask;
+			while(hashes[i] != 0) i = (i + 1) & mask;
+			hashes[i] = hash;
+			states[i] = state;
+			lastAccess[i] = now;
+			size++;
+			return i;
+		}
+
+		// backward shift delete : pulls later entries of the probe run into the hole so no tombstone is needed
+		void delete(int hole) {
+			hashes[hole] = 0;
+			size--;
+			for(int j = (hole + 1) & mask; hashes[j] != 0; j = (j + 1) & mask) {
+				int home = (int) hashes[j] & mask;
+				boolean canMove = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+				if(canMove) {
+					hashes[hole] = hashes[j];
+					states[hole] = states[j];
+					lastAccess[hole] = lastAccess[j];
+					hashes[j] = 0;
+					hole = j;
+				}
+			}
+		}
+
+		int sweep(long now, long idleNanos) {
+			int removed = 0;
+			for(int i = 0; i < hashes.length; ) {
+				if(hashes[i] != 0 && now - lastAccess[i] > idleNanos) {
+					delete(i);		// a later entry may have been shifted into i, so look at i again
+					removed++;
+				}
+				else {
+					i++;
+				}
+			}
+			lastSweep = now;
+			return removed;
+		}
+
+		void evictLeastRecentlyUsedOfSample() {
+			int victim = -1;
+			int seen = 0;
+			for(int i = ThreadLocalRandom.current().nextInt(hashes.length); seen < SAMPLED_FOR_EVICTION; i = (i + 1) & mask) {
+				if(hashes[i] == 0) continue;
+				if(victim == -1 || lastAccess[i] < lastAccess[victim]) victim = i;
+				seen++;
+			}
+			delete(victim);
+		}
+
+		long footprintBytes() {
+			return 3L * (16 + 8L * hashes.length) + 48;		// three arrays with their headers + this object
+		}
+	}
+
+	public RateLimitKeyStore(int maxKeys, long idleTime, TimeUnit unit) {
+		if(maxKeys <= 0) throw new IllegalArgumentException("maxKeys must be positive");
+		if(idleTime <= 0) throw new IllegalArgumentException("idle time must be positive");
+
+		int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxKeys / (SAMPLED_FOR_EVICTION * 4))));
+		int perSegment = Math.max(SAMPLED_FOR_EVICTION, (maxKeys + segmentCount - 1) / segmentCount);
+		long now = System.nanoTime();
+
+		this.segments = new Segment[segmentCount];
+		for(int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(perSegment, now);
+		}
+		this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+		this.maxKeys = perSegment * segmentCount;
+		this.idleNanos = unit.toNanos(idleTime);
+	}
+
+	long idleNanos() {
+		return idleNanos;
+	}
+
+	boolean tryAcquire(String key, int permits, long nowNanos, PackedStateRateLimiter algorithm) {
+		long hash = hash(key);
+		Segment segment = segmentFor(hash);
+
+		synchronized(segment) {
+			int slot = segment.find(hash);
+			if(slot < 0) slot = insert(segment, hash, algorithm.initialState(), nowNanos);
+
+			long state = segment.states[slot];
+			segment.lastAccess[slot] = nowNanos;
+			if(!algorithm.allows(state, permits, nowNanos)) return false;
+			segment.states[slot] = algorithm.acquire(state, permits, nowNanos);
+			return true;
+		}
+	}
+
+	void refund(String key, int permits, long nowNanos, PackedStateRateLimiter algorithm) {
+		long hash = hash(key);
+		Segment segment = segmentFor(hash);
+
+		synchronized(segment) {
+			int slot = segment.find(hash);
+			if(slot >= 0) segment.states[slot] = algorithm.refund(segment.states[slot], permits, nowNanos);
+		}
+	}
+
+	// can be called from a housekeeping thread so that idle keys do not wait for their segment to fill up
+	public int evictIdle() {
+		long now = System.nanoTime();
+		int removed = 0;
+		for(Segment segment: segments) {
+			synchronized(segment) {
+				removed += segment.sweep(now, idleNanos);
+			}
+		}
+		evictedIdle.add(removed);
+		return removed;
+	}
+
+	public int size() {
+		int size = 0;
+		for(Segment segment: segments) {
+			synchronized(segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	public RateLimitKeyStoreMetrics metrics() {
+		long footprint = 0;
+		for(Segment segment: segments) footprint += segment.footprintBytes();		// array lengths never change
+		return new RateLimitKeyStoreMetrics(System.nanoTime(), size(), maxKeys, footprint,
+				inserted.sum(), evictedIdle.sum(), evictedSize.sum());
+	}
+
+	private int insert(Segment segment, long hash, long initialState, long now) {
+		if(segment.size >= segment.maxKeys && now - segment.lastSweep > idleNanos / 4) {
+			evictedIdle.add(segment.sweep(now, idleNanos));
+		}
+		if(segment.size >= segment.maxKeys) {
+			segment.evictLeastRecentlyUsedOfSample();
+			evictedSize.increment();
+		}
+		inserted.increment();
+		return segment.insert(hash, initialState, now);
+	}
+
+	private Segment segmentFor(long hash) {
+		return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+	}
+
+	// 64 bit FNV-1a over the chars, then the murmur3 finalizer to spread the bits used for segment and slot
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;		// 0 marks an empty slot
+	}
+}
+
+class RateLimitKeyStoreMetrics {
+	final long takenAtNanos;
+	final int trackedKeys;
+	final int maxKeys;
+	final long footprintBytes;
+	final long inserted;
+	final long evictedIdle;
+	final long evictedSize;
+
+	RateLimitKeyStoreMetrics(long takenAtNanos, int trackedKeys, int maxKeys, long footprintBytes,
+			long inserted, long evictedIdle, long evictedSize) {
+		this.takenAtNanos = takenAtNanos;
+		this.trackedKeys = trackedKeys;
+		this.maxKeys = maxKeys;
+		this.footprintBytes = footprintBytes;
+		this.inserted = inserted;
+		this.evictedIdle = evictedIdle;
+		this.evictedSize = evictedSize;
+	}
+
+	// the store is allocated up front, so this is what one key costs when the store is full
+	public double bytesPerKeyAtCapacity() {
+		return (double) footprintBytes / maxKeys;
+	}
+
+	public double evictionsPerSecondSince(RateLimitKeyStoreMetrics previous) {
+		long evicted = evictedIdle + evictedSize - previous.evictedIdle - previous.evictedSize;
+		long elapsed = takenAtNanos - previous.takenAtNanos;
+		return elapsed <= 0 ? 0 : evicted * 1_000_000_000.0 / elapsed;
+	}
+
+	public String toString() {
+		return String.format("keys=%d/%d footprint=%,d bytes (%.1f bytes/key) inserted=%d evicted idle=%d size=%d",
+				trackedKeys, maxKeys, footprintBytes, bytesPerKeyAtCapacity(), inserted, evictedIdle, evictedSize);
+	}
+}
+
+class BoundedRateLimiter extends KeyedRateLimiter {
+	private final PackedStateRateLimiter algorithm;
+	private final RateLimitKeyStore store;
+
+	public BoundedRateLimiter(PackedStateRateLimiter algorithm, int maxKeys, long idleTime, TimeUnit unit) {
+		super(algorithm.limit, algorithm.windowNanos, TimeUnit.NANOSECONDS);
+		if(unit.toNanos(idleTime) < algorithm.minIdleNanos()) {
+			throw new IllegalArgumentException("idle time must be at least " + TimeUnit.NANOSECONDS.toMillis(algorithm.minIdleNanos())
+					+ " ms for " + algorithm + ", a shorter one would hand evicted keys a fresh quota early");
+		}
+		this.algorithm = algorithm;
+		this.store = new RateLimitKeyStore(maxKeys, idleTime, unit);
+	}
+
+	@Override
+	boolean tryAcquire(String key, int permits, long nowNanos) {
+		if(permits > limit) return false;
+		return store.tryAcquire(key, permits, nowNanos, algorithm);
+	}
+
+	@Override
+	void refund(String key, int permits, long nowNanos) {
+		store.refund(key, permits, nowNanos, algorithm);
+	}
+
+	@Override
+	int trackedKeys() {
+		return store.size();
+	}
+
+	public RateLimitKeyStore getStore() {
+		return store;
+	}
+
+	public String toString() {
+		return "Bounded" + algorithm;
+	}
+}
+
+
+
+public class RateLimiterBoundedKeyStore {
+	public static void main(String[] args) throws InterruptedException {
+		BoundedRateLimiter limiter = new BoundedRateLimiter(
+				new TokenBucketRateLimiter(5, 100, TimeUnit.MILLISECONDS), 10_000, 200, TimeUnit.MILLISECONDS);
+
+		RateLimitingStrategy strategy = new RateLimitingStrategy();
+		strategy.setRateLimitingType(limiter);
+
+		StringBuilder result = new StringBuilder("same ip → ");
+		for(int i = 1; i <= 7; i++) {
+			result.append(strategy.executeRateLimiting(1, "123.45.67.89") ? "allowed " : "blocked ");
+		}
+		System.out.println(result);
+
+		RateLimitKeyStoreMetrics before = limiter.getStore().metrics();
+		for(int i = 0; i < 100_000; i++) {		// a scan from 100k different ips
+			strategy.executeRateLimiting(1, "10." + (i >> 16) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF));
+		}
+		RateLimitKeyStoreMetrics afterScan = limiter.getStore().metrics();
+		System.out.println("after scan   : " + afterScan);
+		System.out.printf("eviction rate: %,.0f keys/sec%n", afterScan.evictionsPerSecondSince(before));
+
+		Thread.sleep(250);
+		limiter.getStore().evictIdle();
+		System.out.println("after idle   : " + limiter.getStore().metrics());
+	}
+}
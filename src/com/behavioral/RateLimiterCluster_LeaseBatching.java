@@ -0,0 +1,256 @@
+/*
+ * Cluster Rate Limiter (Strategy + lease batching)
+Follow up of: Rate Limiting Algorithms (Strategy)
+
+Requirement
+The gateway runs on many nodes but a limit like "1000 requests / sec per user" is for the whole cluster.
+Asking a shared store (redis, a quota service ...) on every request puts the store on the hot path of every request.
+Instead every node leases tokens from the shared store in batches and serves requests from its local lease.
+The store should see one call per batch, not one per request.
+The store is behind an interface so that tests can use an in memory one.
+
+Patterns Used
+Strategy → ClusterRateLimiter is one more IRateLimitingType, QuotaStore hides where the cluster quota lives
+Proxy → the local lease stands in for the shared store for most requests
+
+Follow-ups
+Accuracy vs throughput of the batch size (see main)
+ */
+
+
+/*
+ * how it works :-
+ * - time is cut into windows that all nodes agree on (wall clock based, not nanoTime which differs per jvm).
+ * - a node holds per key a lease = [ window : 32 bits | tokens left : 32 bits ] in one AtomicLong and takes tokens with compareAndSet.
+ *   only the lease word keeps the low 32 bits of the window, it is compared for equality there, so a wrap of those bits is harmless.
+ *   the store gets the whole 64 bit window and orders windows by it : with a 1 ms window the low 32 bits wrap every ~49.7 days,
+ *   at the same wall time on every node, and a truncated window would look older than the one the store holds.
+ * - when the lease is empty, one thread of that node (per key lock) asks the store for another batch. the other threads
+ *   of the same key wait for that one call instead of all calling the store (single flight).
+ * - tokens of a lease are only valid inside their window. leftovers are dropped when the window changes,
+ *   so the cluster never admits more than the limit.
+ * - once the store answers 0 the lease is marked exhausted for that window, so a node over its limit rejects locally
+ *   instead of calling the store on every rejected request.
+ *
+ * accuracy vs throughput :-
+ * - bigger batch → fewer store calls, but up to (nodes * batch) tokens can sit unused on nodes that got them
+ *   when the window ends, so the cluster admits less than the limit.
+ * - batch 1 is exact but is a store call per request again.
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+interface QuotaStore {
+	// grants up to requested tokens of the key for that window. 0 once the cluster quota of the window is used up
+	long lease(String key, long window, long requested);
+}
+
+// stand in for the shared store. one instance shared by all the ClusterRateLimiter "nodes" of a test
+class InMemoryQuotaStore implements QuotaStore {
+	private final long limitPerWindow;
+	private final ConcurrentHashMap<String, long[]> used = new ConcurrentHashMap<>();		// key → [ window, tokens leased ]
+	private final LongAdder calls = new LongAdder();
+
+	public InMemoryQuotaStore(long limitPerWindow) {
+		this.limitPerWindow = limitPerWindow;
+	}
+
+	@Override
+	public long lease(String key, long window, long requested) {
+		calls.increment();
+		long[] quota = used.computeIfAbsent(key, k -> new long[] {window, 0});
+
+		synchronized(quota) {
+			if(window < quota[0]) return 0;		// a node whose clock lags asks for a window that is already over
+			if(window > quota[0]) {
+				quota[0] = window;
+				quota[1] = 0;
+			}
+			long granted = Math.min(requested, limitPerWindow - quota[1]);
+			quota[1] += granted;
+			return granted;
+		}
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+}
+
+class ClusterRateLimiter extends KeyedRateLimiter {
+	private final QuotaStore store;
+	private final int batchSize;
+	private final long wallClockOffsetNanos;		// nanoTime + offset = nanos since epoch, so windows line up across nodes
+	private final ConcurrentHashMap<String, AtomicLong> leases = new ConcurrentHashMap<>();
+	private final Supplier<AtomicLong> newLease = AtomicLong::new;
+	private static final long EXHAUSTED = 1L << 31;		// flag in the tokens part of a lease
+
+	public ClusterRateLimiter(QuotaStore store, int batchSize, int limit, long window, TimeUnit unit) {
+		this(store, batchSize, limit, window, unit, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime());
+	}
+
+	// wallClockOffsetNanos given : a node whose clock is somewhere else, the demo uses it to cross the 32 bit wrap of the window
+	ClusterRateLimiter(QuotaStore store, int batchSize, int limit, long window, TimeUnit unit, long wallClockOffsetNanos) {
+		super(limit, window, unit);
+		if(batchSize <= 0) throw new IllegalArgumentException("batchSize must be positive");
+		this.store = store;
+		this.batchSize = batchSize;
+		this.wallClockOffsetNanos = wallClockOffsetNanos;
+	}
+
+	// the whole window number, for the store
+	long clusterWindow(long nowNanos) {
+		return (nowNanos + wallClockOffsetNanos) / windowNanos;
+	}
+
+	// the part of it the lease word keeps
+	private static long tag(long window) {
+		return window & 0xFFFFFFFFL;
+	}
+
+	@Override
+	boolean tryAcquire(String key, int permits, long nowNanos) {
+		if(permits > limit) return false;
+		AtomicLong lease = stateFor(leases, key, newLease);
+		long clusterWindow = clusterWindow(nowNanos), window = tag(clusterWindow);
+
+		if(takeFromLease(lease, window, permits)) return true;
+		if(isExhausted(lease.get(), window)) return false;
+
+		synchronized(lease) {		// one store call per node and key at a time, the others wait for its result
+			if(takeFromLease(lease, window, permits)) return true;		// someone else refilled while we waited
+			if(isExhausted(lease.get(), window)) return false;
+
+			long granted = store.lease(key, clusterWindow, Math.max(batchSize, permits));
+			addToLease(lease, window, granted);
+			if(granted == 0) return false;
+			return takeFromLease(lease, window, permits);
+		}
+	}
+
+	// window : the tag of it, as in the lease word
+	private boolean isExhausted(long lease, long window) {
+		return (lease >>> 32) == window && (lease & EXHAUSTED) != 0;
+	}
+
+	private boolean takeFromLease(AtomicLong lease, long window, int permits) {
+		while(true) {
+			long current = lease.get();
+			if((current >>> 32) != window || (current & (EXHAUSTED - 1)) < permits) return false;
+			if(lease.compareAndSet(current, current - permits)) return true;
+		}
+	}
+
+	// CAS as well, other threads keep taking from the lease while the batch is added. 0 tokens marks the window exhausted
+	private void addToLease(AtomicLong lease, long window, long tokens) {
+		while(true) {
+			long current = lease.get();
+			long left = (current >>> 32) == window ? current & (EXHAUSTED - 1) : 0;		// leftovers of an older window are dropped
+			long next = (window << 32) | (left + tokens) | (tokens == 0 ? EXHAUSTED : 0);
+			if(lease.compareAndSet(current, next)) return;
+		}
+	}
+
+	@Override
+	void refund(String key, int permits, long nowNanos) {
+		AtomicLong lease = leases.get(key);
+		if(lease == null) return;
+		long window = tag(clusterWindow(nowNanos));
+
+		while(true) {		// back into the local lease, the store is never called for a refund
+			long current = lease.get();
+			if((current >>> 32) != window) return;
+			if(lease.compareAndSet(current, current + permits)) return;
+		}
+	}
+
+	@Override
+	int trackedKeys() {
+		return leases.size();
+	}
+
+	public String toString() {
+		return "Cluster(batch " + batchSize + ")";
+	}
+}
+
+
+
+public class RateLimiterCluster_LeaseBatching {
+	static final int NODES = 8;
+	static final int LIMIT_PER_WINDOW = 20_000;
+	static final long WINDOW_MILLIS = 100;
+	static final long RUN_MILLIS = 2_000;
+	static final long LIGHT_PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+	/*
+	 * every node is one ClusterRateLimiter with its own thread, all asking for the same user.
+	 * half of the nodes are hot and ask as fast as they can, the other half only send a request every LIGHT_PAUSE.
+	 * the light nodes still lease a whole batch, and what they do not use by the end of the window is lost.
+	 * admitted/limit = admitted requests / (limit * windows the run touched). the hot nodes alone could use all of it.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		System.out.printf("%d nodes (%d hot, %d light), cluster limit %,d per %d ms, run %d ms%n", NODES, NODES / 2, NODES / 2, LIMIT_PER_WINDOW, WINDOW_MILLIS, RUN_MILLIS);
+		System.out.printf("%8s %14s %14s %16s %18s%n", "batch", "admitted/limit", "store calls", "requests/call", "checks/sec");
+
+		for(int batch: new int[] {1, 10, 100, 1_000}) {
+			InMemoryQuotaStore store = new InMemoryQuotaStore(LIMIT_PER_WINDOW);
+			LongAdder admitted = new LongAdder();
+			LongAdder checks = new LongAdder();
+			CountDownLatch done = new CountDownLatch(NODES);
+			long firstWindow = System.currentTimeMillis() / WINDOW_MILLIS;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+
+			for(int n = 0; n < NODES; n++) {
+				ClusterRateLimiter node = new ClusterRateLimiter(store, batch, LIMIT_PER_WINDOW, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+				boolean light = n >= NODES / 2;
+				Thread thread = new Thread(() -> {
+					long localAdmitted = 0, localChecks = 0;
+					while(System.nanoTime() < deadline) {
+						if(node.RateLimit(1, "user-42")) localAdmitted++;
+						localChecks++;
+						if(light) LockSupport.parkNanos(LIGHT_PAUSE_NANOS);
+					}
+					admitted.add(localAdmitted);
+					checks.add(localChecks);
+					done.countDown();
+				});
+				thread.setDaemon(true);
+				thread.start();
+			}
+			done.await();
+
+			long windows = System.currentTimeMillis() / WINDOW_MILLIS - firstWindow + 1;		// every window the run touched, even partly
+			System.out.printf("%8d %13.1f%% %,14d %,16.1f %,18d%n",
+					batch,
+					100.0 * admitted.sum() / (LIMIT_PER_WINDOW * windows),
+					store.getCalls(),
+					(double) admitted.sum() / Math.max(1, store.getCalls()),
+					checks.sum() * 1000 / RUN_MILLIS);
+		}
+
+		crossTheWrap();
+	}
+
+	// a node whose clock sits 2 windows of 1 ms before the low 32 bits of the window wrap : the key must still be served after it
+	private static void crossTheWrap() {
+		long windowNanos = TimeUnit.MILLISECONDS.toNanos(1), now = System.nanoTime();
+		long offset = ((1L << 32) * 400 - 2) * windowNanos - now;		// 400 wraps after the epoch, about where the wall clock is
+		InMemoryQuotaStore store = new InMemoryQuotaStore(10);
+		ClusterRateLimiter node = new ClusterRateLimiter(store, 5, 10, 1, TimeUnit.MILLISECONDS, offset);
+
+		boolean before = node.tryAcquire("user-42", 1, now);
+		boolean after = node.tryAcquire("user-42", 1, now + 3 * windowNanos);
+		if(!before || !after) throw new IllegalStateException("window wrap : admitted before " + before + ", after " + after);
+		System.out.println("window " + node.clusterWindow(now) + " → " + node.clusterWindow(now + 3 * windowNanos)
+				+ " crosses the 32 bit wrap, still admitted on both sides");
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Multi Dimension Rate Limiter (Composite + Strategy)
+Answer to the interview twist of: Rate Limiter + Access Control (Chain + Strategy)
+“Tomorrow we want per-user + per-IP rate limits — how do you extend?”
+
+Requirement
+Every request must pass a user limit, an ip limit and a region limit.
+Doing it as three chain hops means three clock reads and three lookups of the same request.
+Check every dimension of one request together with a single clock read.
+The result must say which dimension rejected the request.
+Accepting a request must not allocate anything.
+
+Patterns Used
+Composite → one limiter made of one KeyedRateLimiter per dimension
+Strategy → each dimension can use a different algorithm (token bucket for users, fixed window for ips ...)
+Flyweight → the decisions are shared constants, nothing is created per request
+ */
+
+
+/*
+ * - the clock is read once in check() and handed to every tryAcquire().
+ * - dimensions are checked in the order they were added. put the one most likely to reject first.
+ * - if a later dimension rejects, the permits already taken from the earlier dimensions are refunded,
+ *   so a request blocked by its ip limit does not eat the user's quota.
+ * - RateLimitRequestKeys is a plain holder the gateway fills once per request (it can be reused), so no key is parsed twice.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+enum RateLimitDimension {
+	USER, IP, REGION
+}
+
+class RateLimitRequestKeys {
+	String user;
+	String ip;
+	String region;
+
+	public RateLimitRequestKeys set(String user, String ip, String region) {
+		this.user = user;
+		this.ip = ip;
+		this.region = region;
+		return this;
+	}
+
+	String keyFor(RateLimitDimension dimension) {
+		switch(dimension) {
+			case USER: return user;
+			case IP: return ip;
+			default: return region;
+		}
+	}
+}
+
+final class RateLimitDecision {
+	static final RateLimitDecision ACCEPTED = new RateLimitDecision(null);
+	private static final RateLimitDecision[] REJECTED = new RateLimitDecision[RateLimitDimension.values().length];
+
+	static {
+		for(RateLimitDimension dimension: RateLimitDimension.values()) {
+			REJECTED[dimension.ordinal()] = new RateLimitDecision(dimension);
+		}
+	}
+
+	private final RateLimitDimension rejectedBy;
+
+	private RateLimitDecision(RateLimitDimension rejectedBy) {
+		this.rejectedBy = rejectedBy;
+	}
+
+	static RateLimitDecision rejectedBy(RateLimitDimension dimension) {
+		return REJECTED[dimension.ordinal()];
+	}
+
+	public boolean isAccepted() {
+		return rejectedBy == null;
+	}
+
+	// null when the request was accepted
+	public RateLimitDimension getRejectedBy() {
+		return rejectedBy;
+	}
+
+	public String toString() {
+		return isAccepted() ? "accepted" : "rejected by " + rejectedBy + " limit";
+	}
+}
+
+class MultiDimensionRateLimiter {
+	private final RateLimitDimension[] dimensions;
+	private final KeyedRateLimiter[] limiters;
+
+	private MultiDimensionRateLimiter(List<RateLimitDimension> dimensions, List<KeyedRateLimiter> limiters) {
+		this.dimensions = dimensions.toArray(new RateLimitDimension[0]);
+		this.limiters = limiters.toArray(new KeyedRateLimiter[0]);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public RateLimitDecision check(RateLimitRequestKeys keys) {
+		return check(keys, 1);
+	}
+
+	public RateLimitDecision check(RateLimitRequestKeys keys, int permits) {
+		long now = System.nanoTime();		// one clock read for every dimension
+
+		for(int i = 0; i < limiters.length; i++) {
+			String key = keys.keyFor(dimensions[i]);
+			if(key == null) continue;		// dimension not known for this request
+
+			if(!limiters[i].tryAcquire(key, permits, now)) {
+				for(int j = i - 1; j >= 0; j--) {
+					String taken = keys.keyFor(dimensions[j]);
+					if(taken != null) limiters[j].refund(taken, permits, now);
+				}
+				return RateLimitDecision.rejectedBy(dimensions[i]);
+			}
+		}
+		return RateLimitDecision.ACCEPTED;
+	}
+
+	static class Builder {
+		private final List<RateLimitDimension> dimensions = new ArrayList<>();
+		private final List<KeyedRateLimiter> limiters = new ArrayList<>();
+
+		public Builder limit(RateLimitDimension dimension, KeyedRateLimiter limiter) {
+			if(dimensions.contains(dimension)) throw new IllegalArgumentException(dimension + " is already limited");
+			dimensions.add(dimension);
+			limiters.add(limiter);
+			return this;
+		}
+
+		public MultiDimensionRateLimiter build() {
+			if(limiters.isEmpty()) throw new IllegalStateException("at least one dimension must be limited");
+			return new MultiDimensionRateLimiter(dimensions, limiters);
+		}
+	}
+}
+
+
+
+public class RateLimiterMultiDimension_Composite {
+	public static void main(String[] args) {
+		MultiDimensionRateLimiter limiter = MultiDimensionRateLimiter.builder()
+				.limit(RateLimitDimension.IP, new FixedWindowRateLimiter(3, 1, TimeUnit.SECONDS))
+				.limit(RateLimitDimension.USER, new TokenBucketRateLimiter(5, 1, TimeUnit.SECONDS))
+				.limit(RateLimitDimension.REGION, new SlidingWindowCounterRateLimiter(100, 1, TimeUnit.SECONDS))
+				.build();
+
+		RateLimitRequestKeys keys = new RateLimitRequestKeys();
+
+		for(int i = 1; i <= 4; i++) {
+			System.out.println("alice from 123.45.67.89 → " + limiter.check(keys.set("alice", "123.45.67.89", "India")));
+		}
+		for(int i = 1; i <= 3; i++) {
+			System.out.println("alice from 98.76.54.32 → " + limiter.check(keys.set("alice", "98.76.54.32", "India")));
+		}
+	}
+}
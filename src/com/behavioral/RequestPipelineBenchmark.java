@@ -0,0 +1,170 @@
+/*
+ * Benchmark for CompiledApiPipeline in RequestPipeline_CompiledChain
+ *
+ * - 10 handlers of 4 different classes, so the call site in the pipeline loop is megamorphic like in real life.
+ * - every handler does a tiny bit of real work (reads the context, adds to its own counter).
+ * - inline     : the same 10 pieces of work called directly one after the other, the cost of the handlers alone.
+ * - compiled   : CompiledApiPipeline.execute()
+ * - recursive  : the old style, every step calls nextStep itself
+ * - overhead of the pipeline = compiled - inline.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with warmup + measured rounds.
+ * run it with: java -cp bin com.behavioral.RequestPipelineBenchmark
+ */
+
+package com.behavioral;
+
+import java.util.Arrays;
+
+public class RequestPipelineBenchmark {
+	static final int HANDLERS = 10;
+	static final int OPS_PER_ROUND = 20_000_000;
+	static final int ROUNDS = 7;
+
+	static volatile long sink;
+
+	static abstract class CountingHandler implements ApiRequestHandler {
+		long seen;
+	}
+
+	static class CredentialHandler extends CountingHandler {
+		public boolean handle(ApiRequestContext context) {
+			seen += context.credential.length();
+			return true;
+		}
+	}
+
+	static class ResourceHandler extends CountingHandler {
+		public boolean handle(ApiRequestContext context) {
+			seen += context.resource.length();
+			return true;
+		}
+	}
+
+	static class IpHandler extends CountingHandler {
+		public boolean handle(ApiRequestContext context) {
+			seen += context.keys.ip.length();
+			return true;
+		}
+	}
+
+	static class UserHandler extends CountingHandler {
+		public boolean handle(ApiRequestContext context) {
+			seen += context.keys.user.length();
+			return true;
+		}
+	}
+
+	// the old ProcessApiRequest style, with a context so that it does the same work
+	static abstract class RecursiveStep {
+		RecursiveStep nextStep;
+		final CountingHandler work;
+
+		RecursiveStep(CountingHandler work) {
+			this.work = work;
+		}
+
+		abstract boolean action(ApiRequestContext context);
+	}
+
+	static class WorkStep extends RecursiveStep {
+		WorkStep(CountingHandler work) {
+			super(work);
+		}
+
+		boolean action(ApiRequestContext context) {
+			if(!work.handle(context)) return false;
+			if(nextStep != null) return nextStep.action(context);
+			return true;
+		}
+	}
+
+	public static void main(String[] args) {
+		CountingHandler[] handlers = new CountingHandler[HANDLERS];
+		for(int i = 0; i < HANDLERS; i++) {
+			switch(i % 4) {
+				case 0: handlers[i] = new CredentialHandler(); break;
+				case 1: handlers[i] = new ResourceHandler(); break;
+				case 2: handlers[i] = new IpHandler(); break;
+				default: handlers[i] = new UserHandler();
+			}
+		}
+
+		CompiledApiPipeline.Builder builder = CompiledApiPipeline.builder();
+		for(CountingHandler handler: handlers) builder.then(handler);
+		CompiledApiPipeline pipeline = builder.build();
+
+		RecursiveStep first = null;
+		for(int i = HANDLERS - 1; i >= 0; i--) {
+			RecursiveStep step = new WorkStep(handlers[i]);
+			step.nextStep = first;
+			first = step;
+		}
+
+		ApiRequestContext context = new ApiRequestContext().reset("alice", "123.45.67.89", "India", "token-1", "/orders");
+
+		double[] inline = new double[ROUNDS], compiled = new double[ROUNDS], recursive = new double[ROUNDS];
+		for(int round = -2; round < ROUNDS; round++) {		// the first two rounds are warmup
+			double a = runInline(handlers, context), b = runCompiled(pipeline, context), c = runRecursive(first, context);
+			if(round >= 0) {
+				inline[round] = a;
+				compiled[round] = b;
+				recursive[round] = c;
+			}
+		}
+
+		double inlineNs = median(inline), compiledNs = median(compiled), recursiveNs = median(recursive);
+		System.out.printf("%d handlers, median of %d rounds of %,d requests%n", HANDLERS, ROUNDS, OPS_PER_ROUND);
+		System.out.printf("inline handlers      %6.2f ns/request%n", inlineNs);
+		System.out.printf("compiled pipeline    %6.2f ns/request (+%.2f ns)%n", compiledNs, compiledNs - inlineNs);
+		System.out.printf("recursive chain      %6.2f ns/request (+%.2f ns)%n", recursiveNs, recursiveNs - inlineNs);
+
+		long total = 0;
+		for(CountingHandler handler: handlers) total += handler.seen;
+		sink = total;
+	}
+
+	static double runInline(CountingHandler[] handlers, ApiRequestContext context) {
+		CountingHandler h0 = handlers[0], h1 = handlers[1], h2 = handlers[2], h3 = handlers[3], h4 = handlers[4],
+				h5 = handlers[5], h6 = handlers[6], h7 = handlers[7], h8 = handlers[8], h9 = handlers[9];
+		long passed = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < OPS_PER_ROUND; i++) {
+			if(h0.handle(context) && h1.handle(context) && h2.handle(context) && h3.handle(context) && h4.handle(context)
+					&& h5.handle(context) && h6.handle(context) && h7.handle(context) && h8.handle(context) && h9.handle(context)) {
+				passed++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		sink = passed;
+		return (double) elapsed / OPS_PER_ROUND;
+	}
+
+	static double runCompiled(CompiledApiPipeline pipeline, ApiRequestContext context) {
+		long passed = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < OPS_PER_ROUND; i++) {
+			if(pipeline.execute(context)) passed++;
+		}
+		long elapsed = System.nanoTime() - start;
+		sink = passed;
+		return (double) elapsed / OPS_PER_ROUND;
+	}
+
+	static double runRecursive(RecursiveStep first, ApiRequestContext context) {
+		long passed = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < OPS_PER_ROUND; i++) {
+			if(first.action(context)) passed++;
+		}
+		long elapsed = System.nanoTime() - start;
+		sink = passed;
+		return (double) elapsed / OPS_PER_ROUND;
+	}
+
+	static double median(double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
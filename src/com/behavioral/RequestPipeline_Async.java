@@ -0,0 +1,275 @@
+/*
+ * Asynchronous Request Pipeline (Chain of Responsibility + CompletableFuture)
+Follow up of: Compiled Request Pipeline, and the "Async decorators" follow-up of API Request Middleware
+
+Requirement
+Every handler runs on the caller thread. An authentication step that calls a token service blocks the whole request
+and with one thread per request a node tops out at a few thousand requests in flight.
+Handlers return a completion stage instead of a boolean.
+Each handler chooses where it runs: the caller thread, a pool of platform threads or a virtual thread of its own.
+Handlers that do not depend on each other (metrics, logging) run at the same time.
+Tens of thousands of requests in flight per node without a thread per request.
+
+Patterns Used
+Chain of Responsibility → ordered stages, any handler can stop the request
+Adapter → a blocking ApiRequestHandler becomes an AsyncApiRequestHandler with HandlerExecution
+Builder → stages and their concurrent handlers are fixed once when the pipeline is built
+ */
+
+
+/*
+ * - a stage is one or more handlers. the handlers of a stage start together and the next stage starts when all of them finished.
+ *   handlers of the same stage must not depend on each other and must write different fields of the context.
+ * - a handler that is really asynchronous (token service client returning a future) holds no thread while it waits.
+ * - a handler that blocks (jdbc, a blocking http client) should run with HandlerExecution.VIRTUAL,
+ *   a blocked virtual thread only costs a small heap object, not an os thread.
+ * - cpu only handlers should stay on CALLER, hopping threads costs more than they do.
+ * - stages that complete straight away continue on the same thread, so a fully CALLER pipeline behaves like the sync one.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+enum HandlerExecution {
+	CALLER, PLATFORM, VIRTUAL;
+
+	// own pool instead of the common pool, which degrades to a single worker on small machines
+	private static final ForkJoinPool PLATFORM_THREADS = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+	private static final ExecutorService VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+	Executor executor() {
+		switch(this) {
+			case CALLER: return Runnable::run;
+			case PLATFORM: return PLATFORM_THREADS;
+			default: return VIRTUAL_THREADS;
+		}
+	}
+}
+
+interface AsyncApiRequestHandler {
+	// completes with true → go on, false → stop the request
+	CompletionStage<Boolean> handle(ApiRequestContext context);
+
+	default String name() {
+		return getClass().getSimpleName();
+	}
+
+	// runs a blocking handler where execution says, so that it never blocks the thread that called the pipeline
+	static AsyncApiRequestHandler of(ApiRequestHandler handler, HandlerExecution execution) {
+		Executor executor = execution.executor();
+		return new AsyncApiRequestHandler() {
+			@Override
+			public CompletionStage<Boolean> handle(ApiRequestContext context) {
+				if(execution == HandlerExecution.CALLER) {
+					try {
+						return CompletableFuture.completedFuture(handler.handle(context));
+					}
+					catch(Throwable e) {		// like supplyAsync : a handler that throws fails the stage, it does not throw out of the pipeline
+						return CompletableFuture.failedFuture(e);
+					}
+				}
+				return CompletableFuture.supplyAsync(() -> handler.handle(context), executor);
+			}
+
+			@Override
+			public String name() {
+				return handler.name();
+			}
+		};
+	}
+}
+
+final class AsyncApiPipeline {
+	private final AsyncApiRequestHandler[][] stages;
+
+	private AsyncApiPipeline(List<AsyncApiRequestHandler[]> stages) {
+		this.stages = stages.toArray(new AsyncApiRequestHandler[0][]);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	// completes with true when every handler let the request through, context.rejectedBy names the one that did not
+	public CompletableFuture<Boolean> execute(ApiRequestContext context) {
+		return runFrom(0, context);
+	}
+
+	private CompletableFuture<Boolean> runFrom(int stage, ApiRequestContext context) {
+		if(stage == stages.length) return CompletableFuture.completedFuture(true);		// a new one each time, a shared one could be completed or obtruded by a caller
+
+		AsyncApiRequestHandler[] handlers = stages[stage];
+		if(handlers.length == 1) {
+			return start(handlers[0], context)
+					.thenCompose(passed -> passed ? runFrom(stage + 1, context) : stop(context, handlers[0]));
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		CompletableFuture<Boolean>[] running = new CompletableFuture[handlers.length];
+		for(int i = 0; i < handlers.length; i++) {
+			running[i] = start(handlers[i], context);
+		}
+
+		return CompletableFuture.allOf(running).thenCompose(ignored -> {
+			for(int i = 0; i < running.length; i++) {
+				if(!running[i].join()) return stop(context, handlers[i]);		// all are done, join() does not wait
+			}
+			return runFrom(stage + 1, context);
+		});
+	}
+
+	// a handler that throws instead of returning a failed stage fails the request the same way
+	private static CompletableFuture<Boolean> start(AsyncApiRequestHandler handler, ApiRequestContext context) {
+		try {
+			return handler.handle(context).toCompletableFuture();
+		}
+		catch(Throwable e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static CompletableFuture<Boolean> stop(ApiRequestContext context, AsyncApiRequestHandler handler) {
+		context.rejectedBy = handler.name();
+		return CompletableFuture.completedFuture(false);
+	}
+
+	static class Builder {
+		private final List<AsyncApiRequestHandler[]> stages = new ArrayList<>();
+
+		public Builder then(AsyncApiRequestHandler handler) {
+			stages.add(new AsyncApiRequestHandler[] {handler});
+			return this;
+		}
+
+		public Builder then(ApiRequestHandler handler, HandlerExecution execution) {
+			return then(AsyncApiRequestHandler.of(handler, execution));
+		}
+
+		// handlers that do not depend on each other, started together
+		public Builder thenConcurrently(AsyncApiRequestHandler... handlers) {
+			if(handlers.length == 0) throw new IllegalArgumentException("a stage needs at least one handler");
+			stages.add(handlers.clone());
+			return this;
+		}
+
+		public AsyncApiPipeline build() {
+			return new AsyncApiPipeline(stages);
+		}
+	}
+}
+
+
+
+
+
+// calls a token service that answers asynchronously. no thread is held while the answer is on its way
+class TokenServiceAuthenticationHandler implements AsyncApiRequestHandler {
+	private final Executor tokenServiceLatency;
+
+	public TokenServiceAuthenticationHandler(long latency, TimeUnit unit) {
+		// the reply is handed to the platform pool. the default pool of delayedExecutor starts a thread per task on 1 cpu
+		this.tokenServiceLatency = CompletableFuture.delayedExecutor(latency, unit, HandlerExecution.PLATFORM.executor());
+	}
+
+	@Override
+	public CompletionStage<Boolean> handle(ApiRequestContext context) {
+		return CompletableFuture.supplyAsync(() -> {
+			context.authenticated = context.credential != null && context.credential.startsWith("token-");
+			return context.authenticated;
+		}, tokenServiceLatency);
+	}
+}
+
+// an old style blocking step, e.g. a lookup with a blocking client
+class BlockingAuditHandler implements ApiRequestHandler {
+	private final long sleepMillis;
+
+	public BlockingAuditHandler(long sleepMillis) {
+		this.sleepMillis = sleepMillis;
+	}
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		try {
+			Thread.sleep(sleepMillis);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+}
+
+class RequestMetricsHandler implements ApiRequestHandler {
+	final AtomicInteger requests = new AtomicInteger();
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		requests.incrementAndGet();
+		return true;
+	}
+}
+
+class RequestLoggingHandler implements ApiRequestHandler {
+	final AtomicInteger logged = new AtomicInteger();
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		logged.incrementAndGet();		// a real one would hand the line to an async appender
+		return true;
+	}
+}
+
+
+
+public class RequestPipeline_Async {
+	static final int IN_FLIGHT = 20_000;
+
+	public static void main(String[] args) throws InterruptedException {
+		RequestMetricsHandler metrics = new RequestMetricsHandler();
+		RequestLoggingHandler logging = new RequestLoggingHandler();
+
+		AsyncApiPipeline pipeline = AsyncApiPipeline.builder()
+				.thenConcurrently(
+						AsyncApiRequestHandler.of(metrics, HandlerExecution.PLATFORM),
+						AsyncApiRequestHandler.of(logging, HandlerExecution.PLATFORM))
+				.then(new TokenServiceAuthenticationHandler(20, TimeUnit.MILLISECONDS))
+				.then(new AuthorizationHandler(), HandlerExecution.CALLER)
+				.then(new BlockingAuditHandler(20), HandlerExecution.VIRTUAL)
+				.build();
+
+		ApiRequestContext rejected = new ApiRequestContext().reset("bob", "98.76.54.32", "India", "bad", "/orders");
+		System.out.println("bad credential → passed " + pipeline.execute(rejected).join() + ", stopped at " + rejected.rejectedBy);
+
+		// every request waits ~40 ms on the token service and the audit step. with a thread per request this would need 20k threads
+		CountDownLatch done = new CountDownLatch(IN_FLIGHT);
+		AtomicInteger passed = new AtomicInteger();
+		long start = System.nanoTime();
+		for(int i = 0; i < IN_FLIGHT; i++) {
+			ApiRequestContext context = new ApiRequestContext().reset("user" + i, "10.0.0." + (i & 0xFF), "India", "token-" + i, "/orders");
+			pipeline.execute(context).whenComplete((ok, error) -> {
+				if(error == null && ok) passed.incrementAndGet();
+				done.countDown();
+			});
+		}
+		long submitted = System.nanoTime();
+		done.await();
+		long finished = System.nanoTime();
+
+		System.out.printf("%,d requests in flight, submitted in %d ms, all done in %d ms, %,d passed%n",
+				IN_FLIGHT, TimeUnit.NANOSECONDS.toMillis(submitted - start), TimeUnit.NANOSECONDS.toMillis(finished - start), passed.get());
+		System.out.println("metrics saw " + metrics.requests.get() + ", logging saw " + logging.logged.get());
+	}
+}
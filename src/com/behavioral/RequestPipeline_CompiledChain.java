@@ -0,0 +1,226 @@
+/*
+ * Compiled Request Pipeline (Chain of Responsibility without the recursion)
+Follow up of: Request Validation Pipeline and Rate Limiter + Access Control (Chain + Strategy)
+
+Requirement
+ApiSteps / ProcessApiRequest call nextStep.action() from inside every step.
+Every step repeats its own "if(nextStep != null)" check, the call stack grows by one frame per step,
+and RateLimiting has to cast nextStep to RequestValidation to hand it a boolean.
+Build the handlers once into a flat array and run them in a loop.
+A handler stops the request by returning false (short-circuiting).
+Handlers share what they found through a typed context object instead of casting their neighbour.
+Running a request through the pipeline must not allocate.
+
+Patterns Used
+Chain of Responsibility → ordered handlers, each one can stop the request
+Builder → the order is fixed once when the pipeline is built ("compiled")
+Context object → typed per request state passed to every handler
+ */
+
+
+/*
+ * chain vs compiled pipeline :-
+ * - chain : every step knows its next step and calls it. order lives in the objects, the steps are coupled to each other.
+ * - compiled pipeline : steps know nothing about each other. the pipeline holds them in an array and the loop decides
+ *   whether to go on, so adding / removing a step is a change in one place (the builder).
+ * - the context is created by the caller and can be reset and reused for the next request, so nothing is allocated per request.
+ * - "compiled" here means the first UNROLLED handlers get one field and one call site each (see execute()).
+ *   the call sites belong to the class, not the instance, so two pipelines with different handlers at the same
+ *   position share the profile of that site. one pipeline per process (the usual gateway) gets the full benefit.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+class ApiRequestContext {
+	final RateLimitRequestKeys keys = new RateLimitRequestKeys();
+	String credential;
+	String resource;
+	String action = "read";		// what is done to the resource, set after reset() when it is not a read
+	Map<String, Object> body;		// parsed request body, set after reset() when there is one
+
+	// written by the handlers
+	boolean authenticated;
+	String principal;		// who the credential belongs to, once authenticated
+	boolean authorized;
+	RateLimitDecision rateLimitDecision;
+	final ValidationErrors validationErrors = new ValidationErrors();
+	String rejectedBy;		// name of the handler that stopped the request, null while it goes on
+
+	public ApiRequestContext reset(String user, String ip, String region, String credential, String resource) {
+		keys.set(user, ip, region);
+		this.credential = credential;
+		this.resource = resource;
+		this.action = "read";
+		this.body = null;
+		this.authenticated = false;
+		this.principal = null;
+		this.authorized = false;
+		this.rateLimitDecision = null;
+		this.validationErrors.clear();
+		this.rejectedBy = null;
+		return this;
+	}
+
+	public boolean isRejected() {
+		return rejectedBy != null;
+	}
+}
+
+interface ApiRequestHandler {
+	// true → go on with the next handler, false → stop the request here
+	boolean handle(ApiRequestContext context);
+
+	default String name() {
+		return getClass().getSimpleName();
+	}
+}
+
+final class CompiledApiPipeline {
+	static final int UNROLLED = 12;
+	private static final ApiRequestHandler PASS = context -> true;
+
+	// one field and one call site per position, so the jit sees a single handler class at each site and can inline it.
+	// a loop over an array has one call site for all handlers, which turns megamorphic as soon as there are 3+ classes.
+	private final ApiRequestHandler h0, h1, h2, h3, h4, h5, h6, h7, h8, h9, h10, h11;
+	private final ApiRequestHandler[] rest;		// handlers after the unrolled ones, run in a plain loop
+	private final String[] names;
+
+	private CompiledApiPipeline(List<ApiRequestHandler> handlers) {
+		ApiRequestHandler[] all = handlers.toArray(new ApiRequestHandler[0]);
+		ApiRequestHandler[] slots = new ApiRequestHandler[UNROLLED];
+		for(int i = 0; i < UNROLLED; i++) {
+			slots[i] = i < all.length ? all[i] : PASS;		// unused positions always pass and inline to nothing
+		}
+		h0 = slots[0]; h1 = slots[1]; h2 = slots[2]; h3 = slots[3]; h4 = slots[4]; h5 = slots[5];
+		h6 = slots[6]; h7 = slots[7]; h8 = slots[8]; h9 = slots[9]; h10 = slots[10]; h11 = slots[11];
+		this.rest = all.length > UNROLLED ? Arrays.copyOfRange(all, UNROLLED, all.length) : new ApiRequestHandler[0];
+
+		this.names = new String[all.length];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = all[i].name();		// computed once here, not on a rejected request
+		}
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	// true when every handler let the request through
+	public boolean execute(ApiRequestContext context) {
+		if(!h0.handle(context)) return stop(context, 0);
+		if(!h1.handle(context)) return stop(context, 1);
+		if(!h2.handle(context)) return stop(context, 2);
+		if(!h3.handle(context)) return stop(context, 3);
+		if(!h4.handle(context)) return stop(context, 4);
+		if(!h5.handle(context)) return stop(context, 5);
+		if(!h6.handle(context)) return stop(context, 6);
+		if(!h7.handle(context)) return stop(context, 7);
+		if(!h8.handle(context)) return stop(context, 8);
+		if(!h9.handle(context)) return stop(context, 9);
+		if(!h10.handle(context)) return stop(context, 10);
+		if(!h11.handle(context)) return stop(context, 11);
+
+		ApiRequestHandler[] rest = this.rest;
+		for(int i = 0; i < rest.length; i++) {
+			if(!rest[i].handle(context)) return stop(context, UNROLLED + i);
+		}
+		return true;
+	}
+
+	private boolean stop(ApiRequestContext context, int position) {
+		context.rejectedBy = names[position];
+		return false;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	static class Builder {
+		private final List<ApiRequestHandler> handlers = new ArrayList<>();
+
+		public Builder then(ApiRequestHandler handler) {
+			handlers.add(handler);
+			return this;
+		}
+
+		public CompiledApiPipeline build() {
+			return new CompiledApiPipeline(handlers);
+		}
+	}
+}
+
+
+
+
+
+class AuthenticationHandler implements ApiRequestHandler {
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		context.authenticated = context.credential != null && !context.credential.isEmpty();
+		return context.authenticated;
+	}
+}
+
+class AuthorizationHandler implements ApiRequestHandler {
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		context.authorized = context.authenticated && context.resource != null;
+		return context.authorized;
+	}
+}
+
+// the typed replacement of RateLimiting : the decision goes into the context instead of a cast to RequestValidation
+class RateLimitHandler implements ApiRequestHandler {
+	private final MultiDimensionRateLimiter limiter;
+
+	public RateLimitHandler(MultiDimensionRateLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		context.rateLimitDecision = limiter.check(context.keys);
+		return context.rateLimitDecision.isAccepted();
+	}
+}
+
+class RequestValidationHandler implements ApiRequestHandler {
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		return context.rateLimitDecision == null || context.rateLimitDecision.isAccepted();
+	}
+}
+
+
+
+public class RequestPipeline_CompiledChain {
+	public static void main(String[] args) {
+		MultiDimensionRateLimiter limiter = MultiDimensionRateLimiter.builder()
+				.limit(RateLimitDimension.IP, new FixedWindowRateLimiter(2, 1, TimeUnit.SECONDS))
+				.build();
+
+		CompiledApiPipeline pipeline = CompiledApiPipeline.builder()
+				.then(new AuthenticationHandler())
+				.then(new AuthorizationHandler())
+				.then(new RateLimitHandler(limiter))
+				.then(new RequestValidationHandler())
+				.build();
+
+		ApiRequestContext context = new ApiRequestContext();
+
+		for(int i = 1; i <= 3; i++) {
+			pipeline.execute(context.reset("alice", "123.45.67.89", "India", "token-1", "/orders"));
+			System.out.println("request " + i + " → " + (context.isRejected() ? "stopped at " + context.rejectedBy : "passed all steps"));
+		}
+
+		pipeline.execute(context.reset("bob", "98.76.54.32", "India", null, "/orders"));
+		System.out.println("no credential → stopped at " + context.rejectedBy);
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * Request Validation with compiled schemas (Builder + Interpreter compiled ahead of time)
+Follow up of: Rate Limiter + Access Control (Chain + Strategy) and Compiled Request Pipeline
+
+Requirement
+RequestValidation only prints an isValid flag that the rate limiter set for it.
+A real validation stage checks the request body against a schema: required fields, types, ranges, lengths, regexes.
+The schema is written declaratively and compiled once into reusable validators (regexes compiled once, rules in an array).
+A batch of requests can be validated in one call, which pays for lookups and regex matchers once per batch.
+Failures are reported as structured error codes (request, field, code), no exception message is built on the hot path.
+
+Patterns Used
+Builder → RequestSchema is declared field by field, then compiled
+Chain of Responsibility → SchemaValidationHandler is one more ApiRequestHandler in the pipeline
+ */
+
+
+/*
+ * - a compiled schema is immutable and can be shared by every thread.
+ * - every field gets one FieldRule. a field reports only its first failing check.
+ * - ValidationErrors keeps each error packed into one int [ request : 16 bits | field : 10 bits | code : 6 bits ]
+ *   in an array that grows once and is reused, so validating does not allocate.
+ *   the text for a client ("amount is above maximum") is only built when someone asks for it.
+ * - a Matcher is not thread safe, so it can not live in the schema as is : every regex rule keeps one per thread (ThreadLocal)
+ *   and resets it for each value. validate() looks it up per check, validateAll() once per regex for the whole batch.
+ *   it goes request by request, so every body is read while it is in the cache, not once per field.
+ *   once the jit has warmed up, the gain per request is small. the batch api mostly saves a call per request for the caller.
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+enum RequestFieldType {
+	STRING, INTEGER, NUMBER, BOOLEAN;
+
+	boolean matches(Object value) {
+		switch(this) {
+			case STRING: return value instanceof String;
+			case INTEGER: return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+			case NUMBER: return value instanceof Number;
+			default: return value instanceof Boolean;
+		}
+	}
+}
+
+enum ValidationErrorCode {
+	MISSING_FIELD, WRONG_TYPE, BELOW_MINIMUM, ABOVE_MAXIMUM, TOO_SHORT, TOO_LONG, PATTERN_MISMATCH;
+
+	static final ValidationErrorCode[] VALUES = values();
+}
+
+class ValidationErrors {
+	static final int MAX_REQUESTS_PER_BATCH = 1 << 16;
+	static final int MAX_FIELDS = 1 << 10;
+
+	private int[] errors = new int[16];
+	private int count;
+	private long[] invalidRequests = new long[1];		// one bit per request of the batch
+	private int lastInvalid = -1;
+
+	void add(int request, int field, ValidationErrorCode code) {
+		if(count == errors.length) errors = Arrays.copyOf(errors, count * 2);
+		errors[count++] = request << 16 | field << 6 | code.ordinal();
+
+		int word = request >>> 6;
+		if(word >= invalidRequests.length) invalidRequests = Arrays.copyOf(invalidRequests, Math.max(word + 1, invalidRequests.length * 2));
+		invalidRequests[word] |= 1L << request;
+		lastInvalid = Math.max(lastInvalid, request);
+	}
+
+	public void clear() {
+		if(lastInvalid >= 0) Arrays.fill(invalidRequests, 0, (lastInvalid >>> 6) + 1, 0);		// only the words that were used
+		lastInvalid = -1;
+		count = 0;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public boolean isValid(int request) {
+		int word = request >>> 6;
+		return word >= invalidRequests.length || (invalidRequests[word] & (1L << request)) == 0;
+	}
+
+	public int requestAt(int i) {
+		return errors[i] >>> 16;
+	}
+
+	public int fieldAt(int i) {
+		return (errors[i] >>> 6) & (MAX_FIELDS - 1);
+	}
+
+	public ValidationErrorCode codeAt(int i) {
+		return ValidationErrorCode.VALUES[errors[i] & 0x3F];
+	}
+
+	// only for the response or a log line, never called while validating
+	public String describe(CompiledRequestSchema schema) {
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			if(i > 0) text.append(", ");
+			text.append("request ").append(requestAt(i)).append(' ')
+					.append(schema.fieldName(fieldAt(i))).append(": ").append(codeAt(i));
+		}
+		return text.toString();
+	}
+}
+
+class RequestSchema {
+	final Map<String, FieldSpec> fields;
+
+	static final class FieldSpec {
+		final String name;
+		final RequestFieldType type;
+		final boolean required;
+		double minimum = Double.NEGATIVE_INFINITY;
+		double maximum = Double.POSITIVE_INFINITY;
+		int minLength = 0;
+		int maxLength = Integer.MAX_VALUE;
+		String regex;
+
+		FieldSpec(String name, RequestFieldType type, boolean required) {
+			this.name = name;
+			this.type = type;
+			this.required = required;
+		}
+	}
+
+	private RequestSchema(Map<String, FieldSpec> fields) {
+		this.fields = fields;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	static class Builder {
+		private final Map<String, FieldSpec> fields = new LinkedHashMap<>();
+
+		public Builder required(String name, RequestFieldType type) {
+			return add(new FieldSpec(name, type, true));
+		}
+
+		public Builder optional(String name, RequestFieldType type) {
+			return add(new FieldSpec(name, type, false));
+		}
+
+		public Builder range(String name, double minimum, double maximum) {
+			FieldSpec field = field(name, RequestFieldType.NUMBER, RequestFieldType.INTEGER);
+			field.minimum = minimum;
+			field.maximum = maximum;
+			return this;
+		}
+
+		public Builder length(String name, int minLength, int maxLength) {
+			FieldSpec field = field(name, RequestFieldType.STRING);
+			field.minLength = minLength;
+			field.maxLength = maxLength;
+			return this;
+		}
+
+		public Builder pattern(String name, String regex) {
+			field(name, RequestFieldType.STRING).regex = regex;
+			return this;
+		}
+
+		public CompiledRequestSchema compile() {
+			return new CompiledRequestSchema(new RequestSchema(new LinkedHashMap<>(fields)));
+		}
+
+		private Builder add(FieldSpec field) {
+			if(fields.containsKey(field.name)) throw new IllegalArgumentException(field.name + " is declared twice");
+			if(fields.size() == ValidationErrors.MAX_FIELDS) throw new IllegalArgumentException("at most " + ValidationErrors.MAX_FIELDS + " fields");
+			fields.put(field.name, field);
+			return this;
+		}
+
+		private FieldSpec field(String name, RequestFieldType... allowed) {
+			FieldSpec field = fields.get(name);
+			if(field == null) throw new IllegalArgumentException(name + " has to be declared before its constraints");
+			if(!Arrays.asList(allowed).contains(field.type)) throw new IllegalArgumentException(name + " is " + field.type + ", the constraint does not apply");
+			return field;
+		}
+	}
+}
+
+final class CompiledRequestSchema {
+	private final FieldRule[] rules;
+	private final Map<String, Integer> fieldIndex = new HashMap<>();
+
+	private static final class FieldRule {
+		final String name;
+		final RequestFieldType type;
+		final boolean required;
+		final boolean checkRange;
+		final double minimum, maximum;
+		final boolean checkLength;
+		final int minLength, maxLength;
+		final Pattern pattern;		// compiled once, null when there is no regex
+		final ThreadLocal<Matcher> matchers;		// of pattern, one per thread, reset for every value
+
+		FieldRule(RequestSchema.FieldSpec spec) {
+			this.name = spec.name;
+			this.type = spec.type;
+			this.required = spec.required;
+			this.checkRange = spec.minimum != Double.NEGATIVE_INFINITY || spec.maximum != Double.POSITIVE_INFINITY;
+			this.minimum = spec.minimum;
+			this.maximum = spec.maximum;
+			this.checkLength = spec.minLength > 0 || spec.maxLength != Integer.MAX_VALUE;
+			this.minLength = spec.minLength;
+			this.maxLength = spec.maxLength;
+			this.pattern = spec.regex == null ? null : Pattern.compile(spec.regex);
+			this.matchers = pattern == null ? null : ThreadLocal.withInitial(() -> pattern.matcher(""));
+		}
+
+		// null when the value is fine. matcher is the one of this thread when the caller already has it, else it is looked up
+		ValidationErrorCode check(Object value, Matcher matcher) {
+			if(value == null) return required ? ValidationErrorCode.MISSING_FIELD : null;
+			if(!type.matches(value)) return ValidationErrorCode.WRONG_TYPE;
+
+			if(checkRange) {
+				double number = ((Number) value).doubleValue();
+				if(number < minimum) return ValidationErrorCode.BELOW_MINIMUM;
+				if(number > maximum) return ValidationErrorCode.ABOVE_MAXIMUM;
+			}
+			if(type == RequestFieldType.STRING) {
+				String text = (String) value;
+				if(checkLength) {
+					if(text.length() < minLength) return ValidationErrorCode.TOO_SHORT;
+					if(text.length() > maxLength) return ValidationErrorCode.TOO_LONG;
+				}
+				if(pattern != null && !(matcher != null ? matcher : matchers.get()).reset(text).matches()) {
+					return ValidationErrorCode.PATTERN_MISMATCH;
+				}
+			}
+			return null;
+		}
+	}
+
+	CompiledRequestSchema(RequestSchema schema) {
+		List<FieldRule> compiled = new ArrayList<>();
+		for(RequestSchema.FieldSpec spec: schema.fields.values()) {
+			fieldIndex.put(spec.name, compiled.size());
+			compiled.add(new FieldRule(spec));
+		}
+		this.rules = compiled.toArray(new FieldRule[0]);
+	}
+
+	public String fieldName(int field) {
+		return rules[field].name;
+	}
+
+	public int fieldIndex(String name) {
+		Integer index = fieldIndex.get(name);
+		return index == null ? -1 : index;
+	}
+
+	// one request, reported as request 0. true when it is valid
+	public boolean validate(Map<String, Object> body, ValidationErrors errors) {
+		boolean valid = true;
+		for(int f = 0; f < rules.length; f++) {
+			FieldRule rule = rules[f];
+			ValidationErrorCode code = rule.check(body == null ? null : body.get(rule.name), null);
+			if(code != null) {
+				errors.add(0, f, code);
+				valid = false;
+			}
+		}
+		return valid;
+	}
+
+	// the whole batch in one call, errors carry the index of the request in the list. returns how many are valid
+	public int validateAll(List<Map<String, Object>> bodies, ValidationErrors errors) {
+		if(bodies.size() > ValidationErrors.MAX_REQUESTS_PER_BATCH) {
+			throw new IllegalArgumentException("at most " + ValidationErrors.MAX_REQUESTS_PER_BATCH + " requests per batch");
+		}
+		int before = errors.count();
+
+		Matcher[] matchers = new Matcher[rules.length];		// looked up once per regex for the whole batch instead of once per check
+		for(int f = 0; f < rules.length; f++) {
+			if(rules[f].pattern != null) matchers[f] = rules[f].matchers.get();
+		}
+
+		for(int r = 0; r < bodies.size(); r++) {
+			Map<String, Object> body = bodies.get(r);
+			for(int f = 0; f < rules.length; f++) {
+				FieldRule rule = rules[f];
+				ValidationErrorCode code = rule.check(body == null ? null : body.get(rule.name), matchers[f]);
+				if(code != null) errors.add(r, f, code);
+			}
+		}
+
+		if(errors.count() == before) return bodies.size();
+		int valid = 0;
+		for(int r = 0; r < bodies.size(); r++) {
+			if(errors.isValid(r)) valid++;
+		}
+		return valid;
+	}
+}
+
+// the real validation stage for a CompiledApiPipeline. errors stay in the context for the response
+class SchemaValidationHandler implements ApiRequestHandler {
+	private final CompiledRequestSchema schema;
+
+	public SchemaValidationHandler(CompiledRequestSchema schema) {
+		this.schema = schema;
+	}
+
+	@Override
+	public boolean handle(ApiRequestContext context) {
+		return schema.validate(context.body, context.validationErrors);
+	}
+}
+
+
+
+public class RequestValidation_CompiledSchema {
+	public static void main(String[] args) {
+		CompiledRequestSchema orderSchema = RequestSchema.builder()
+				.required("amount", RequestFieldType.NUMBER).range("amount", 1, 10_000)
+				.required("currency", RequestFieldType.STRING).pattern("currency", "[A-Z]{3}")
+				.required("quantity", RequestFieldType.INTEGER).range("quantity", 1, 100)
+				.optional("note", RequestFieldType.STRING).length("note", 0, 140)
+				.compile();
+
+		CompiledApiPipeline pipeline = CompiledApiPipeline.builder()
+				.then(new AuthenticationHandler())
+				.then(new SchemaValidationHandler(orderSchema))
+				.build();
+
+		ApiRequestContext context = new ApiRequestContext().reset("alice", "10.0.0.1", "India", "token-alice", "/orders");
+		context.body = Map.of("amount", 25_000, "currency", "usd", "note", "gift");
+		pipeline.execute(context);
+		System.out.println("stopped at " + context.rejectedBy + " → " + context.validationErrors.describe(orderSchema));
+
+		List<Map<String, Object>> batch = new ArrayList<>();
+		for(int i = 0; i < 100_000; i++) {
+			batch.add(Map.of("amount", 10 + i % 20_000, "currency", i % 7 == 0 ? "eur" : "EUR", "quantity", 1 + i % 150));
+		}
+
+		ValidationErrors errors = new ValidationErrors();
+		for(int round = 0; round < 15; round++) {		// the last round is reported, the others warm up the jit
+			long start = System.nanoTime();
+			int validOneByOne = 0;
+			for(Map<String, Object> body: batch) {
+				errors.clear();
+				if(orderSchema.validate(body, errors)) validOneByOne++;
+			}
+			long oneByOne = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int validInBatches = 0;
+			for(int from = 0; from < batch.size(); from += 1_000) {
+				errors.clear();
+				validInBatches += orderSchema.validateAll(batch.subList(from, from + 1_000), errors);
+			}
+			long batched = System.nanoTime() - start;
+
+			if(round == 14) {
+				System.out.printf("%,d requests one by one : %d ms, %,d valid%n", batch.size(), oneByOne / 1_000_000, validOneByOne);
+				System.out.printf("%,d requests in batches of 1000 : %d ms, %,d valid%n", batch.size(), batched / 1_000_000, validInBatches);
+			}
+		}
+	}
+}
@@ -0,0 +1,787 @@
+/*
+ * Scheduler Engine on a hierarchical Timing Wheel (Command + Observer)
+Follow up of: Scheduler System (Command + Singleton + Observer)
+
+Requirement
+JobQueueSingleton is a LinkedList and executeAllJobs() runs every job through every IJobStatus straight away.
+Run jobs for real
+after a delay
+at a fixed time
+on a cron schedule ("0 0/5 * * * *" → every 5 minutes)
+Scheduling and cancelling are O(1), also with millions of timers pending.
+Jobs run on a worker pool of configurable size.
+Listeners are still told when a job is Pending, In Progress and Done (JobExecutor).
+A run that throws or takes too long is retried later (RetryPolicy, see JobRetry_TimeoutBackoff).
+
+Patterns Used
+Command → a job and its work are handed to the scheduler and run later on some worker
+Strategy → JobSchedule decides when a job runs next (delay, fixed time, fixed rate, cron)
+Observer → JobExecutor and its listeners hear about every state of every run
+Builder → JobScheduler is configured once
+ */
+
+
+/*
+ * timing wheel vs a priority queue (ScheduledThreadPoolExecutor) :-
+ * - a heap is O(log n) per schedule and per cancel (remove-on-cancel), with one lock for all threads.
+ * - a wheel is an array of buckets, one per tick. a timer goes into the bucket of its deadline → O(1).
+ * - hierarchical : 6 levels of 64 buckets. level 0 buckets are 1 tick wide, level 1 buckets 64 ticks, level 2 4096 ticks ...
+ *   a timer goes to the level of the highest bit in which its deadline differs from the current tick.
+ *   when the current tick crosses a level boundary, the bucket of that level is emptied and its timers go one level down (cascade).
+ *   6 levels x 6 bits = 2^36 ticks, ~2 years at 1 ms. a timer further away sits in the top level and is re-placed when it comes round.
+ * - every bucket is a doubly linked list through the timers themselves, so cancel is an unlink and nothing is allocated per timer
+ *   except the ScheduledJob handle.
+ *
+ * threading :-
+ * - the wheel belongs to one ticker thread. schedule() and cancel() from any thread only push the timer on a lock free stack
+ *   (one CAS, linked through the timer itself, no node allocated), the ticker takes the whole stack with one swap before every tick
+ *   and moves the timers into / out of the wheel. no thread ever waits on a lock.
+ * - a timer that fires is handed to the worker pool, the ticker thread never runs a job.
+ * - a repeating job is put back into the wheel when its run finished, with the next time after its last planned time
+ *   (fixed rate). runs of the same job never overlap, a run that took longer than the period makes the next one start at once.
+ * - the resolution is one tick (1 ms by default). a job runs in the tick of its deadline or, when the ticker was late, right after.
+ *
+ * failures :-
+ * - a run that throws, or is still running when its timeout comes, failed. a timeout is one more timer in the wheel,
+ *   fired on the ticker thread itself (the workers may be the ones that hang), which interrupts the worker running the job.
+ * - a failed run is retried after a backoff : the job goes back into the wheel with a deadline, no thread sleeps for it.
+ * - a retry that comes due only runs when fewer than maxRetriesInFlight retries are running, else it waits for one of them to end.
+ *   so a burst of failures can not take every worker, fresh jobs keep running.
+ * - after maxAttempts the run goes to the DeadLetterQueue. a repeating job still runs at its next planned time.
+ */
+
+package com.behavioral;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// strategy : when does the job run
+interface JobSchedule {
+	// first run, in epoch millis
+	long firstFireMillis(long nowMillis);
+
+	// run after the one planned for lastFireMillis, -1 when there is none
+	long nextFireMillis(long lastFireMillis);
+
+	static JobSchedule after(long delay, TimeUnit unit) {
+		long millis = unit.toMillis(delay);
+		return new JobSchedule() {
+			public long firstFireMillis(long nowMillis) { return nowMillis + millis; }
+			public long nextFireMillis(long lastFireMillis) { return -1; }
+		};
+	}
+
+	static JobSchedule at(long epochMillis) {
+		return new JobSchedule() {
+			public long firstFireMillis(long nowMillis) { return epochMillis; }
+			public long nextFireMillis(long lastFireMillis) { return -1; }
+		};
+	}
+
+	static JobSchedule every(long initialDelay, long period, TimeUnit unit) {
+		if(period <= 0) throw new IllegalArgumentException("period must be positive");
+		long delayMillis = unit.toMillis(initialDelay), periodMillis = Math.max(1, unit.toMillis(period));
+		return new JobSchedule() {
+			public long firstFireMillis(long nowMillis) { return nowMillis + delayMillis; }
+			public long nextFireMillis(long lastFireMillis) { return lastFireMillis + periodMillis; }
+		};
+	}
+
+	static JobSchedule cron(String expression) {
+		return new CronSchedule(expression, ZoneId.systemDefault());
+	}
+}
+
+/*
+ * "second minute hour day-of-month month day-of-week", or the classic 5 fields without seconds (seconds = 0).
+ * every field is * or a comma list of n, a-b, with an optional /step. day of week 0-7, 0 and 7 are sunday.
+ * like classic cron, when both day fields are restricted a day matching either of them matches.
+ */
+final class CronSchedule implements JobSchedule {
+	private final String expression;
+	private final ZoneId zone;
+	private final long seconds, minutes, hours, daysOfMonth, months, daysOfWeek;		// bit n set → value n matches
+	private final boolean anyDayOfMonth, anyDayOfWeek;
+
+	CronSchedule(String expression, ZoneId zone) {
+		String[] fields = expression.trim().split("\\s+");
+		if(fields.length == 5) fields = ("0 " + expression.trim()).split("\\s+");
+		if(fields.length != 6) throw new IllegalArgumentException("cron needs 5 or 6 fields: " + expression);
+
+		this.expression = expression;
+		this.zone = zone;
+		this.seconds = parse(fields[0], 0, 59);
+		this.minutes = parse(fields[1], 0, 59);
+		this.hours = parse(fields[2], 0, 23);
+		this.daysOfMonth = parse(fields[3], 1, 31);
+		this.months = parse(fields[4], 1, 12);
+		long dow = parse(fields[5], 0, 7);
+		this.daysOfWeek = (dow & 1L << 7) != 0 ? dow | 1 : dow;		// 7 is sunday as well
+		this.anyDayOfMonth = fields[3].equals("*");
+		this.anyDayOfWeek = fields[5].equals("*");
+	}
+
+	private static long parse(String field, int min, int max) {
+		long bits = 0;
+		for(String part: field.split(",")) {
+			int step = 1;
+			int slash = part.indexOf('/');
+			if(slash >= 0) {
+				step = Integer.parseInt(part.substring(slash + 1));
+				part = part.substring(0, slash);
+				if(step <= 0) throw new IllegalArgumentException("bad step in " + field);
+			}
+			int from, to;
+			if(part.equals("*")) {
+				from = min;
+				to = max;
+			}
+			else if(part.contains("-")) {
+				from = Integer.parseInt(part.substring(0, part.indexOf('-')));
+				to = Integer.parseInt(part.substring(part.indexOf('-') + 1));
+			}
+			else {
+				from = Integer.parseInt(part);
+				to = slash >= 0 ? max : from;		// "5/15" → 5, 20, 35, 50
+			}
+			if(from < min || to > max || from > to) throw new IllegalArgumentException("out of range " + field);
+			for(int value = from; value <= to; value += step) bits |= 1L << value;
+		}
+		return bits;
+	}
+
+	private static boolean has(long bits, int value) {
+		return (bits & 1L << value) != 0;
+	}
+
+	private boolean dayMatches(ZonedDateTime time) {
+		boolean dom = has(daysOfMonth, time.getDayOfMonth());
+		boolean dow = has(daysOfWeek, time.getDayOfWeek().getValue() % 7);		// java monday=1 .. sunday=7 → sunday=0
+		if(anyDayOfMonth || anyDayOfWeek) return dom && dow;
+		return dom || dow;
+	}
+
+	@Override
+	public long firstFireMillis(long nowMillis) {
+		return nextFireMillis(nowMillis);
+	}
+
+	// moves forward by the largest unit that does not match, so a year is at most a few hundred steps
+	@Override
+	public long nextFireMillis(long afterMillis) {
+		ZonedDateTime time = Instant.ofEpochMilli(afterMillis).atZone(zone).truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+		for(int steps = 0; steps < 20_000; steps++) {
+			if(!has(months, time.getMonthValue())) time = time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+			else if(!dayMatches(time)) time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+			else if(!has(hours, time.getHour())) time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+			else if(!has(minutes, time.getMinute())) time = time.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+			else if(!has(seconds, time.getSecond())) time = time.plusSeconds(1);
+			else return time.toInstant().toEpochMilli();
+		}
+		return -1;		// never matches, e.g. "0 0 0 30 2 *"
+	}
+
+	public String toString() {
+		return "cron(" + expression + ")";
+	}
+}
+
+// handle of a scheduled job, and the wheel's list node for it
+final class ScheduledJob {
+	static final int SCHEDULED = 0, CANCELLED = 1, FINISHED = 2, FAILED = 3;
+
+	final Job job;
+	final JobSchedule schedule;
+	final Runnable work;
+	final boolean onTicker;		// runs on the ticker thread when due (timeouts), must be tiny
+	private final JobScheduler scheduler;
+	private static final AtomicIntegerFieldUpdater<ScheduledJob> STATE = AtomicIntegerFieldUpdater.newUpdater(ScheduledJob.class, "state");
+	private volatile int state = SCHEDULED;		// an updater and not an AtomicInteger, one object less per timer
+	volatile long fireMillis;		// planned time of the next (or running) run, or of its next retry
+	long plannedMillis;		// planned time of the run being tried, the next run is planned from it
+	int attempt = 1;		// of the run being tried, handed between ticker and workers through the stacks and the pool
+	JobTypeStats stats;		// null without SchedulerMetrics
+	long queuedNanos;		// when the run became due and was handed on to the workers
+
+	// links of the hand-over stacks to the ticker, written before the push
+	ScheduledJob nextToAdd, nextToCancel;
+
+	// owned by the ticker thread
+	long deadlineTick;
+	ScheduledJob prev, next;
+	TimingWheel.Bucket bucket;		// null while not in the wheel
+
+	ScheduledJob(Job job, JobSchedule schedule, Runnable work, JobScheduler scheduler) {
+		this(job, schedule, work, scheduler, false);
+	}
+
+	ScheduledJob(Job job, JobSchedule schedule, Runnable work, JobScheduler scheduler, boolean onTicker) {
+		this.job = job;
+		this.schedule = schedule;
+		this.work = work;
+		this.scheduler = scheduler;
+		this.onTicker = onTicker;
+	}
+
+	// false when it already finished or was cancelled before. a run that started already is not interrupted
+	public boolean cancel() {
+		if(!changeState(SCHEDULED, CANCELLED)) return false;
+		scheduler.cancelled(this);
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	public boolean isFinished() {
+		return state == FINISHED;
+	}
+
+	// gave up after the last attempt, the run is in the dead letter queue
+	public boolean isFailed() {
+		return state == FAILED;
+	}
+
+	boolean isScheduled() {
+		return state == SCHEDULED;
+	}
+
+	boolean changeState(int expected, int next) {
+		return STATE.compareAndSet(this, expected, next);
+	}
+
+	public long getFireMillis() {
+		return fireMillis;
+	}
+
+	public Job getJob() {
+		return job;
+	}
+}
+
+// only ever touched by the ticker thread
+final class TimingWheel {
+	static final int LEVELS = 6;
+	static final int BITS = 6;
+	static final int SLOTS = 1 << BITS;
+
+	static final class Bucket {
+		final ScheduledJob head = new ScheduledJob(null, null, null, null);		// sentinel
+
+		Bucket() {
+			head.prev = head;
+			head.next = head;
+		}
+	}
+
+	private final Bucket[][] buckets = new Bucket[LEVELS][SLOTS];
+	private long currentTick;
+	private long size;
+
+	TimingWheel(long startTick) {
+		this.currentTick = startTick;
+		for(Bucket[] level: buckets) {
+			for(int slot = 0; slot < SLOTS; slot++) level[slot] = new Bucket();
+		}
+	}
+
+	// false when the deadline is not in the future, the caller runs it now
+	boolean add(ScheduledJob timer) {
+		long deadline = timer.deadlineTick;
+		if(deadline <= currentTick) return false;
+
+		int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / BITS;
+		if(level >= LEVELS) level = LEVELS - 1;		// further than the wheel reaches, re-placed when its top bucket comes round
+		Bucket bucket = buckets[level][(int) (deadline >>> (level * BITS)) & (SLOTS - 1)];
+
+		ScheduledJob head = bucket.head;
+		timer.prev = head.prev;
+		timer.next = head;
+		head.prev.next = timer;
+		head.prev = timer;
+		timer.bucket = bucket;
+		size++;
+		return true;
+	}
+
+	void remove(ScheduledJob timer) {
+		if(timer.bucket == null) return;
+		timer.prev.next = timer.next;
+		timer.next.prev = timer.prev;
+		timer.prev = timer.next = null;
+		timer.bucket = null;
+		size--;
+	}
+
+	// moves to the next tick and hands every timer that is due to expired
+	void advance(java.util.function.Consumer<ScheduledJob> expired) {
+		long tick = ++currentTick;
+
+		// higher levels first, what comes down from them can land in a lower bucket that is emptied in this same tick
+		int top = 0;
+		while(top + 1 < LEVELS && (tick & ((1L << ((top + 1) * BITS)) - 1)) == 0) top++;
+		for(int level = top; level >= 1; level--) {
+			ScheduledJob timer = detach(buckets[level][(int) (tick >>> (level * BITS)) & (SLOTS - 1)]);
+			while(timer != null) {
+				ScheduledJob next = timer.next;
+				if(!add(timer)) expired.accept(timer);
+				timer = next;
+			}
+		}
+
+		ScheduledJob timer = detach(buckets[0][(int) tick & (SLOTS - 1)]);
+		while(timer != null) {
+			ScheduledJob next = timer.next;
+			expired.accept(timer);
+			timer = next;
+		}
+	}
+
+	// empties the bucket, returns its timers as a null terminated list through next
+	private ScheduledJob detach(Bucket bucket) {
+		ScheduledJob head = bucket.head;
+		if(head.next == head) return null;
+		ScheduledJob first = head.next;
+		head.prev.next = null;
+		head.next = head.prev = head;
+		for(ScheduledJob timer = first; timer != null; timer = timer.next) {
+			timer.bucket = null;
+			timer.prev = null;
+			size--;
+		}
+		return first;
+	}
+
+	long currentTick() {
+		return currentTick;
+	}
+
+	long size() {
+		return size;
+	}
+}
+
+class JobScheduler {
+	private final long tickNanos;
+	private final long startNanos = System.nanoTime();
+	private final long startMillis = System.currentTimeMillis();
+	private final ExecutorService workers;
+	private final JobExecutor notifications;		// may be null
+	private final FairShareJobQueue fairShare;		// may be null → due jobs go to the workers in the order they became due
+	private final IJobStatus pending, inProgress, done, retrying, failed;
+	private final RetryPolicy retry;
+	private final DeadLetterQueue deadLetters;
+	private final SchedulerMetrics metrics;		// may be null
+	private final AtomicInteger retriesInFlight = new AtomicInteger();
+	private final ConcurrentLinkedQueue<ScheduledJob> waitingRetries = new ConcurrentLinkedQueue<>();		// due, but no room to run yet
+	final LongAdder retried = new LongAdder();		// failed runs that were put back for another attempt
+	final LongAdder timedOut = new LongAdder();
+
+	private final AtomicReference<ScheduledJob> toAdd = new AtomicReference<>();
+	private final AtomicReference<ScheduledJob> toCancel = new AtomicReference<>();
+	private final TimingWheel wheel = new TimingWheel(0);
+	private final Thread ticker;
+	private volatile boolean running = true;
+	private volatile long pendingTimers;		// timers in the wheel, as of the last tick
+	private long tickStartNanos;		// ticker thread only
+
+	private JobScheduler(Builder builder) {
+		this.tickNanos = builder.tickNanos;
+		this.notifications = builder.notifications;
+		this.fairShare = builder.fairShare;
+		this.pending = notifications == null ? null : new Pending(notifications);
+		this.inProgress = notifications == null ? null : new InProgress(notifications);
+		this.done = notifications == null ? null : new Done(notifications);
+		this.retrying = notifications == null ? null : new Retrying(notifications);
+		this.failed = notifications == null ? null : new Failed(notifications);
+		this.retry = builder.retry;
+		this.deadLetters = builder.deadLetters;
+		this.metrics = builder.metrics;
+
+		AtomicInteger workerIds = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(builder.workers, runnable -> {
+			Thread worker = new Thread(runnable, "job-worker-" + workerIds.incrementAndGet());
+			worker.setDaemon(true);
+			return worker;
+		});
+		this.ticker = new Thread(this::tickLoop, "job-scheduler-ticker");
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public ScheduledJob schedule(Job job, JobSchedule schedule, Runnable work) {
+		ScheduledJob scheduled = new ScheduledJob(job, schedule, work, this);
+		long first = schedule.firstFireMillis(System.currentTimeMillis());
+		if(first < 0) throw new IllegalArgumentException(schedule + " never runs");
+		scheduled.fireMillis = first;
+		scheduled.plannedMillis = first;
+		if(metrics != null) scheduled.stats = metrics.statsOf(job);
+		if(pending != null) pending.execute(job);
+		pushToAdd(scheduled);
+		return scheduled;
+	}
+
+	void cancelled(ScheduledJob scheduled) {
+		ScheduledJob top;		// the ticker unlinks it, cancel() itself never waits
+		do {
+			top = toCancel.get();
+			scheduled.nextToCancel = top;
+		} while(!toCancel.compareAndSet(top, scheduled));
+	}
+
+	private void pushToAdd(ScheduledJob scheduled) {
+		ScheduledJob top;
+		do {
+			top = toAdd.get();
+			scheduled.nextToAdd = top;
+		} while(!toAdd.compareAndSet(top, scheduled));
+	}
+
+	private long tickOf(long epochMillis) {
+		long nanosFromStart = TimeUnit.MILLISECONDS.toNanos(epochMillis - startMillis);
+		return Math.floorDiv(nanosFromStart + tickNanos - 1, tickNanos);		// rounded up, never early
+	}
+
+	private void tickLoop() {
+		while(running) {
+			if(metrics != null) tickStartNanos = System.nanoTime();		// one clock read per tick for every job that becomes due in it
+			for(ScheduledJob scheduled = toCancel.getAndSet(null); scheduled != null; scheduled = scheduled.nextToCancel) {
+				wheel.remove(scheduled);
+			}
+			ScheduledJob scheduled = toAdd.getAndSet(null);
+			while(scheduled != null) {
+				ScheduledJob next = scheduled.nextToAdd;		// read before fire(), a fast job can be pushed again right away
+				if(scheduled.isScheduled()) {
+					scheduled.deadlineTick = tickOf(scheduled.fireMillis);
+					if(!wheel.add(scheduled)) fire(scheduled);
+				}
+				scheduled = next;
+			}
+
+			long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+			while(wheel.currentTick() < nowTick) wheel.advance(this::fire);
+			pendingTimers = wheel.size();
+
+			long nextTickNanos = startNanos + (nowTick + 1) * tickNanos;
+			LockSupport.parkNanos(nextTickNanos - System.nanoTime());
+		}
+	}
+
+	private void fire(ScheduledJob scheduled) {
+		if(!scheduled.isScheduled()) return;
+		if(scheduled.onTicker) {
+			scheduled.work.run();
+			return;
+		}
+		if(scheduled.stats != null) {
+			scheduled.queuedNanos = tickStartNanos;
+			scheduled.stats.queued();
+		}
+		if(scheduled.attempt == 1) dispatch(scheduled);
+		else {
+			waitingRetries.add(scheduled);
+			dispatchRetries();
+		}
+	}
+
+	// nothing once shutdown() started : the pool refuses new tasks, and a worker finishing a retry must not die on that
+	private void dispatch(ScheduledJob scheduled) {
+		if(!running) return;
+		try {
+			if(fairShare == null) {
+				workers.execute(() -> run(scheduled));
+				return;
+			}
+			// one worker task per due job, but the task runs whichever job the fair share queue picks, not necessarily this one
+			fairShare.submit(scheduled.job, () -> run(scheduled));
+			workers.execute(this::runNextFairShare);
+		}
+		catch(RejectedExecutionException e) {
+			if(running) throw e;		// shutdown() came in between the check and execute, running is cleared before the pool shuts
+		}
+	}
+
+	private void runNextFairShare() {
+		QueuedJob next = fairShare.poll();
+		if(next != null) next.work.run();
+	}
+
+	// starts waiting retries while there is room. called after a retry is queued and after a retry ended,
+	// each side checks the other's half after doing its own, so no retry is left waiting with room free
+	private void dispatchRetries() {
+		while(!waitingRetries.isEmpty()) {
+			int inFlight = retriesInFlight.get();
+			if(inFlight >= retry.maxRetriesInFlight) return;
+			if(!retriesInFlight.compareAndSet(inFlight, inFlight + 1)) continue;
+			ScheduledJob next = waitingRetries.poll();
+			if(next == null) retriesInFlight.decrementAndGet();
+			else dispatch(next);
+		}
+	}
+
+	private void run(ScheduledJob scheduled) {
+		boolean isRetry = scheduled.attempt > 1;
+		JobTypeStats stats = scheduled.stats;
+		long startNanos = stats == null ? 0 : System.nanoTime();
+		if(stats != null) stats.dequeued();
+		try {
+			if(!scheduled.isScheduled()) return;		// cancelled between firing and starting
+			if(stats != null) stats.started(startNanos - scheduled.queuedNanos);
+			if(inProgress != null) inProgress.execute(scheduled.job);
+			Throwable error = attempt(scheduled);
+			if(stats != null) {
+				long runNanos = System.nanoTime() - startNanos;
+				stats.finished(runNanos, error == null);
+				metrics.trace(scheduled.job, stats, scheduled.attempt, startNanos - scheduled.queuedNanos, runNanos, error);
+			}
+			if(error == null) {
+				if(done != null) done.execute(scheduled.job);
+				planNext(scheduled, ScheduledJob.FINISHED);
+			}
+			else {
+				failed(scheduled, error);		// retried, dead lettered or planned again, whatever it threw
+				if(error instanceof VirtualMachineError) throw (VirtualMachineError) error;
+			}
+		}
+		finally {
+			if(isRetry) {
+				retriesInFlight.decrementAndGet();
+				dispatchRetries();
+			}
+		}
+	}
+
+	// null when the run went fine, else why it failed (an Error too)
+	private Throwable attempt(ScheduledJob scheduled) {
+		if(retry.timeoutMillis == 0) {
+			try {
+				scheduled.work.run();
+				return null;
+			}
+			catch(Throwable e) {
+				return e;
+			}
+		}
+
+		AttemptTimeout timeout = new AttemptTimeout();
+		ScheduledJob timer = new ScheduledJob(null, null, timeout, this, true);
+		timer.fireMillis = System.currentTimeMillis() + retry.timeoutMillis;
+		pushToAdd(timer);
+
+		Throwable error = null;
+		boolean late;
+		try {
+			scheduled.work.run();
+		}
+		catch(Throwable e) {
+			error = e;
+		}
+		finally {
+			timer.cancel();
+			late = timeout.finish();
+			if(late) Thread.interrupted();		// the interrupt was meant for this run, not for the next job of this worker
+		}
+		if(late) {
+			timedOut.increment();
+			if(scheduled.stats != null) scheduled.stats.timedOut.increment();
+			return new TimeoutException(scheduled.job.name + " ran longer than " + retry.timeoutMillis + " ms");
+		}
+		return error;
+	}
+
+	private void failed(ScheduledJob scheduled, Throwable error) {
+		if(scheduled.attempt < retry.maxAttempts && scheduled.isScheduled()) {
+			long backoff = retry.backoffMillis(scheduled.attempt);
+			scheduled.attempt++;
+			retried.increment();
+			if(scheduled.stats != null) scheduled.stats.retried.increment();
+			if(retrying != null) retrying.execute(scheduled.job);
+			scheduled.fireMillis = System.currentTimeMillis() + backoff;
+			pushToAdd(scheduled);
+			return;
+		}
+		if(failed != null) failed.execute(scheduled.job);
+		deadLetters.add(new DeadLetter(scheduled.job, scheduled.attempt, error));
+		if(scheduled.stats != null) scheduled.stats.deadLettered.increment();
+		planNext(scheduled, ScheduledJob.FAILED);
+	}
+
+	// a repeating job goes on with the run planned after this one, however this one ended
+	private void planNext(ScheduledJob scheduled, int lastState) {
+		long next = scheduled.schedule.nextFireMillis(scheduled.plannedMillis);
+		if(next < 0) scheduled.changeState(ScheduledJob.SCHEDULED, lastState);
+		else if(scheduled.isScheduled()) {
+			scheduled.attempt = 1;
+			scheduled.plannedMillis = next;
+			scheduled.fireMillis = next;
+			pushToAdd(scheduled);
+		}
+	}
+
+	// interrupts the worker of a run that is still going when its timer fires. run() is called on the ticker thread
+	private static final class AttemptTimeout implements Runnable {
+		private final Thread runner = Thread.currentThread();
+		private boolean over, fired;
+
+		public synchronized void run() {
+			if(over) return;
+			fired = true;
+			runner.interrupt();
+		}
+
+		// the run ended, true when it was interrupted for taking too long. no interrupt comes after this
+		synchronized boolean finish() {
+			over = true;
+			return fired;
+		}
+	}
+
+	public long pendingTimers() {
+		return pendingTimers;
+	}
+
+	public DeadLetterQueue deadLetters() {
+		return deadLetters;
+	}
+
+	public int retriesInFlight() {
+		return retriesInFlight.get();
+	}
+
+	public int retriesWaiting() {
+		return waitingRetries.size();
+	}
+
+	// the ticker is stopped first, so it is not in the middle of a tick handing jobs to a pool that is shut
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(ticker);
+		if(Thread.currentThread() != ticker) {
+			boolean interrupted = false;
+			while(ticker.isAlive()) {
+				try {
+					ticker.join();
+				}
+				catch(InterruptedException e) {
+					interrupted = true;		// the ticker ends within one tick, finish waiting and keep the interrupt
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		ticker.join(unit.toMillis(timeout));
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	static class Builder {
+		private int workers = Runtime.getRuntime().availableProcessors();
+		private long tickNanos = TimeUnit.MILLISECONDS.toNanos(1);
+		private JobExecutor notifications;
+		private FairShareJobQueue fairShare;
+		private RetryPolicy retry = RetryPolicy.NONE;
+		private DeadLetterQueue deadLetters = new DeadLetterQueue(1024);
+		private SchedulerMetrics metrics;
+
+		public Builder workers(int workers) {
+			if(workers <= 0) throw new IllegalArgumentException("workers must be positive");
+			this.workers = workers;
+			return this;
+		}
+
+		public Builder tick(long tick, TimeUnit unit) {
+			if(unit.toNanos(tick) <= 0) throw new IllegalArgumentException("tick must be positive");
+			this.tickNanos = unit.toNanos(tick);
+			return this;
+		}
+
+		// every run goes through Pending / In Progress / Done of this executor, which tells its listeners
+		public Builder notify(JobExecutor notifications) {
+			this.notifications = notifications;
+			return this;
+		}
+
+		// due jobs wait here and are run by priority, then fairly between tenants
+		public Builder fairShare(FairShareJobQueue fairShare) {
+			this.fairShare = fairShare;
+			return this;
+		}
+
+		// attempts, timeout and backoff of every run. RetryPolicy.NONE (one attempt, no timeout) when not set
+		public Builder retry(RetryPolicy retry) {
+			this.retry = retry;
+			return this;
+		}
+
+		// where runs go after their last failed attempt
+		public Builder deadLetters(DeadLetterQueue deadLetters) {
+			this.deadLetters = deadLetters;
+			return this;
+		}
+
+		// per job type queue wait, run time, failures, retries and queue depth
+		public Builder metrics(SchedulerMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		public JobScheduler build() {
+			return new JobScheduler(this);
+		}
+	}
+}
+
+
+
+public class SchedulerEngine_TimingWheel {
+	public static void main(String[] args) throws InterruptedException {
+		JobExecutor jobExecutor = new JobExecutor();
+		jobExecutor.addListener(new Listener("hema"));
+
+		JobScheduler scheduler = JobScheduler.builder().workers(2).notify(jobExecutor).build();
+
+		// one latch per job : with a shared one, heartbeats alone could count it down before report or backup ran
+		CountDownLatch report = new CountDownLatch(1), backup = new CountDownLatch(1), heartbeats = new CountDownLatch(2);
+		scheduler.schedule(new Job("report"), JobSchedule.after(50, TimeUnit.MILLISECONDS), report::countDown);
+		scheduler.schedule(new Job("backup"), JobSchedule.at(System.currentTimeMillis() + 100), backup::countDown);
+		ScheduledJob heartbeat = scheduler.schedule(new Job("heartbeat"), JobSchedule.every(0, 30, TimeUnit.MILLISECONDS), heartbeats::countDown);
+		ScheduledJob cleanup = scheduler.schedule(new Job("cleanup"), JobSchedule.after(80, TimeUnit.MILLISECONDS),
+				() -> System.out.println("cleanup should have been cancelled"));
+		cleanup.cancel();
+
+		report.await();
+		backup.await();
+		heartbeats.await();
+		heartbeat.cancel();
+		System.out.println("report, backup and 2 heartbeats ran, cleanup cancelled → " + cleanup.isCancelled());
+
+		JobSchedule everyFiveMinutes = JobSchedule.cron("0 */5 * * * *");
+		long now = System.currentTimeMillis();
+		System.out.println("cron 0 */5 * * * * next at " + Instant.ofEpochMilli(everyFiveMinutes.firstFireMillis(now)));
+		System.out.println("cron 0 9 * * 1-5 (weekdays 9:00) next at " + Instant.ofEpochMilli(JobSchedule.cron("0 9 * * 1-5").firstFireMillis(now)));
+
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+	}
+}
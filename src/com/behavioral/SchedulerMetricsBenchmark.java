@@ -0,0 +1,100 @@
+/*
+ * Benchmark for SchedulerMetrics in SchedulerMetrics_Observer
+ *
+ * - scheduling throughput : 500k empty jobs (and 100k jobs of 10 µs), all due at once, through a JobScheduler with 1 and 4 workers,
+ *   without metrics, with metrics, and with metrics + tracing of 1 run in 1000. jobs/s from the first schedule() to the last run.
+ *   empty jobs show the cost per run in full (2 clock reads, 2 histograms, the queue depth), 10 µs jobs what is left of it
+ *   once the jobs do something.
+ * - recording cost : 1, 4 and 16 threads record 5M run times each into one histogram and one counter,
+ *   a plain LatencyHistogram + AtomicLong against a striped LatencyHistogram + LongAdder (what JobTypeStats uses).
+ *   striping only pays off when threads really run at the same time on different cores.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main(). every number is the best of 5 rounds,
+ * with few cpus the worker, the ticker and the scheduling thread fight for them and single rounds vary a lot.
+ * run it with: java -cp bin com.behavioral.SchedulerMetricsBenchmark
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SchedulerMetricsBenchmark {
+	static final int JOBS = 500_000;
+	static final int RECORDS = 5_000_000;
+	static final int ROUNDS = 5;
+
+	static double schedulerRate(int workers, SchedulerMetrics metrics, int jobs, long workNanos) throws InterruptedException {
+		JobScheduler.Builder builder = JobScheduler.builder().workers(workers);
+		if(metrics != null) builder.metrics(metrics);
+		JobScheduler scheduler = builder.build();
+
+		CountDownLatch done = new CountDownLatch(jobs);
+		JobSchedule now = JobSchedule.after(0, TimeUnit.MILLISECONDS);
+		Runnable work = workNanos == 0 ? done::countDown : () -> {
+			spin(workNanos);
+			done.countDown();
+		};
+		long start = System.nanoTime();
+		for(int i = 0; i < jobs; i++) scheduler.schedule(new Job("job" + (i & 7)), now, work);
+		done.await();
+		double rate = jobs / ((System.nanoTime() - start) / 1e9);
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		return rate;
+	}
+
+	static double recordRate(int threads, boolean striped) throws InterruptedException {
+		LatencyHistogram histogram = striped ? new LatencyHistogram(Runtime.getRuntime().availableProcessors()) : new LatencyHistogram();
+		LongAdder adder = new LongAdder();
+		AtomicLong atomic = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				for(int i = 0; i < RECORDS; i++) {
+					histogram.record(40_000 + (i & 1023));		// all in the same few buckets, the worst case for sharing
+					if(striped) adder.increment();
+					else atomic.incrementAndGet();
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		return (double) threads * RECORDS / ((System.nanoTime() - start) / 1e9);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		System.out.printf("%d cpus%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-8s %-8s %16s %16s %20s%n", "job", "workers", "no metrics/s", "metrics/s", "metrics+trace/s");
+		for(long workNanos: new long[] {0, 10_000}) {
+			int jobs = workNanos == 0 ? JOBS : JOBS / 5;
+			for(int workers: new int[] {1, 4}) {
+				double[] result = new double[3];
+				for(int round = 0; round < ROUNDS; round++) {
+					result[0] = Math.max(result[0], schedulerRate(workers, null, jobs, workNanos));
+					result[1] = Math.max(result[1], schedulerRate(workers, SchedulerMetrics.builder().build(), jobs, workNanos));
+					result[2] = Math.max(result[2], schedulerRate(workers, SchedulerMetrics.builder().trace(span -> { }, 1_000).build(), jobs, workNanos));
+				}
+				System.out.printf("%-8s %-8d %,16.0f %,16.0f %,20.0f%n", workNanos == 0 ? "empty" : "10 µs", workers, result[0], result[1], result[2]);
+			}
+		}
+
+		System.out.printf("%-8s %22s %22s%n", "threads", "plain records/s", "striped records/s");
+		for(int threads: new int[] {1, 4, 16}) {
+			double plain = 0, striped = 0;
+			for(int round = 0; round < ROUNDS; round++) {
+				plain = Math.max(plain, recordRate(threads, false));
+				striped = Math.max(striped, recordRate(threads, true));
+			}
+			System.out.printf("%-8d %,22.0f %,22.0f%n", threads, plain, striped);
+		}
+	}
+
+	private static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) { }
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Scheduler Metrics and Tracing (Observer)
+Follow up of: Scheduler Engine on a Timing Wheel and Job Retry, Timeout and Backoff
+
+Requirement
+Nobody can see how long jobs wait for a worker, how long they run, or how often they fail.
+Per job type :
+time from queued (due) to started, as a histogram
+run time, as a histogram
+started, succeeded, failed, retried, timed out, dead lettered
+queue depth right now
+Snapshots of all of it, pulled on demand or pushed every few seconds to an exporter.
+Sampled traces of single runs.
+Switched on it must not slow scheduling down : no lock, no allocation per run, striped counters.
+
+Patterns Used
+Observer → JobScheduler reports every run into SchedulerMetrics, exporters and a JobTracer are told from there
+Builder → SchedulerMetrics is configured once
+ */
+
+
+/*
+ * - a job type is a string taken from the job, by default its name without the trailing number ("report17" → "report").
+ *   the JobTypeStats of a job is looked up once, when it is scheduled, and kept on the ScheduledJob. a run never touches the map.
+ *   with the default types the last type found is tried first, "report18" after "report17" costs no substring and no hash.
+ * - counters are LongAdders, histograms are LatencyHistograms with one stripe per cpu : workers that finish jobs of the same type
+ *   at the same time increment different cells instead of fighting over one cache line.
+ * - a run that goes fine touches 2 histograms and the queue depth, nothing else : started is the count of the wait histogram,
+ *   succeeded is the count of the run time histogram minus failed.
+ * - queue depth = due jobs (and due retries) that no worker started yet. +1 when due, -1 when a worker takes it.
+ * - the clock is read once per tick for all jobs that become due in it, and twice per run (start, end).
+ *   queue wait is counted from the start of the tick, so it can be up to a tick too long.
+ * - a snapshot reads every counter once, it is not atomic across counters : started can be one ahead of succeeded + failed.
+ *   the numbers are totals since the start, a rate is the difference of two snapshots.
+ * - traces are sampled (1 run in sampleEvery), a run that is not sampled allocates nothing.
+ */
+
+package com.behavioral;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+final class JobTypeStats {
+	final String type;
+	final LatencyHistogram queueWait;
+	final LatencyHistogram runTime;
+	final LongAdder queueDepth = new LongAdder();
+	final LongAdder failed = new LongAdder();		// attempts that threw or timed out, retried or not
+	final LongAdder retried = new LongAdder();
+	final LongAdder timedOut = new LongAdder();
+	final LongAdder deadLettered = new LongAdder();
+
+	JobTypeStats(String type, int stripes) {
+		this.type = type;
+		this.queueWait = new LatencyHistogram(stripes);
+		this.runTime = new LatencyHistogram(stripes);
+	}
+
+	void queued() {
+		queueDepth.increment();
+	}
+
+	void dequeued() {
+		queueDepth.decrement();
+	}
+
+	void started(long waitNanos) {
+		queueWait.record(waitNanos);
+	}
+
+	void finished(long runNanos, boolean ok) {
+		if(!ok) failed.increment();		// before the run time, so a snapshot never sees more failed than ended
+		runTime.record(runNanos);
+	}
+
+	JobTypeMetrics snapshot() {
+		long failedRuns = failed.sum();
+		LatencyHistogram.Snapshot waits = queueWait.snapshot(), runs = runTime.snapshot();
+		return new JobTypeMetrics(type, queueDepth.sum(), waits.count(), Math.max(0, runs.count() - failedRuns), failedRuns,
+				retried.sum(), timedOut.sum(), deadLettered.sum(), waits, runs);
+	}
+}
+
+final class JobTypeMetrics {
+	final String type;
+	final long queueDepth, started, succeeded, failed, retried, timedOut, deadLettered;
+	final LatencyHistogram.Snapshot queueWait, runTime;
+
+	JobTypeMetrics(String type, long queueDepth, long started, long succeeded, long failed, long retried, long timedOut,
+			long deadLettered, LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot runTime) {
+		this.type = type;
+		this.queueDepth = queueDepth;
+		this.started = started;
+		this.succeeded = succeeded;
+		this.failed = failed;
+		this.retried = retried;
+		this.timedOut = timedOut;
+		this.deadLettered = deadLettered;
+		this.queueWait = queueWait;
+		this.runTime = runTime;
+	}
+
+	// failed attempts / attempts that ended
+	public double failureRate() {
+		long ended = succeeded + failed;
+		return ended == 0 ? 0 : (double) failed / ended;
+	}
+
+	public String toString() {
+		return String.format("depth %d, started %d, ok %d, failed %d (%.1f%%), retried %d, timed out %d, dead %d | "
+				+ "wait p50 %d µs p99 %d µs | run p50 %d µs p99 %d µs max %d µs",
+				queueDepth, started, succeeded, failed, failureRate() * 100, retried, timedOut, deadLettered,
+				micros(queueWait.percentile(50)), micros(queueWait.percentile(99)),
+				micros(runTime.percentile(50)), micros(runTime.percentile(99)), micros(runTime.max()));
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
+
+// one sampled run
+final class JobSpan {
+	final Job job;
+	final String type;
+	final int attempt;
+	final long waitNanos, runNanos;
+	final Throwable error;		// null → succeeded
+
+	JobSpan(Job job, String type, int attempt, long waitNanos, long runNanos, Throwable error) {
+		this.job = job;
+		this.type = type;
+		this.attempt = attempt;
+		this.waitNanos = waitNanos;
+		this.runNanos = runNanos;
+		this.error = error;
+	}
+
+	public String toString() {
+		return String.format("%s [%s] attempt %d waited %d µs ran %d µs %s", job.name, type, attempt,
+				TimeUnit.NANOSECONDS.toMicros(waitNanos), TimeUnit.NANOSECONDS.toMicros(runNanos), error == null ? "ok" : "→ " + error);
+	}
+}
+
+interface JobTracer {
+	// called on the worker that ran the job, keep it short or hand the span off
+	void trace(JobSpan span);
+}
+
+class SchedulerMetrics implements Closeable {
+	private static final Function<Job, String> TYPE_OF_NAME = SchedulerMetrics::typeOfName;
+
+	private final ConcurrentHashMap<String, JobTypeStats> types = new ConcurrentHashMap<>();
+	private final Function<Job, String> typeOf;
+	private final int stripes;
+	private final JobTracer tracer;		// may be null
+	private final int sampleEvery;
+	private ScheduledExecutorService exporter;
+	private volatile JobTypeStats lastType;		// default types only, whichever thread looked up last
+
+	private SchedulerMetrics(Builder builder) {
+		this.typeOf = builder.typeOf;
+		this.stripes = builder.stripes;
+		this.tracer = builder.tracer;
+		this.sampleEvery = builder.sampleEvery;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	// "report17" → "report", "import-42" → "import", "cleanup" → "cleanup"
+	static String typeOfName(Job job) {
+		int end = typeEnd(job.name);
+		return end == job.name.length() ? job.name : job.name.substring(0, end);
+	}
+
+	// length of the type at the start of the name : without trailing digits, then without trailing - _ .
+	private static int typeEnd(String name) {
+		int end = name.length();
+		while(end > 0 && Character.isDigit(name.charAt(end - 1))) end--;
+		while(end > 0 && (name.charAt(end - 1) == '-' || name.charAt(end - 1) == '_' || name.charAt(end - 1) == '.')) end--;
+		return end == 0 ? name.length() : end;
+	}
+
+	JobTypeStats statsOf(Job job) {
+		if(typeOf != TYPE_OF_NAME) return types.computeIfAbsent(typeOf.apply(job), type -> new JobTypeStats(type, stripes));
+
+		JobTypeStats last = lastType;
+		int end = typeEnd(job.name);
+		if(last != null && end == last.type.length() && job.name.startsWith(last.type)) return last;
+		JobTypeStats stats = types.computeIfAbsent(job.name.substring(0, end), type -> new JobTypeStats(type, stripes));
+		lastType = stats;
+		return stats;
+	}
+
+	void trace(Job job, JobTypeStats stats, int attempt, long waitNanos, long runNanos, Throwable error) {
+		if(tracer == null) return;
+		if(sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) return;
+		tracer.trace(new JobSpan(job, stats.type, attempt, waitNanos, runNanos, error));
+	}
+
+	// by job type, sorted
+	public Map<String, JobTypeMetrics> snapshot() {
+		Map<String, JobTypeMetrics> snapshot = new TreeMap<>();
+		for(JobTypeStats stats: types.values()) snapshot.put(stats.type, stats.snapshot());
+		return snapshot;
+	}
+
+	// hands a snapshot to the exporter every period, on a thread of its own
+	public synchronized void exportEvery(long period, TimeUnit unit, Consumer<Map<String, JobTypeMetrics>> export) {
+		if(exporter == null) {
+			exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "scheduler-metrics-exporter");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		exporter.scheduleAtFixedRate(() -> export.accept(snapshot()), period, period, unit);
+	}
+
+	@Override
+	public synchronized void close() {
+		if(exporter != null) exporter.shutdown();
+	}
+
+	static class Builder {
+		private Function<Job, String> typeOf = TYPE_OF_NAME;
+		private int stripes = Runtime.getRuntime().availableProcessors();
+		private JobTracer tracer;
+		private int sampleEvery = 1;
+
+		// groups jobs into types, keep the number of types small (every type has its own histograms)
+		public Builder typeOf(Function<Job, String> typeOf) {
+			this.typeOf = typeOf;
+			return this;
+		}
+
+		// of every histogram, the number of cpus by default
+		public Builder stripes(int stripes) {
+			if(stripes <= 0) throw new IllegalArgumentException("stripes must be positive");
+			this.stripes = stripes;
+			return this;
+		}
+
+		// 1 run in sampleEvery is traced
+		public Builder trace(JobTracer tracer, int sampleEvery) {
+			if(sampleEvery <= 0) throw new IllegalArgumentException("sampleEvery must be positive");
+			this.tracer = tracer;
+			this.sampleEvery = sampleEvery;
+			return this;
+		}
+
+		public SchedulerMetrics build() {
+			return new SchedulerMetrics(this);
+		}
+	}
+}
+
+
+
+public class SchedulerMetrics_Observer {
+	public static void main(String[] args) throws InterruptedException {
+		AtomicInteger traced = new AtomicInteger();
+		SchedulerMetrics metrics = SchedulerMetrics.builder()
+				.trace(span -> {
+					if(traced.incrementAndGet() <= 3) System.out.println("trace : " + span);
+				}, 100)
+				.build();
+		metrics.exportEvery(200, TimeUnit.MILLISECONDS, snapshot -> {
+			JobTypeMetrics reports = snapshot.get("report");
+			if(reports != null) System.out.println("export : report → depth " + reports.queueDepth + ", ok " + reports.succeeded);
+		});
+
+		RetryPolicy policy = RetryPolicy.builder().maxAttempts(3).timeout(50, TimeUnit.MILLISECONDS)
+				.backoff(5, 50, TimeUnit.MILLISECONDS).build();
+		JobScheduler scheduler = JobScheduler.builder().workers(2).retry(policy).metrics(metrics).build();
+
+		// 2000 quick reports, 200 slow exports, 100 syncs of which every third fails once, 5 hanging uploads
+		CountDownLatch done = new CountDownLatch(2_300);
+		for(int i = 0; i < 2_000; i++) {
+			scheduler.schedule(new Job("report" + i), JobSchedule.after(i / 4, TimeUnit.MILLISECONDS), () -> {
+				busy(50_000);
+				done.countDown();
+			});
+		}
+		for(int i = 0; i < 200; i++) {
+			scheduler.schedule(new Job("export-" + i), JobSchedule.after(i * 2, TimeUnit.MILLISECONDS), () -> {
+				busy(1_000_000);
+				done.countDown();
+			});
+		}
+		for(int i = 0; i < 100; i++) {
+			boolean flaky = i % 3 == 0;
+			AtomicInteger runs = new AtomicInteger();
+			scheduler.schedule(new Job("sync" + i), JobSchedule.after(i * 3, TimeUnit.MILLISECONDS), () -> {
+				if(flaky && runs.incrementAndGet() == 1) throw new IllegalStateException("remote busy");
+				done.countDown();
+			});
+		}
+		for(int i = 0; i < 5; i++) {
+			scheduler.schedule(new Job("upload" + i), JobSchedule.after(0, TimeUnit.MILLISECONDS), () -> {
+				try {
+					Thread.sleep(10_000);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		done.await();
+		while(scheduler.deadLetters().size() < 5) Thread.sleep(10);
+
+		System.out.println("traced " + traced.get() + " runs (1 in 100)");
+		metrics.snapshot().forEach((type, typeMetrics) -> System.out.println(type + " → " + typeMetrics));
+		metrics.close();
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.SECONDS);
+	}
+
+	private static void busy(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) { }
+	}
+}
@@ -16,15 +16,35 @@ Observer → job listeners
 package com.behavioral;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 class Job {
+	private static final AtomicLong IDS = new AtomicLong();
+
+	final long id;		// unique per process, used to find the job again (e.g. to remove it from the queue)
 	String name;
+	final String tenant;		// who submitted it, jobs of different tenants share the workers fairly
+	final JobPriority priority;
 
 	public Job(String name) {
+		this(name, "default", JobPriority.NORMAL);
+	}
+
+	public Job(String name, String tenant, JobPriority priority) {
+		this.id = IDS.incrementAndGet();
 		this.name = name;
+		this.tenant = tenant;
+		this.priority = priority;
+	}
+
+	// a job read back from the job store keeps its id, and new jobs get ids after it
+	Job(long id, String name, String tenant, JobPriority priority) {
+		IDS.accumulateAndGet(id, Math::max);
+		this.id = id;
+		this.name = name;
+		this.tenant = tenant;
+		this.priority = priority;
 	}
 }
 
@@ -34,6 +54,11 @@ class Listener {
 	public Listener(String name) {
 		this.name = name;
 	}
+	
+	// called for every state a job goes through. override to do more than print
+	public void onStatus(Job job, IJobStatus jobStatus) {
+		System.out.println("Informing this to " + name);
+	}
 }
 
 
@@ -101,7 +126,7 @@ class JobExecutor {
 	public void executeJob(IJobStatus jobStatus, Job job) {
 		System.out.println(job.name + " is in " + jobStatus + " state");
 		for(Listener l: listners) {
-			System.out.println("Informing this to " + l.name);
+			l.onStatus(job, jobStatus);
 		}
 	}
 	
@@ -121,10 +146,12 @@ class JobExecutor {
 
 // singleton
 class JobQueueSingleton {
-	Queue<Job> jobQueue;
+	static final int CAPACITY = 1 << 16;
+	
+	BoundedJobQueue jobQueue;		// many producer threads add jobs, a plain LinkedList was not safe for that
 	
 	private JobQueueSingleton() {
-		jobQueue = new LinkedList<Job>();
+		jobQueue = new BoundedJobQueue(CAPACITY);
 	}
 	
 	private static class JobQueueSingletonInner {
@@ -135,15 +162,17 @@ class JobQueueSingleton {
 		return JobQueueSingletonInner.INSTACE;
 	}
 	
-	public void addJob(Job job) {
-		jobQueue.add(job);
+	// false when the queue is full
+	public boolean addJob(Job job) {
+		return jobQueue.offer(job);
 	}
 	
-	public void removeJob(Job job) {
-		jobQueue.remove();
+	// removes this job, not whichever is at the head
+	public boolean removeJob(Job job) {
+		return jobQueue.remove(job.id);
 	}
 	
-	public Queue<Job> getJobQueue() {
+	public BoundedJobQueue getJobQueue() {
 		return jobQueue;
 	}
 }
@@ -169,7 +198,8 @@ public class SchedulerSystem_CommandSingletonObserver {
 	
 	private static void executeAllJobs() {
 		JobQueueSingleton jobQueueSingleton = JobQueueSingleton.getInstance();
-		Queue<Job> jobs = jobQueueSingleton.getJobQueue();
+		List<Job> jobs = new ArrayList<Job>();
+		jobQueueSingleton.getJobQueue().drainTo(jobs::add, Integer.MAX_VALUE);
 		
 		JobExecutor jobExecutor = new JobExecutor();
 		IJobStatus[] jobStatus = {new Pending(jobExecutor), new InProgress(jobExecutor), new Done(jobExecutor)};
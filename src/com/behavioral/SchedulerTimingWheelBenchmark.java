@@ -0,0 +1,90 @@
+/*
+ * Benchmark for JobScheduler in SchedulerEngine_TimingWheel against ScheduledThreadPoolExecutor
+ *
+ * - 1M timers with random delays between 1 min and 1 h are scheduled, then all of them cancelled. none of them fires.
+ * - schedule / cancel : calls per second seen by the caller, from 1 and from 4 threads.
+ * - wheel settled : time until the ticker has moved every timer into (or out of) the wheel,
+ *   the caller does not wait for it but it is work that has to keep up.
+ * - ScheduledThreadPoolExecutor with remove-on-cancel, otherwise cancelled timers stay in its heap until they are due.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with warmup + measured rounds.
+ * run it with: java -cp bin com.behavioral.SchedulerTimingWheelBenchmark
+ */
+
+package com.behavioral;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class SchedulerTimingWheelBenchmark {
+	static final int TIMERS = 1_000_000;
+	static final int ROUNDS = 3;
+	static final Runnable NOTHING = () -> { };
+
+	interface Phase {
+		void run(int from, int to);
+	}
+
+	// runs the phase split over threads, returns calls per second
+	static double timed(int threads, Phase phase) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++) {
+			int from = TIMERS / threads * t, to = t == threads - 1 ? TIMERS : from + TIMERS / threads;
+			new Thread(() -> {
+				phase.run(from, to);
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		return TIMERS / ((System.nanoTime() - start) / 1e9);
+	}
+
+	static long[] delays() {
+		long[] delays = new long[TIMERS];
+		for(int i = 0; i < TIMERS; i++) delays[i] = ThreadLocalRandom.current().nextLong(60_000, 3_600_000);
+		return delays;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long[] delays = delays();
+		Job job = new Job("benchmark");
+
+		System.out.printf("%-28s %8s %16s %16s %14s%n", "", "threads", "schedule/s", "cancel/s", "settled ms");
+		for(int threads: new int[] {1, 4}) {
+			for(int round = 0; round < ROUNDS; round++) {
+				boolean report = round == ROUNDS - 1;
+
+				JobScheduler scheduler = JobScheduler.builder().workers(1).build();
+				ScheduledJob[] handles = new ScheduledJob[TIMERS];
+				long start = System.nanoTime();
+				double schedule = timed(threads, (from, to) -> {
+					for(int i = from; i < to; i++) handles[i] = scheduler.schedule(job, JobSchedule.after(delays[i], TimeUnit.MILLISECONDS), NOTHING);
+				});
+				while(scheduler.pendingTimers() < TIMERS) Thread.sleep(1);
+				long settledIn = System.nanoTime() - start;
+				double cancel = timed(threads, (from, to) -> {
+					for(int i = from; i < to; i++) handles[i].cancel();
+				});
+				while(scheduler.pendingTimers() > 0) Thread.sleep(1);
+				scheduler.shutdown();
+				if(report) System.out.printf("%-28s %8d %,16.0f %,16.0f %14d%n", "timing wheel", threads, schedule, cancel, TimeUnit.NANOSECONDS.toMillis(settledIn));
+
+				ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+				executor.setRemoveOnCancelPolicy(true);
+				ScheduledFuture<?>[] futures = new ScheduledFuture<?>[TIMERS];
+				double stpeSchedule = timed(threads, (from, to) -> {
+					for(int i = from; i < to; i++) futures[i] = executor.schedule(NOTHING, delays[i], TimeUnit.MILLISECONDS);
+				});
+				double stpeCancel = timed(threads, (from, to) -> {
+					for(int i = from; i < to; i++) futures[i].cancel(false);
+				});
+				executor.shutdownNow();
+				if(report) System.out.printf("%-28s %8d %,16.0f %,16.0f %14s%n", "ScheduledThreadPoolExecutor", threads, stpeSchedule, stpeCancel, "-");
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Benchmark for HotSwapAlgorithm in StrategyHotSwap_WarmUpReplay
+ *
+ * - a feed thread publishes 2M ticks through MarketDataFeed at 1M ticks/s (paced by the clock), the price of tick n is n.
+ * - meanwhile the main thread hot swaps the strategy of one HotSwapAlgorithm 200 times (about one swap every 5 ms),
+ *   with a warm up of 0, 200 and 10000 ticks (one run each).
+ * - a last run, "200 late", warms up 200 ticks and then waits for 100 more ticks before it sends the request, so on every swap
+ *   the feed replays at least 100 ticks itself at the cut over (feed rep >= 100). that path is checked on every swap,
+ *   not only when the timing happens to hit it.
+ * - every strategy checks the prices it is given : each one must be the one before + 1. skipped → lost, same or lower → twice.
+ *   across a swap, the last tick of the old strategy + 1 must be the cut over tick of the new one.
+ * - swap µs : hotSwap called → new strategy live (warm up on the swapping thread + waiting for the next tick).
+ *   feed pause µs : what the cut over added to that one tick on the feed thread (the few ticks it replays itself + the switch).
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main().
+ * run it with: java -cp bin com.behavioral.StrategyHotSwapBenchmark
+ */
+
+package com.behavioral;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class StrategyHotSwapBenchmark {
+	static final int TICKS = 2_000_000;
+	static final long INTERVAL_NANOS = 1_000;
+	static final int SWAPS = 200;
+
+	// checks it gets consecutive prices
+	static final class SequenceStrategy implements TradingStrategy {
+		long first = -1, last = -1, lost, twice;
+
+		@Override
+		public void execute(int price) {
+			if(first < 0) first = price;
+			else if(price > last + 1) lost += price - last - 1;
+			else if(price <= last) twice++;
+			last = Math.max(last, price);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		System.out.printf("%d cpus, %,d ticks at 1M/s, %d swaps per run%n", Runtime.getRuntime().availableProcessors(), TICKS, SWAPS);
+		System.out.printf("%-8s %6s %9s %9s %9s %11s %11s %11s %9s %6s %6s%n", "warm up", "swaps", "swap p50", "swap p99", "swap max",
+				"pause p50", "pause p99", "pause max", "feed rep", "lost", "twice");
+		for(int warmup: new int[] {0, 200, 10_000}) run(String.valueOf(warmup), warmup, 0);
+		run("200 late", 200, 100);
+	}
+
+	// lateTicks > 0 → the request goes out lateTicks ticks after the warm up, the feed has to replay them
+	private static void run(String label, int warmup, int lateTicks) throws InterruptedException {
+		MarketDataFeed feed = MarketDataFeed.getInstance();
+		SequenceStrategy initial = new SequenceStrategy();
+		HotSwapAlgorithm algorithm = new HotSwapAlgorithm("hot", initial, 1 << 15);
+		if(lateTicks > 0) algorithm.beforeRequest = () -> {
+			long until = algorithm.ticks() + lateTicks;
+			while(algorithm.ticks() < until) Thread.yield();
+		};
+		feed.register(algorithm);
+
+		Thread publisher = new Thread(() -> {
+			long start = System.nanoTime();
+			for(int tick = 0; tick < TICKS; tick++) {
+				long due = start + tick * INTERVAL_NANOS;
+				while(System.nanoTime() < due) Thread.yield();
+				feed.setMarketPrice(tick);
+			}
+		}, "feed");
+		publisher.start();
+
+		List<SequenceStrategy> strategies = new ArrayList<>();
+		List<StrategySwap> swaps = new ArrayList<>();
+		strategies.add(initial);
+		LatencyHistogram swapLatency = new LatencyHistogram(), feedPause = new LatencyHistogram();
+		long feedReplayed = 0;
+		while(algorithm.ticks() < warmup + 1) Thread.yield();
+		for(int i = 0; i < SWAPS && algorithm.ticks() < TICKS - 100_000; i++) {
+			SequenceStrategy next = new SequenceStrategy();
+			StrategySwap swap = algorithm.hotSwap(next, warmup, 1, TimeUnit.SECONDS);
+			strategies.add(next);
+			swaps.add(swap);
+			swapLatency.record(swap.swapNanos);
+			feedPause.record(swap.feedPauseNanos);
+			feedReplayed += swap.feedReplayed;
+			if(swap.feedReplayed < lateTicks) throw new IllegalStateException("swap " + i + " : the feed replayed " + swap.feedReplayed + " ticks, expected at least " + lateTicks);
+			LockSupport.parkNanos(5_000_000);
+		}
+		publisher.join();
+		feed.unregister(algorithm);
+
+		// within every strategy, then across every cut over
+		long lost = 0, twice = 0;
+		for(SequenceStrategy strategy: strategies) {
+			lost += strategy.lost;
+			twice += strategy.twice;
+		}
+		for(int i = 0; i < swaps.size(); i++) {
+			long oldLast = strategies.get(i).last, cutOver = swaps.get(i).cutOverTick;
+			if(cutOver > oldLast + 1) lost += cutOver - oldLast - 1;
+			if(cutOver <= oldLast) twice += oldLast + 1 - cutOver;
+			SequenceStrategy next = strategies.get(i + 1);
+			long expectedFirst = cutOver - swaps.get(i).feedReplayed - swaps.get(i).warmedUp;
+			if(next.first != expectedFirst) throw new IllegalStateException("swap " + i + " : first tick " + next.first + ", expected " + expectedFirst);
+		}
+		lost += TICKS - 1 - strategies.get(strategies.size() - 1).last;
+
+		LatencyHistogram.Snapshot swap = swapLatency.snapshot(), pause = feedPause.snapshot();
+		System.out.printf("%-8s %6d %9.1f %9.1f %9.1f %11.1f %11.1f %11.1f %9.1f %6d %6d%n", label, swaps.size(),
+				swap.percentile(50) / 1e3, swap.percentile(99) / 1e3, swap.max() / 1e3,
+				pause.percentile(50) / 1e3, pause.percentile(99) / 1e3, pause.max() / 1e3,
+				(double) feedReplayed / swaps.size(), lost, twice);
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Strategy Hot Swap with Warm Up Replay (Strategy + Observer)
+Follow up of: Trading Platform (Observer + Strategy + Singleton) and Trading Signals on Rolling Windows
+
+Requirement
+TradingAlgorithm.setStrategy wrote a plain field from another thread : the feed thread could keep the old strategy forever,
+or read the field twice in one tick and hand half of it to each strategy.
+A safe hot swap :
+the new strategy is published atomically and goes live at a tick boundary, the feed never pauses for it
+optionally, before going live, it is warmed up with the last N ticks (a 200 tick moving average is useless with 0 ticks in it)
+no tick is lost or handled twice across the swap : the old strategy has every tick up to the cut over, the new one every tick from it
+Swap latency reported, exactly once checked (StrategyHotSwapBenchmark).
+
+Patterns Used
+Strategy → the strategy is swapped while the algorithm keeps running
+Observer → the algorithm is still a plain subscriber of MarketDataFeed
+ */
+
+
+/*
+ * - TradingAlgorithm.strategy is volatile now and read once per tick, setStrategy alone is safe (no warm up, next tick).
+ * - HotSwapAlgorithm keeps the last ticks in an int ring (history) and publishes how many it received with a release store.
+ * - hotSwap(strategy, n), on the thread that swaps, not the feed's :
+ *   1. replays the last n ticks from the history into the new strategy, on the swapping thread. nobody else has it yet.
+ *   2. the feed went on meanwhile : replays what came in since, again, until it is less than 64 ticks behind.
+ *   3. publishes a request (new strategy, first tick it has not seen) in one atomic reference.
+ *   4. the feed checks that reference once per tick. on the next tick it replays the few ticks the new strategy is still
+ *      missing, switches the strategy, and hands it the current tick. that is the cut over : one tick a bit longer, no pause.
+ *   every tick before the cut over went to the old strategy only, every tick from it to the new one only,
+ *   and the new one saw the warm up ticks once each, in order, right before.
+ * - the warm up can not catch up if the feed overwrites the history it is replaying : hotSwap throws, the history must be
+ *   bigger (it has to be at least 2 x n anyway).
+ * - a strategy that acts on what it sees (sends orders) also sees the replay. it should not act until getStrategy() returns it.
+ * - one swap at a time per algorithm. if no tick comes within the timeout, the request is taken back and nothing changed.
+ */
+
+package com.behavioral;
+
+import java.lang.invoke.VarHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// what one hot swap did
+final class StrategySwap {
+	final long cutOverTick;		// first tick the new strategy got live
+	final long warmedUp;		// ticks replayed on the swapping thread
+	final long feedReplayed;		// ticks replayed by the feed at the cut over, the ones that came in while the request was on its way
+	final long swapNanos;		// hotSwap called → new strategy live
+	final long feedPauseNanos;		// time the cut over added to that tick on the feed thread
+
+	StrategySwap(long cutOverTick, long warmedUp, long feedReplayed, long swapNanos, long feedPauseNanos) {
+		this.cutOverTick = cutOverTick;
+		this.warmedUp = warmedUp;
+		this.feedReplayed = feedReplayed;
+		this.swapNanos = swapNanos;
+		this.feedPauseNanos = feedPauseNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("live at tick %d after %d warm up ticks (+%d replayed by the feed), swap took %.1f µs, feed paused %.1f µs",
+				cutOverTick, warmedUp, feedReplayed, swapNanos / 1e3, feedPauseNanos / 1e3);
+	}
+}
+
+final class HotSwapAlgorithm extends TradingAlgorithm {
+	private static final int CATCH_UP = 64;		// ticks the feed replays itself at most, in the normal case
+
+	private static final class SwapRequest {
+		final TradingStrategy strategy;
+		final long from;		// first tick the strategy has not seen, -1 → no warm up, it starts at the cut over
+		final long warmedUp;
+		final long startNanos;
+		volatile StrategySwap result;
+		volatile boolean rejected;
+
+		SwapRequest(TradingStrategy strategy, long from, long warmedUp, long startNanos) {
+			this.strategy = strategy;
+			this.from = from;
+			this.warmedUp = warmedUp;
+			this.startNanos = startNanos;
+		}
+	}
+
+	private final int[] history;
+	private final int mask;
+	private final PaddedSequence published = new PaddedSequence(0);		// ticks received, the history below it can be read
+	private final AtomicReference<SwapRequest> pending = new AtomicReference<>();
+	private long received;		// feed thread only
+	Runnable beforeRequest = () -> { };		// runs between the warm up and the request, StrategyHotSwapBenchmark holds the feed's ticks back there
+
+	HotSwapAlgorithm(String name, TradingStrategy strategy, int historyCapacity) {
+		super(name, strategy, false);
+		if(historyCapacity < 2 || Integer.bitCount(historyCapacity) != 1) throw new IllegalArgumentException("history capacity must be a power of 2, got " + historyCapacity);
+		this.history = new int[historyCapacity];
+		this.mask = historyCapacity - 1;
+	}
+
+	/* ---------- feed thread ---------- */
+
+	@Override
+	public void onPriceUpdate(int price) {
+		long tick = received;
+		SwapRequest request = pending.get();
+		if(request != null) cutOver(request, tick);
+		history[(int) tick & mask] = price;
+		received = tick + 1;
+		published.set(tick + 1);
+		super.onPriceUpdate(price);
+	}
+
+	private void cutOver(SwapRequest request, long tick) {
+		if(!pending.compareAndSet(request, null)) return;		// taken back by hotSwap meanwhile
+		long start = System.nanoTime();
+		long from = request.from < 0 ? tick : request.from;
+		if(tick - from > history.length) {		// the ticks it misses are overwritten already
+			request.rejected = true;
+			return;
+		}
+		for(long missed = from; missed < tick; missed++) request.strategy.execute(history[(int) missed & mask]);
+		setStrategy(request.strategy);
+		long now = System.nanoTime();
+		request.result = new StrategySwap(tick, request.warmedUp, tick - from, now - request.startNanos, now - start);
+	}
+
+	/* ---------- swapping thread ---------- */
+
+	// warms strategy up with the last warmupTicks ticks and makes it live at the next tick after that. not on the feed thread
+	public StrategySwap hotSwap(TradingStrategy strategy, int warmupTicks, long timeout, TimeUnit unit) {
+		if(warmupTicks < 0 || warmupTicks > history.length / 2) throw new IllegalArgumentException("warmupTicks must be between 0 and " + history.length / 2);
+		long start = System.nanoTime(), deadline = start + unit.toNanos(timeout);
+
+		long from = -1, warmedUp = 0;
+		if(warmupTicks > 0) {
+			from = Math.max(0, published.get() - warmupTicks);
+			long first = from;
+			from = catchUp(strategy, from);
+			warmedUp = from - first;
+		}
+
+		beforeRequest.run();
+		SwapRequest request = new SwapRequest(strategy, from, warmedUp, start);
+		if(!pending.compareAndSet(null, request)) throw new IllegalStateException("another swap is in progress on " + getName());
+		while(request.result == null) {
+			if(request.rejected) throw new IllegalStateException("the feed overwrote the ticks " + getName() + " still needed, use a bigger history");
+			if(System.nanoTime() > deadline && pending.compareAndSet(request, null)) {
+				throw new IllegalStateException("no tick on " + getName() + " within " + timeout + " " + unit + ", strategy not swapped");
+			}
+			Thread.yield();
+		}
+		return request.result;
+	}
+
+	// replays from → what the feed published, until less than CATCH_UP ticks behind. the first tick not replayed
+	private long catchUp(TradingStrategy strategy, long from) {
+		while(true) {
+			long upTo = published.get();
+			for(long tick = from; tick < upTo; tick++) strategy.execute(history[(int) tick & mask]);
+			VarHandle.loadLoadFence();		// the history is read before published is read again, else the check could pass on an overwritten price
+			if(published.get() - from >= history.length) {		// at length the feed may be writing tick from + length over tick from
+				throw new IllegalStateException("the feed overwrote the history while " + getName() + " warmed up, use a bigger history");
+			}
+			from = upTo;
+			if(published.get() - from < CATCH_UP) return from;
+		}
+	}
+
+	// ticks received so far, any thread
+	public long ticks() {
+		return published.get();
+	}
+}
+
+
+
+public class StrategyHotSwap_WarmUpReplay {
+	public static void main(String[] args) throws InterruptedException {
+		MarketDataFeed feed = MarketDataFeed.getInstance();
+		SignalListener ignore = (signal, price) -> { };
+		HotSwapAlgorithm algorithm = new HotSwapAlgorithm("Algo-Hot", new MomentumSignalStrategy(20, 100, 0.002, ignore), 1 << 12);
+		feed.register(algorithm);
+
+		Thread publisher = new Thread(() -> {
+			double price = 10_000;
+			Random random = new Random(13);
+			for(int tick = 0; tick < 2_000_000; tick++) {
+				price += random.nextGaussian() * 3 + 2 * Math.sin(tick / 2_000.0);
+				feed.setMarketPrice((int) price);
+				if((tick & 1023) == 0) Thread.yield();
+			}
+		}, "feed");
+		publisher.start();
+
+		Thread.sleep(50);
+		// a full 200 tick window the moment it goes live
+		StrategySwap swap = algorithm.hotSwap(new MeanReversionSignalStrategy(200, 2.0, 0.5, ignore), 200, 1, TimeUnit.SECONDS);
+		System.out.println("momentum → mean reversion : " + swap);
+
+		Thread.sleep(50);
+		swap = algorithm.hotSwap(new MomentumSignalStrategy(20, 100, 0.002, ignore), 0, 1, TimeUnit.SECONDS);
+		System.out.println("mean reversion → momentum, no warm up : " + swap);
+
+		publisher.join();
+		feed.unregister(algorithm);
+		System.out.println(algorithm.ticks() + " ticks received");
+	}
+}
@@ -23,7 +23,7 @@ Backpressure handling
 package com.behavioral;
 
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /* ===================== STRATEGY ===================== */
 
@@ -50,20 +50,48 @@ class MomentumStrategy implements TradingStrategy {
 class TradingAlgorithm {
 
 	private final String name;
-	private TradingStrategy strategy;
+	// volatile : setStrategy from any thread is seen by the feed thread on its next tick
+	private volatile TradingStrategy strategy;
+	private final boolean printTicks;
 
 	public TradingAlgorithm(String name, TradingStrategy strategy) {
+		this(name, strategy, true);
+	}
+
+	// printTicks false → nothing printed, nothing allocated per tick (TradingSignals_RollingWindow)
+	public TradingAlgorithm(String name, TradingStrategy strategy, boolean printTicks) {
 		this.name = name;
 		this.strategy = strategy;
+		this.printTicks = printTicks;
 	}
 
+	// takes effect at the next tick, without warm up (StrategyHotSwap_WarmUpReplay for that)
 	public void setStrategy(TradingStrategy strategy) {
 		this.strategy = strategy;
 	}
 
+	public TradingStrategy getStrategy() {
+		return strategy;
+	}
+
+	public String getName() {
+		return name;
+	}
+
 	public void onPriceUpdate(int price) {
-		System.out.print(name + " received price → ");
-		strategy.execute(price);
+		TradingStrategy current = strategy;		// read once : a tick goes to one strategy, whole
+		if (printTicks) System.out.print(name + " received price → ");
+		current.execute(price);
+	}
+
+	// multi symbol feed (MarketDataBook_SymbolTable) : only for the symbols subscribed to, the whole book is in data
+	public void onSymbolUpdate(int symbol, SymbolMarketData data) {
+		onPriceUpdate(data.price(symbol));
+	}
+
+	// one price of one symbol, handed over on its own thread by a SubscriberMailbox (MarketDataDelivery_Mailbox)
+	public void onSymbolPrice(int symbol, int price) {
+		onPriceUpdate(price);
 	}
 }
 
@@ -72,8 +100,12 @@ class TradingAlgorithm {
 class MarketDataFeed {
 
 	private volatile int marketPrice;
+	// copy on write : register() while prices go out does not break the iteration
 	private final List<TradingAlgorithm> subscribers =
-			new ArrayList<>();
+			new CopyOnWriteArrayList<>();
+	// null → subscribers are called on the publisher thread, else every one reads the ring on its own thread
+	private volatile TickRingBuffer ring;
+	private TickWaitStrategy waitStrategy;
 
 	private MarketDataFeed() {}
 
@@ -85,17 +117,33 @@ class MarketDataFeed {
 		return Holder.INSTANCE;
 	}
 
-	public void register(TradingAlgorithm algo) {
+	public synchronized void register(TradingAlgorithm algo) {
 		subscribers.add(algo);
+		if (ring != null) ring.subscribe(algo, waitStrategy);
 	}
 
-	public void unregister(TradingAlgorithm algo) {
+	public synchronized void unregister(TradingAlgorithm algo) {
 		subscribers.remove(algo);
+		if (ring != null) ring.unsubscribe(algo);
+	}
+
+	// switches to ring buffer publication, see MarketDataFeed_RingBuffer. setMarketPrice must then come from one thread
+	public synchronized TickRingBuffer useRingBuffer(int capacity, TickWaitStrategy wait) {
+		if (ring != null) throw new IllegalStateException("the feed already publishes through a ring");
+		TickRingBuffer ringBuffer = new TickRingBuffer(capacity);
+		for (TradingAlgorithm algo : subscribers) {
+			ringBuffer.subscribe(algo, wait);
+		}
+		this.waitStrategy = wait;
+		this.ring = ringBuffer;
+		return ringBuffer;
 	}
 
 	public void setMarketPrice(int price) {
 		this.marketPrice = price;
-		notifySubscribers();
+		TickRingBuffer ringBuffer = ring;
+		if (ringBuffer != null) ringBuffer.publish(price);
+		else notifySubscribers();
 	}
 
 	private void notifySubscribers() {
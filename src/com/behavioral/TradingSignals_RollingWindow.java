@@ -0,0 +1,241 @@
+/*
+ * Trading Signals on Rolling Windows (Strategy)
+Follow up of: Trading Platform (Observer + Strategy + Singleton)
+
+Requirement
+TradingStrategy.execute and TradingAlgorithm.onPriceUpdate print a string on every tick.
+Real momentum and mean reversion strategies need rolling windows : moving averages, variance, z-scores.
+Incremental rolling statistics on primitives :
+simple moving average and variance over the last n prices (ring buffered)
+exponential moving average
+Momentum and mean reversion strategies built on them, that allocate nothing per tick once warm
+(bytes allocated per tick measured in TradingStrategyBenchmark).
+
+Patterns Used
+Strategy → MomentumSignalStrategy and MeanReversionSignalStrategy are TradingStrategies, swappable like the printing ones
+Observer → a strategy tells its SignalListener when its position changes
+ */
+
+
+/*
+ * - RollingWindow keeps the last n prices in an int ring. every add is O(1) : the sum moves by (new - old), exactly, in a long,
+ *   mean and variance move with the windowed Welford update (new - old) x (new - mean' + old - mean).
+ *   doubles drift after millions of updates, so once per lap of the ring (every n adds) mean and variance are recomputed
+ *   from the ring : O(n) every n adds, still O(1) a tick.
+ * - ExponentialAverage is one double, alpha = 2 / (periods + 1), seeded with the first price.
+ * - the strategies only call final methods of final classes, no boxing, no collections, no strings. a Signal is an enum
+ *   constant, a listener is called only when the position changes, not every tick.
+ * - TradingAlgorithm(name, strategy, false) does not print : with it the whole path feed → algorithm → strategy allocates nothing.
+ *   the printing algorithms stay as they were for the demos.
+ */
+
+package com.behavioral;
+
+import java.util.Random;
+
+enum Signal {
+	BUY, SELL, FLAT
+}
+
+interface SignalListener {
+	void onSignal(Signal signal, int price);
+}
+
+// the last size prices : sum, mean, variance
+final class RollingWindow {
+	private final int[] prices;
+	private int next, count;
+	private long sum;
+	private double mean, m2;		// m2 = sum of squared distances to the mean
+
+	RollingWindow(int size) {
+		if(size < 2) throw new IllegalArgumentException("a window needs at least 2 prices, got " + size);
+		this.prices = new int[size];
+	}
+
+	public void add(int price) {
+		if(count < prices.length) {
+			prices[next] = price;
+			sum += price;
+			count++;
+			double delta = price - mean;
+			mean += delta / count;
+			m2 += delta * (price - mean);
+		}
+		else {
+			int old = prices[next];
+			prices[next] = price;
+			long change = (long) price - old;		// in int it overflows for prices far apart
+			sum += change;
+			double previousMean = mean;
+			mean += (double) change / count;
+			m2 += change * (price - mean + old - previousMean);
+			if(m2 < 0) m2 = 0;
+		}
+		if(++next == prices.length) {
+			next = 0;
+			if(count == prices.length) recompute();
+		}
+	}
+
+	// exact again, once per lap
+	private void recompute() {
+		mean = (double) sum / count;
+		double squares = 0;
+		for(int price: prices) {
+			double delta = price - mean;
+			squares += delta * delta;
+		}
+		m2 = squares;
+	}
+
+	public boolean full() {
+		return count == prices.length;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public double sma() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	// of the prices in the window (population variance)
+	public double variance() {
+		return count == 0 ? 0 : m2 / count;
+	}
+
+	public double standardDeviation() {
+		return Math.sqrt(variance());
+	}
+
+	// how many standard deviations price is from the moving average, 0 while the window is flat
+	public double zScore(int price) {
+		double deviation = standardDeviation();
+		return deviation == 0 ? 0 : (price - sma()) / deviation;
+	}
+}
+
+final class ExponentialAverage {
+	private final double alpha;
+	private double value;
+	private long count;
+
+	ExponentialAverage(int periods) {
+		if(periods <= 0) throw new IllegalArgumentException("periods must be positive");
+		this.alpha = 2.0 / (periods + 1);
+	}
+
+	public double add(int price) {
+		value = count++ == 0 ? price : value + alpha * (price - value);
+		return value;
+	}
+
+	public double value() {
+		return value;
+	}
+
+	public long count() {
+		return count;
+	}
+}
+
+// long while the fast average is above the slow one, short while below
+final class MomentumSignalStrategy implements TradingStrategy {
+	private final ExponentialAverage fast, slow;
+	private final int slowPeriods;
+	private final double band;		// fraction of the price the averages must be apart, against flapping
+	private final SignalListener listener;
+	private Signal position = Signal.FLAT;
+
+	MomentumSignalStrategy(int fastPeriods, int slowPeriods, double band, SignalListener listener) {
+		if(fastPeriods >= slowPeriods) throw new IllegalArgumentException("the fast average must be shorter than the slow one");
+		this.fast = new ExponentialAverage(fastPeriods);
+		this.slow = new ExponentialAverage(slowPeriods);
+		this.slowPeriods = slowPeriods;
+		this.band = band;
+		this.listener = listener;
+	}
+
+	@Override
+	public void execute(int price) {
+		double fastAverage = fast.add(price), slowAverage = slow.add(price);
+		if(slow.count() < slowPeriods) return;		// warming up
+		double gap = (fastAverage - slowAverage) / slowAverage;
+		Signal next = gap > band ? Signal.BUY : gap < -band ? Signal.SELL : position;
+		if(next != position) {
+			position = next;
+			listener.onSignal(next, price);
+		}
+	}
+
+	public Signal position() {
+		return position;
+	}
+}
+
+// sells when the price is far above its moving average, buys when far below, flat again once back near it
+final class MeanReversionSignalStrategy implements TradingStrategy {
+	private final RollingWindow window;
+	private final double entryZ, exitZ;
+	private final SignalListener listener;
+	private Signal position = Signal.FLAT;
+
+	MeanReversionSignalStrategy(int windowSize, double entryZ, double exitZ, SignalListener listener) {
+		if(exitZ < 0 || exitZ >= entryZ) throw new IllegalArgumentException("need 0 <= exitZ < entryZ");
+		this.window = new RollingWindow(windowSize);
+		this.entryZ = entryZ;
+		this.exitZ = exitZ;
+		this.listener = listener;
+	}
+
+	@Override
+	public void execute(int price) {
+		window.add(price);
+		if(!window.full()) return;
+		double z = window.zScore(price);
+		Signal next = z >= entryZ ? Signal.SELL : z <= -entryZ ? Signal.BUY : Math.abs(z) <= exitZ ? Signal.FLAT : position;
+		if(next != position) {
+			position = next;
+			listener.onSignal(next, price);
+		}
+	}
+
+	public Signal position() {
+		return position;
+	}
+}
+
+
+
+public class TradingSignals_RollingWindow {
+	public static void main(String[] args) {
+		RollingWindow window = new RollingWindow(5);
+		for(int price: new int[] {100, 102, 101, 105, 107, 110}) window.add(price);
+		System.out.printf("last 5 of 100 102 101 105 107 110 : sma %.1f, variance %.2f, z(110) %.2f%n",
+				window.sma(), window.variance(), window.zScore(110));
+
+		// a random walk with a slow swing, quiet algorithms, only the signals are printed
+		int[] signals = new int[2];
+		MarketDataFeed feed = MarketDataFeed.getInstance();
+		TradingAlgorithm momentum = new TradingAlgorithm("Algo-Momentum", new MomentumSignalStrategy(20, 100, 0.002, (signal, price) -> {
+			if(signals[0]++ < 3) System.out.println("momentum       : " + signal + " at " + price);
+		}), false);
+		TradingAlgorithm meanReversion = new TradingAlgorithm("Algo-MeanReversion", new MeanReversionSignalStrategy(200, 2.0, 0.5, (signal, price) -> {
+			if(signals[1]++ < 3) System.out.println("mean reversion : " + signal + " at " + price);
+		}), false);
+		feed.register(momentum);
+		feed.register(meanReversion);
+
+		Random random = new Random(11);
+		double price = 10_000;
+		for(int tick = 0; tick < 100_000; tick++) {
+			price += random.nextGaussian() * 3 + 2 * Math.sin(tick / 2_000.0);
+			feed.setMarketPrice((int) price);
+		}
+		System.out.println("100000 ticks : momentum changed position " + signals[0] + " times, mean reversion " + signals[1] + " times");
+		feed.unregister(momentum);
+		feed.unregister(meanReversion);
+	}
+}
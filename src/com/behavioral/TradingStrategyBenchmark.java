@@ -0,0 +1,104 @@
+/*
+ * Benchmark for the rolling windows and signal strategies in TradingSignals_RollingWindow
+ *
+ * - 20M ticks of a random walk (from a preallocated int array) through each path, after 5M ticks of warmup on the same path.
+ * - ns/tick    : wall time / ticks, on the benchmark thread.
+ * - bytes/tick : bytes the benchmark thread allocated during the run / ticks
+ *   (com.sun.management.ThreadMXBean.getCurrentThreadAllocatedBytes, what JMH's gc profiler reads too). 0.00 = nothing per tick.
+ * - the paths :
+ *   window      RollingWindow(100).add + zScore
+ *   ema         ExponentialAverage(50).add
+ *   momentum    MarketDataFeed → quiet TradingAlgorithm → MomentumSignalStrategy(20, 100)
+ *   reversion   MarketDataFeed → quiet TradingAlgorithm → MeanReversionSignalStrategy(200, 2, 0.5)
+ *   boxed sma   for comparison, a moving average over an ArrayDeque<Integer>, the way it is often written first
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main(). results go to a volatile sink so the JIT
+ * can not drop the work. run it with: java -cp bin com.behavioral.TradingStrategyBenchmark
+ */
+
+package com.behavioral;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+public class TradingStrategyBenchmark {
+	static final int TICKS = 20_000_000;
+	static final int WARMUP = 5_000_000;
+	static final int PRICES = 1 << 20;
+
+	static volatile double sink;
+	static long signals;
+
+	static final class BoxedSma {
+		private final ArrayDeque<Integer> window = new ArrayDeque<>();
+		private final int size;
+		private long sum;
+
+		BoxedSma(int size) {
+			this.size = size;
+		}
+
+		double add(int price) {
+			window.addLast(price);
+			sum += price;
+			if(window.size() > size) sum -= window.removeFirst();
+			return (double) sum / window.size();
+		}
+	}
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		int[] prices = new int[PRICES];
+		Random random = new Random(5);
+		double walk = 10_000;
+		for(int i = 0; i < PRICES; i++) {
+			walk += random.nextGaussian() * 3 + 2 * Math.sin(i / 2_000.0);
+			prices[i] = (int) walk;
+		}
+
+		RollingWindow window = new RollingWindow(100);
+		ExponentialAverage ema = new ExponentialAverage(50);
+		SignalListener count = (signal, price) -> signals++;
+		MarketDataFeed feed = MarketDataFeed.getInstance();
+		TradingAlgorithm momentum = new TradingAlgorithm("momentum", new MomentumSignalStrategy(20, 100, 0.002, count), false);
+		TradingAlgorithm reversion = new TradingAlgorithm("reversion", new MeanReversionSignalStrategy(200, 2.0, 0.5, count), false);
+		BoxedSma boxed = new BoxedSma(100);
+
+		System.out.printf("%-10s %10s %12s%n", "path", "ns/tick", "bytes/tick");
+		run("window", prices, threads, price -> {
+			window.add(price);
+			return window.zScore(price);
+		});
+		run("ema", prices, threads, ema::add);
+		feed.register(momentum);
+		run("momentum", prices, threads, price -> {
+			feed.setMarketPrice(price);
+			return signals;
+		});
+		feed.unregister(momentum);
+		feed.register(reversion);
+		run("reversion", prices, threads, price -> {
+			feed.setMarketPrice(price);
+			return signals;
+		});
+		feed.unregister(reversion);
+		run("boxed sma", prices, threads, boxed::add);
+		System.out.println(signals + " signals");
+	}
+
+	private static void run(String path, int[] prices, com.sun.management.ThreadMXBean threads, IntToDoubleFunction tick) {
+		double result = 0;
+		for(int i = 0; i < WARMUP; i++) result += tick.applyAsDouble(prices[i & (PRICES - 1)]);
+
+		long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for(int i = 0; i < TICKS; i++) result += tick.applyAsDouble(prices[i & (PRICES - 1)]);
+		long elapsed = System.nanoTime() - start;
+		long bytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+		sink = result;
+		System.out.printf("%-10s %10.1f %12.2f%n", path, (double) elapsed / TICKS, (double) bytes / TICKS);
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * API Middleware Registry (flattened Decorator + copy on write)
+Follow up of: API Request Middleware (Execution order)
+
+Requirement
+new MetricsDecorator(new LoggingDecorator(new AuthenticationDecorator(base))) is a chain of virtual calls one inside the other,
+and the order is fixed by how it was built.
+Keep the middleware in a registry, each one with a name and an explicit priority.
+Flatten them into an ordered list that is run one after the other.
+Add, remove, reorder and switch middleware on / off at runtime while requests are running,
+without rebuilding the decorators and without pausing requests.
+
+Patterns Used
+Decorator → the existing appending decorators are reused as they are, each one wrapped around an empty step
+Registry → middleware looked up and changed by name
+Copy on write → every change builds a new FlattenedApiStack and swaps it in with one volatile write
+ */
+
+
+/*
+ * - an AppendingApiDecorator appends its part after the part of what it wraps. wrapped around EMPTY it appends only its own part,
+ *   so running the layers one after the other in the order they were nested gives the same response as the nested stack.
+ * - only those can be registered. a decorator that works around its step (InstrumentedApiStep times it, a retry calls it again,
+ *   a guard may skip it) would do that around EMPTY, and could not stop the layers after it. register throws for them,
+ *   they wrap the registry instead : new InstrumentedApiStep(registry, ...).
+ * - priority : lower runs first, i.e. closer to the base api. the same priority keeps registration order.
+ * - a request reads the stack once and runs all of it, so a change never shows up in the middle of a request.
+ *   requests running during a swap finish on the old stack, the next ones use the new one.
+ * - FlattenedApiStack has one field and one call site per position (like CompiledApiPipeline), so the jit sees one decorator
+ *   class per site. that keeps it close to the nested stack, it does not beat it : with 3 decorators the nested one is faster
+ *   (see the end of the demo). the registry is for changing the middleware at runtime, not for speed.
+ * - changes are rare and synchronized, requests never lock.
+ */
+
+package com.structural;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.behavioral.PipelineInstrumentation;
+
+final class EmptyApiStep implements IApiStep {
+	static final EmptyApiStep EMPTY = new EmptyApiStep();
+
+	@Override
+	public String perform() {
+		return "";
+	}
+
+	@Override
+	public void perform(StringBuilder response) {
+	}
+}
+
+final class ApiMiddleware {
+	final String name;
+	final int priority;
+	final boolean enabled;
+	final long order;		// registration order, breaks ties between equal priorities
+	final IApiStep layer;	// the decorator around EMPTY
+
+	ApiMiddleware(String name, int priority, boolean enabled, long order, IApiStep layer) {
+		this.name = name;
+		this.priority = priority;
+		this.enabled = enabled;
+		this.order = order;
+		this.layer = layer;
+	}
+
+	ApiMiddleware withPriority(int priority) {
+		return new ApiMiddleware(name, priority, enabled, order, layer);
+	}
+
+	ApiMiddleware withEnabled(boolean enabled) {
+		return new ApiMiddleware(name, priority, enabled, order, layer);
+	}
+}
+
+final class FlattenedApiStack implements IApiStep {
+	static final int UNROLLED = 8;
+
+	private final IApiStep base;
+	private final IApiStep m0, m1, m2, m3, m4, m5, m6, m7;
+	private final IApiStep[] rest;
+	final List<ApiMiddleware> middleware;		// every registered one in run order, disabled ones included
+	final String[] running;						// names of the enabled ones, in run order
+
+	FlattenedApiStack(IApiStep base, List<ApiMiddleware> middleware) {
+		this.base = base;
+		this.middleware = middleware;
+
+		List<IApiStep> layers = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for(ApiMiddleware m: middleware) {
+			if(!m.enabled) continue;
+			layers.add(m.layer);
+			names.add(m.name);
+		}
+		IApiStep[] slots = new IApiStep[UNROLLED];
+		for(int i = 0; i < UNROLLED; i++) {
+			slots[i] = i < layers.size() ? layers.get(i) : EmptyApiStep.EMPTY;
+		}
+		m0 = slots[0]; m1 = slots[1]; m2 = slots[2]; m3 = slots[3];
+		m4 = slots[4]; m5 = slots[5]; m6 = slots[6]; m7 = slots[7];
+		this.rest = layers.size() > UNROLLED ? layers.subList(UNROLLED, layers.size()).toArray(new IApiStep[0]) : new IApiStep[0];
+		this.running = names.toArray(new String[0]);
+	}
+
+	@Override
+	public String perform() {
+		StringBuilder response = new StringBuilder(128);
+		perform(response);
+		return response.toString();
+	}
+
+	@Override
+	public void perform(StringBuilder response) {
+		base.perform(response);
+		m0.perform(response);
+		m1.perform(response);
+		m2.perform(response);
+		m3.perform(response);
+		m4.perform(response);
+		m5.perform(response);
+		m6.perform(response);
+		m7.perform(response);
+
+		IApiStep[] rest = this.rest;
+		for(int i = 0; i < rest.length; i++) {
+			rest[i].perform(response);
+		}
+	}
+}
+
+class ApiMiddlewareRegistry implements IApiStep {
+	private static final Comparator<ApiMiddleware> RUN_ORDER =
+			Comparator.comparingInt((ApiMiddleware m) -> m.priority).thenComparingLong(m -> m.order);
+
+	private final IApiStep base;
+	private volatile FlattenedApiStack stack;
+	private long registered;
+
+	public ApiMiddlewareRegistry(IApiStep base) {
+		this.base = base;
+		this.stack = new FlattenedApiStack(base, new ArrayList<>());
+	}
+
+	// decorator is the constructor of an AppendingApiDecorator, e.g. LoggingDecorator::new
+	public synchronized void register(String name, int priority, Function<IApiStep, ? extends IApiStep> decorator) {
+		if(find(name) != null) throw new IllegalArgumentException("middleware " + name + " is already registered");
+		IApiStep layer = decorator.apply(EmptyApiStep.EMPTY);
+		if(!(layer instanceof AppendingApiDecorator)) {
+			throw new IllegalArgumentException("middleware " + name + " (" + layer.getClass().getSimpleName()
+					+ ") is not an AppendingApiDecorator, it can not be flattened. wrap the registry with it instead");
+		}
+		List<ApiMiddleware> next = new ArrayList<>(stack.middleware);
+		next.add(new ApiMiddleware(name, priority, true, registered++, layer));
+		swap(next);
+	}
+
+	public synchronized boolean remove(String name) {
+		ApiMiddleware existing = find(name);
+		if(existing == null) return false;
+		List<ApiMiddleware> next = new ArrayList<>(stack.middleware);
+		next.remove(existing);
+		swap(next);
+		return true;
+	}
+
+	public synchronized void setPriority(String name, int priority) {
+		replace(name, existing -> existing.withPriority(priority));
+	}
+
+	// switched off middleware stays registered with its priority, switching it on again puts it back in the same place
+	public synchronized void setEnabled(String name, boolean enabled) {
+		replace(name, existing -> existing.withEnabled(enabled));
+	}
+
+	private void replace(String name, Function<ApiMiddleware, ApiMiddleware> change) {
+		ApiMiddleware existing = find(name);
+		if(existing == null) throw new IllegalArgumentException("no middleware " + name);
+		List<ApiMiddleware> next = new ArrayList<>(stack.middleware);
+		next.set(next.indexOf(existing), change.apply(existing));
+		swap(next);
+	}
+
+	private ApiMiddleware find(String name) {
+		for(ApiMiddleware m: stack.middleware) {
+			if(m.name.equals(name)) return m;
+		}
+		return null;
+	}
+
+	private void swap(List<ApiMiddleware> next) {
+		next.sort(RUN_ORDER);
+		stack = new FlattenedApiStack(base, next);
+	}
+
+	// names of the middleware a request starting now runs through, in order
+	public List<String> running() {
+		return Arrays.asList(stack.running.clone());
+	}
+
+	@Override
+	public String perform() {
+		return stack.perform();
+	}
+
+	@Override
+	public void perform(StringBuilder response) {
+		stack.perform(response);		// one volatile read, the whole request runs on that stack
+	}
+}
+
+
+
+public class ApiMiddlewareRegistry_FlattenedDecorator {
+	public static void main(String[] args) throws InterruptedException {
+		ApiMiddlewareRegistry registry = new ApiMiddlewareRegistry(new BaseApi());
+		registry.register("authentication", 10, AuthenticationDecorator::new);
+		registry.register("logging", 20, LoggingDecorator::new);
+		registry.register("metrics", 30, MetricsDecorator::new);
+
+		IApiStep nested = new MetricsDecorator(new LoggingDecorator(new AuthenticationDecorator(new BaseApi())));
+		System.out.println("nested     → " + nested.perform());
+		System.out.println("registry   → " + registry.perform() + " " + registry.running());
+
+		try {
+			registry.register("timing", 40, api -> InstrumentedApiStep.instrument(api, new PipelineInstrumentation(true)));
+		}
+		catch(IllegalArgumentException e) {
+			System.out.println("timing     → " + e.getMessage());
+		}
+
+		registry.setPriority("metrics", 5);
+		System.out.println("reordered  → " + registry.perform());
+		registry.setEnabled("logging", false);
+		System.out.println("no logging → " + registry.perform());
+		registry.setEnabled("logging", true);
+		registry.setPriority("metrics", 30);
+
+		// a thread serves requests while the main thread keeps switching logging on and off.
+		// every response has to be one of the two complete shapes, never a mix
+		String withLogging = registry.perform();
+		registry.setEnabled("logging", false);
+		String withoutLogging = registry.perform();
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong served = new AtomicLong(), broken = new AtomicLong();
+		Thread traffic = new Thread(() -> {
+			StringBuilder response = new StringBuilder(256);
+			while(running.get()) {
+				response.setLength(0);
+				registry.perform(response);
+				String shape = response.toString();
+				if(!shape.equals(withLogging) && !shape.equals(withoutLogging)) broken.incrementAndGet();
+				served.incrementAndGet();
+			}
+		});
+		traffic.start();
+		for(int i = 0; i < 10_000; i++) {
+			registry.setEnabled("logging", i % 2 == 0);
+			if(i % 100 == 0) Thread.sleep(1);
+		}
+		running.set(false);
+		traffic.join();
+		System.out.println("10,000 toggles under traffic → " + served.get() + " requests served, " + broken.get() + " mixed responses");
+
+		// nested vs flattened, same 3 decorators, one reused buffer
+		registry.setEnabled("logging", true);
+		StringBuilder response = new StringBuilder(256);
+		for(int round = 0; round < 5; round++) {
+			long nestedNanos = time(nested, response), flatNanos = time(registry, response);
+			if(round == 4) System.out.printf("per request : nested %.1f ns, flattened %.1f ns%n", nestedNanos / 1e7, flatNanos / 1e7);
+		}
+	}
+
+	private static long time(IApiStep api, StringBuilder response) {
+		long start = System.nanoTime();
+		for(int i = 0; i < 10_000_000; i++) {
+			response.setLength(0);
+			api.perform(response);
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Benchmark for the decorator stack in ApiRequestMiddleware_Decorator
+ *
+ * - stacks of 3, 10 and 30 decorators (Authentication, Logging, Metrics repeated).
+ * - concat   : every layer returns baseApi.perform() + "...", the way the decorators were written at first.
+ * - perform  : perform() of the new decorators, one builder and one String per request.
+ * - buffer   : perform(StringBuilder) into one builder reused for every request.
+ * - allocation is read from the jvm's per thread allocated bytes counter, so it is exact and needs no profiler.
+ *
+ * there is no JMH on the classpath of this project, so this is a plain main() with warmup + measured rounds.
+ * run it with: java -cp bin com.structural.ApiRequestMiddlewareBenchmark
+ */
+
+package com.structural;
+
+import java.lang.management.ManagementFactory;
+
+public class ApiRequestMiddlewareBenchmark {
+	static final int REQUESTS = 1_000_000;
+	static final int ROUNDS = 5;
+
+	static volatile long sink;
+
+	// the first version of the decorators, kept here to compare against
+	static class ConcatDecorator implements IApiStep {
+		final IApiStep baseApi;
+		final String step;
+
+		ConcatDecorator(IApiStep baseApi, String step) {
+			this.baseApi = baseApi;
+			this.step = step;
+		}
+
+		@Override
+		public String perform() {
+			return baseApi.perform() + step;
+		}
+	}
+
+	static IApiStep concatStack(int depth) {
+		String[] steps = {"authnetication, ", "Logging, ", "Metrics, "};
+		IApiStep api = new BaseApi();
+		for(int i = 0; i < depth; i++) api = new ConcatDecorator(api, steps[i % 3]);
+		return api;
+	}
+
+	static IApiStep decoratorStack(int depth) {
+		IApiStep api = new BaseApi();
+		for(int i = 0; i < depth; i++) {
+			switch(i % 3) {
+				case 0: api = new AuthenticationDecorator(api); break;
+				case 1: api = new LoggingDecorator(api); break;
+				default: api = new MetricsDecorator(api);
+			}
+		}
+		return api;
+	}
+
+	interface Run {
+		long request();
+	}
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		System.out.printf("%-8s %-8s %12s %16s%n", "depth", "mode", "ns/request", "bytes/request");
+		for(int depth: new int[] {3, 10, 30}) {
+			IApiStep concat = concatStack(depth);
+			IApiStep stack = decoratorStack(depth);
+			StringBuilder buffer = new StringBuilder(1024);
+
+			Run[] runs = {
+					() -> concat.perform().length(),
+					() -> stack.perform().length(),
+					() -> {
+						buffer.setLength(0);
+						stack.perform(buffer);
+						return buffer.length();
+					}
+			};
+			String[] modes = {"concat", "perform", "buffer"};
+
+			for(int m = 0; m < runs.length; m++) {
+				double nanos = 0, bytes = 0;
+				for(int round = 0; round < ROUNDS; round++) {		// the last round counts, the others warm up
+					long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+					long start = System.nanoTime();
+					long total = 0;
+					for(int i = 0; i < REQUESTS; i++) total += runs[m].request();
+					nanos = (double) (System.nanoTime() - start) / REQUESTS;
+					bytes = (double) (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / REQUESTS;
+					sink += total;
+				}
+				System.out.printf("%-8d %-8s %12.1f %16.1f%n", depth, modes[m], nanos, bytes);
+			}
+		}
+	}
+}
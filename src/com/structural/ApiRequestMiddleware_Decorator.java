@@ -46,8 +46,16 @@ Key difference:
 
 package com.structural;
 
+import com.behavioral.PipelineInstrumentation;
+
 interface IApiStep {
 	String perform();
+	
+	// appends the response to a buffer the caller owns and reuses (setLength(0) per request), so a whole stack allocates nothing.
+	// steps written before this only have perform() and still work, at the cost of one String each
+	default void perform(StringBuilder response) {
+		response.append(perform());
+	}
 }
 
 class BaseApi implements IApiStep{
@@ -55,11 +63,21 @@ class BaseApi implements IApiStep{
 	public String perform() {
 		return "This is a base API. It will go through the following steps ";
 	}
+	
+	@Override
+	public void perform(StringBuilder response) {
+		response.append("This is a base API. It will go through the following steps ");
+	}
 }
 
 
 
 
+/*
+ * - perform() of a decorator used to be baseApi.perform() + "...", one concatenation and one new String per layer.
+ * - now every layer appends to the one buffer handed down the stack, the inner layers first, so the output is the same.
+ * - perform() without a buffer stays for callers that want a String, it makes one builder and one String per request, not per layer.
+ */
 abstract class ApiDecorator implements IApiStep {
 	IApiStep baseApi;
 	
@@ -67,43 +85,99 @@ abstract class ApiDecorator implements IApiStep {
 		this.baseApi = baseApi;
 	}
 	
-	abstract public String perform();
+	@Override
+	public String perform() {
+		StringBuilder response = new StringBuilder(128);
+		perform(response);
+		return response.toString();
+	}
+	
+	@Override
+	abstract public void perform(StringBuilder response);
 }
 
 
+// declared by a decorator that always calls the step it wraps, once, first, and then appends a part of its own that does not
+// depend on what that step wrote. only those give the same response run one after the other as nested (ApiMiddlewareRegistry)
+interface AppendingApiDecorator extends IApiStep {
+}
+
 
 
 
-class AuthenticationDecorator extends ApiDecorator { 
+class AuthenticationDecorator extends ApiDecorator implements AppendingApiDecorator { 
 	AuthenticationDecorator(IApiStep baseApi) {
 		super(baseApi);
 	}
 	
 	@Override
-	public String perform() {
-		return baseApi.perform() + "authnetication, ";
+	public void perform(StringBuilder response) {
+		baseApi.perform(response);
+		response.append("authnetication, ");
 	}
 }
 
-class LoggingDecorator extends ApiDecorator { 
+class LoggingDecorator extends ApiDecorator implements AppendingApiDecorator { 
 	LoggingDecorator(IApiStep baseApi) {
 		super(baseApi);
 	}
 	
 	@Override
-	public String perform() {
-		return baseApi.perform() + "Logging, ";
+	public void perform(StringBuilder response) {
+		baseApi.perform(response);
+		response.append("Logging, ");
 	}
 }
 
-class MetricsDecorator extends ApiDecorator { 
+class MetricsDecorator extends ApiDecorator implements AppendingApiDecorator { 
 	MetricsDecorator(IApiStep baseApi) {
 		super(baseApi);
 	}
 	
+	@Override
+	public void perform(StringBuilder response) {
+		baseApi.perform(response);
+		response.append("Metrics, ");
+	}
+}
+
+
+// times the layer it wraps (that layer and everything under it) into PipelineInstrumentation.
+// wrap every layer to see what each decorator adds : its mean minus the mean of the layer below.
+// switched off it is one volatile read and one more call per layer
+class InstrumentedApiStep implements IApiStep {
+	private final IApiStep api;
+	private final PipelineInstrumentation instrumentation;
+	private final PipelineInstrumentation.HandlerStats stats;
+
+	InstrumentedApiStep(IApiStep api, String name, PipelineInstrumentation instrumentation) {
+		this.api = api;
+		this.instrumentation = instrumentation;
+		this.stats = instrumentation.handler(name);
+	}
+
+	static IApiStep instrument(IApiStep api, PipelineInstrumentation instrumentation) {
+		return new InstrumentedApiStep(api, api.getClass().getSimpleName(), instrumentation);
+	}
+
 	@Override
 	public String perform() {
-		return baseApi.perform() + "Metrics, ";
+		if(!instrumentation.isEnabled()) return api.perform();
+		long start = System.nanoTime();
+		String response = api.perform();
+		stats.record(System.nanoTime() - start, true);		// a decorator always calls through, it never short-circuits
+		return response;
+	}
+	
+	@Override
+	public void perform(StringBuilder response) {
+		if(!instrumentation.isEnabled()) {
+			api.perform(response);
+			return;
+		}
+		long start = System.nanoTime();
+		api.perform(response);
+		stats.record(System.nanoTime() - start, true);
 	}
 }
 
@@ -117,5 +191,23 @@ public class ApiRequestMiddleware_Decorator {
 		api = new MetricsDecorator(api);
 		
 		System.out.println(api.perform());
+		
+		// the same stack writing into a buffer that is reused for every request
+		StringBuilder response = new StringBuilder(256);
+		for(int i = 0; i < 3; i++) {
+			response.setLength(0);
+			api.perform(response);
+		}
+		System.out.println(response);
+		
+		// same stack with every layer timed
+		PipelineInstrumentation instrumentation = new PipelineInstrumentation(true);
+		IApiStep timed = InstrumentedApiStep.instrument(new BaseApi(), instrumentation);
+		timed = InstrumentedApiStep.instrument(new AuthenticationDecorator(timed), instrumentation);
+		timed = InstrumentedApiStep.instrument(new LoggingDecorator(timed), instrumentation);
+		timed = InstrumentedApiStep.instrument(new MetricsDecorator(timed), instrumentation);
+		
+		for(int i = 0; i < 100_000; i++) timed.perform();
+		instrumentation.snapshot().values().forEach(System.out::println);
 	}
 }